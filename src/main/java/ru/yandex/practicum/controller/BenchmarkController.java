@@ -0,0 +1,57 @@
+package ru.yandex.practicum.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import ru.yandex.practicum.model.RecommendationEvaluation;
+import ru.yandex.practicum.model.SuggestionBenchmark;
+import ru.yandex.practicum.service.UserService;
+
+import java.util.List;
+
+// Замеры подбора друзей и движков рекомендаций на синтетических и реальных данных нагружают сервер,
+// поэтому доступны только при filmorate.benchmarks.enabled=true
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/users")
+@ConditionalOnProperty(name = "filmorate.benchmarks.enabled", havingValue = "true")
+public class BenchmarkController {
+    private final UserService userService;
+
+    @GetMapping("/suggestions/benchmark")
+    public SuggestionBenchmark benchmarkSuggestions(
+            @RequestParam(name = "users", required = false, defaultValue = "100000") Integer users,
+            @RequestParam(name = "edgesPerUser", required = false, defaultValue = "10") Integer edgesPerUser,
+            @RequestParam(name = "samples", required = false, defaultValue = "1000") Integer samples,
+            @RequestParam(name = "count", required = false, defaultValue = "10") Integer count,
+            @RequestParam(name = "seed", required = false, defaultValue = "42") Long seed) {
+        log.info("Получен запрос на замер рекомендаций друзей на синтетическом графе: пользователей {}, " +
+                "связей на пользователя {}, запросов {}", users, edgesPerUser, samples);
+        return userService.benchmarkSuggestions(users, edgesPerUser, samples, count, seed);
+    }
+
+    @GetMapping("/recommendations/evaluation")
+    public List<RecommendationEvaluation> evaluateRecommendations(
+            @RequestParam(name = "k", required = false, defaultValue = "10") Integer k) {
+        log.info("Получен запрос на офлайн-оценку движков рекомендаций, k = {}", k);
+        return userService.evaluateRecommendations(k);
+    }
+
+    @GetMapping("/recommendations/benchmark")
+    public List<RecommendationEvaluation> benchmarkRecommendations(
+            @RequestParam(name = "users", required = false, defaultValue = "10000") Integer users,
+            @RequestParam(name = "films", required = false, defaultValue = "2000") Integer films,
+            @RequestParam(name = "ratingsPerUser", required = false, defaultValue = "20") Integer ratingsPerUser,
+            @RequestParam(name = "zipf", required = false, defaultValue = "1.0") Double zipf,
+            @RequestParam(name = "seed", required = false, defaultValue = "42") Long seed,
+            @RequestParam(name = "k", required = false, defaultValue = "10") Integer k) {
+        log.info("Получен запрос на сравнение движков рекомендаций на синтетических данных: пользователей {}, " +
+                "фильмов {}, оценок на пользователя {}, zipf = {}, k = {}", users, films, ratingsPerUser, zipf, k);
+        return userService.benchmarkRecommendations(users, films, ratingsPerUser, zipf, seed, k);
+    }
+}
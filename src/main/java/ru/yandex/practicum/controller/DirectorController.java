@@ -3,11 +3,13 @@ package ru.yandex.practicum.controller;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.model.CacheStats;
 import ru.yandex.practicum.model.film.Director;
 import ru.yandex.practicum.service.DirectorService;
 
 import javax.validation.Valid;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @RestController
@@ -34,6 +36,12 @@ public class DirectorController {
         return directorService.getAllDirectors();
     }
 
+    @GetMapping("/cache/stats")
+    public Map<String, CacheStats> getCacheStats() {
+        log.info("Получен запрос на получение статистики кэша режиссеров");
+        return directorService.getCacheStats();
+    }
+
     @PutMapping
     public Director update(@RequestBody @Valid Director director) {
         log.info("Получен запрос на обновление данных режессера с id = {}", director.getId());
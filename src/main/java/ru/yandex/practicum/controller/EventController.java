@@ -2,13 +2,16 @@ package ru.yandex.practicum.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import ru.yandex.practicum.model.event.Event;
 import ru.yandex.practicum.service.EventService;
 
+import java.util.Collection;
 import java.util.List;
 
 
@@ -25,4 +28,13 @@ public class EventController {
         log.info("Получен запрос ленты событий по id пользователя {}.", id);
         return eventService.getEvents(id);
     }
+
+    @GetMapping(params = "limit")
+    public ResponseEntity<Collection<Event>> getEventsPage(
+            @PathVariable Integer id,
+            @RequestParam(name = "afterId", required = false, defaultValue = "0") Integer afterId,
+            @RequestParam(name = "limit") Integer limit) {
+        log.info("Получен запрос {} событий ленты пользователя {} после события с id = {}.", limit, id, afterId);
+        return PageResponse.of(eventService.getPage(id, afterId, limit));
+    }
 }
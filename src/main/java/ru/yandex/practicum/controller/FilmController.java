@@ -1,9 +1,12 @@
 package ru.yandex.practicum.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.service.FilmService;
 
@@ -17,6 +20,7 @@ import java.util.List;
 @RequestMapping("/films")
 public class FilmController {
     private final FilmService filmService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     public Film create(@RequestBody @Valid Film film) {
@@ -30,10 +34,18 @@ public class FilmController {
         return filmService.update(film);
     }
 
-    @GetMapping
-    public Collection<Film> findAllFilms() {
+    @GetMapping(params = "all=true")
+    public ResponseEntity<StreamingResponseBody> findAllFilms() {
         log.info("Получен запрос на вывод списка всех фильмов");
-        return filmService.getAll();
+        return StreamingJsonResponse.of(objectMapper, filmService::streamAll);
+    }
+
+    @GetMapping
+    public ResponseEntity<Collection<Film>> findFilmsPage(
+            @RequestParam(name = "afterId", required = false, defaultValue = "0") Integer afterId,
+            @RequestParam(name = "limit", required = false, defaultValue = "100") Integer limit) {
+        log.info("Получен запрос на вывод {} фильмов после фильма с id = {}", limit, afterId);
+        return PageResponse.of(filmService.getPage(afterId, limit));
     }
 
     @GetMapping("/{id}")
@@ -62,6 +74,12 @@ public class FilmController {
         return filmService.getTop(Integer.valueOf(count));
     }
 
+    @PostMapping("/stats/rebuild")
+    public void rebuildStats() {
+        log.info("Получен запрос на пересчет статистики оценок фильмов и перезагрузку справочников");
+        filmService.rebuildStats();
+    }
+
     @GetMapping("/director/{id}")
     public List<Film> getFilmsSortedByDirector(@PathVariable Integer id, @RequestParam String sortBy) {
         log.info("Получен запрос на вывод всех фильмов режиссёра с id = {}, отсортированных по {}", id, sortBy);
@@ -76,9 +94,17 @@ public class FilmController {
     }
 
     @GetMapping("/search")
-    public List<Film> searchFilms(@RequestParam String query, @RequestParam String by) {
+    public List<Film> searchFilms(@RequestParam String query, @RequestParam String by,
+                                  @RequestParam(required = false) Integer count) {
         log.info("Получен запрос на вывод списка фильмов по запросу {} и {}", query, by);
-        return filmService.searchFilms(query, by);
+        return filmService.searchFilms(query, by, count);
+    }
+
+    @GetMapping("/{id}/similar")
+    public List<Film> findSimilarFilms(@PathVariable int id,
+                                       @RequestParam(name = "count", required = false, defaultValue = "10") Integer count) {
+        log.info("Получен запрос на вывод фильмов, похожих на фильм с id = {}", id);
+        return filmService.findSimilarFilms(id, count);
     }
 
     @DeleteMapping("/{id}")
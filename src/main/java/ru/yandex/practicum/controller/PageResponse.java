@@ -0,0 +1,23 @@
+package ru.yandex.practicum.controller;
+
+import org.springframework.http.ResponseEntity;
+import ru.yandex.practicum.model.Page;
+
+import java.util.Collection;
+
+final class PageResponse {
+    static final String NEXT_AFTER_ID_HEADER = "X-Next-After-Id";
+
+    private PageResponse() {
+    }
+
+    static <T> ResponseEntity<Collection<T>> of(Page<T> page) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+
+        if (page.getNextAfterId() != null) {
+            response.header(NEXT_AFTER_ID_HEADER, String.valueOf(page.getNextAfterId()));
+        }
+
+        return response.body(page.getItems());
+    }
+}
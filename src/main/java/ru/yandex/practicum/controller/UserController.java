@@ -1,10 +1,17 @@
 package ru.yandex.practicum.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.model.RecommendationBatchStats;
+import ru.yandex.practicum.model.RecommendationCacheStats;
 import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.model.user.User;
+import ru.yandex.practicum.model.user.UserDistance;
 import ru.yandex.practicum.service.UserService;
 
 import javax.validation.Valid;
@@ -17,6 +24,7 @@ import java.util.List;
 @RequestMapping("/users")
 public class UserController {
     private final UserService userService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping
     public User create(@RequestBody @Valid User user) {
@@ -30,10 +38,18 @@ public class UserController {
         return userService.update(user);
     }
 
-    @GetMapping
-    public Collection<User> findAllUsers() {
+    @GetMapping(params = "all=true")
+    public ResponseEntity<StreamingResponseBody> findAllUsers() {
         log.info("Получен запрос на вывод списка всех пользователей");
-        return userService.getAll();
+        return StreamingJsonResponse.of(objectMapper, userService::streamAll);
+    }
+
+    @GetMapping
+    public ResponseEntity<Collection<User>> findUsersPage(
+            @RequestParam(name = "afterId", required = false, defaultValue = "0") Integer afterId,
+            @RequestParam(name = "limit", required = false, defaultValue = "100") Integer limit) {
+        log.info("Получен запрос на вывод {} пользователей после пользователя с id = {}", limit, afterId);
+        return PageResponse.of(userService.getPage(afterId, limit));
     }
 
     @GetMapping("/{id}")
@@ -66,6 +82,19 @@ public class UserController {
         return userService.commonFriends(id, otherId);
     }
 
+    @GetMapping("/{id}/suggestions")
+    public List<User> getSuggestions(@PathVariable Integer id,
+                                     @RequestParam(name = "count", required = false, defaultValue = "10") Integer count) {
+        log.info("Получен запрос на вывод {} рекомендуемых друзей пользователя с id = {}", count, id);
+        return userService.getSuggestions(id, count);
+    }
+
+    @GetMapping("/{id}/distance/{otherId}")
+    public UserDistance getDistance(@PathVariable Integer id, @PathVariable Integer otherId) {
+        log.info("Получен запрос на вычисление расстояния между пользователями с id = {} и {}", id, otherId);
+        return userService.getDistance(id, otherId);
+    }
+
     @PatchMapping("/{userId}/accept-friendship/{friendId}")
     public void acceptFriendship(@PathVariable Integer userId, @PathVariable Integer friendId) {
         log.info("Получен запрос на добавление пользователя с id = {} в друзья пользователя с id = {}", friendId, userId);
@@ -84,9 +113,35 @@ public class UserController {
         return userService.deleteById(id);
     }
 
+    @PostMapping("/recommendations/rebuild")
+    public void rebuildRecommendations() {
+        log.info("Получен запрос на пересчет матрицы рекомендаций");
+        userService.rebuildRecommendations();
+    }
+
+    @PostMapping("/recommendations/batch")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void runRecommendationBatch() {
+        log.info("Получен запрос на фоновый расчет рекомендаций");
+        userService.runRecommendationBatch();
+    }
+
+    @GetMapping("/recommendations/batch/stats")
+    public RecommendationBatchStats getRecommendationBatchStats() {
+        log.info("Получен запрос на получение статистики фонового расчета рекомендаций");
+        return userService.getRecommendationBatchStats();
+    }
+
+    @GetMapping("/recommendations/cache/stats")
+    public RecommendationCacheStats getRecommendationCacheStats() {
+        log.info("Получен запрос на получение статистики кэша рекомендаций");
+        return userService.getRecommendationCacheStats();
+    }
+
     @GetMapping("/{id}/recommendations")
-    public List<Film> getRecommendations(@PathVariable(name = "id") Integer id) {
+    public List<Film> getRecommendations(@PathVariable(name = "id") Integer id,
+                                         @RequestParam(required = false) Integer count) {
         log.info("Получен запрос на генерацию рекомендаций для пользователя с id = {}", id);
-        return userService.getRecommendations(id);
+        return userService.getRecommendations(id, count);
     }
 }
@@ -0,0 +1,16 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class CacheStats {
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private int size;
+}
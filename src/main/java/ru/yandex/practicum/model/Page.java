@@ -0,0 +1,26 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+@Data
+@AllArgsConstructor
+public class Page<T> {
+    private List<T> items;
+
+    private Integer nextAfterId;
+
+    public static <T> Page<T> of(List<T> itemsWithNext, int limit, Function<T, Integer> idGetter) {
+        if (itemsWithNext.size() <= limit) {
+            return new Page<>(itemsWithNext, null);
+        }
+
+        List<T> items = new ArrayList<>(itemsWithNext.subList(0, limit));
+
+        return new Page<>(items, idGetter.apply(items.get(limit - 1)));
+    }
+}
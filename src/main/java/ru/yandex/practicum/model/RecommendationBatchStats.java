@@ -0,0 +1,26 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RecommendationBatchStats {
+    private boolean running;
+
+    private Long jobId;
+
+    private boolean resumed;
+
+    private int totalUsers;
+
+    private int processedUsers;
+
+    private double progress;
+
+    private long durationMillis;
+
+    private double usersPerSecond;
+
+    private long completedJobs;
+}
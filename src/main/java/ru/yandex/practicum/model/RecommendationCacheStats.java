@@ -0,0 +1,26 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RecommendationCacheStats {
+    private long hits;
+
+    private long misses;
+
+    private double hitRatio;
+
+    private long staleEvictions;
+
+    private long evictions;
+
+    private int size;
+
+    private long computations;
+
+    private double averageComputeMillis;
+
+    private double maxComputeMillis;
+}
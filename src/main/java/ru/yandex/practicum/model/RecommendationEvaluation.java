@@ -0,0 +1,34 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RecommendationEvaluation {
+    private String engine;
+
+    private String dataset;
+
+    private int ratings;
+
+    private int k;
+
+    private int users;
+
+    private double precisionAtK;
+
+    private double recallAtK;
+
+    private double trainMillis;
+
+    private double p50Millis;
+
+    private double p90Millis;
+
+    private double p99Millis;
+
+    private double allocatedKbPerRequest;
+
+    private double allocationMbPerSecond;
+}
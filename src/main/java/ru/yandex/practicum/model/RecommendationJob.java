@@ -0,0 +1,16 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RecommendationJob {
+    private long jobId;
+
+    private int lastUserId;
+
+    private int processedUsers;
+
+    private int totalUsers;
+}
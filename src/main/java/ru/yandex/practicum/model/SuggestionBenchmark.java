@@ -0,0 +1,26 @@
+package ru.yandex.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class SuggestionBenchmark {
+    private int users;
+
+    private int edges;
+
+    private int maxDegree;
+
+    private int samples;
+
+    private double buildMillis;
+
+    private double p50Millis;
+
+    private double p90Millis;
+
+    private double p99Millis;
+
+    private double maxMillis;
+}
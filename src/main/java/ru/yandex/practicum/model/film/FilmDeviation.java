@@ -0,0 +1,16 @@
+package ru.yandex.practicum.model.film;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class FilmDeviation {
+    private int filmId;
+
+    private int otherFilmId;
+
+    private int diffSum;
+
+    private int coCount;
+}
@@ -0,0 +1,31 @@
+package ru.yandex.practicum.model.film;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class FilmStats {
+    private int filmId;
+
+    private int likeCount;
+
+    private int markSum;
+
+    private int markCount;
+
+    // растет при каждом изменении строки film_stats, по нему отбрасываются устаревшие снимки
+    private long version;
+
+    public FilmStats(int filmId) {
+        this.filmId = filmId;
+    }
+
+    public int getRating() {
+        if (markCount == 0) {
+            return 0;
+        }
+
+        return Math.round((float) markSum / markCount);
+    }
+}
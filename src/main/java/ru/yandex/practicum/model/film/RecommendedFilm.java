@@ -0,0 +1,12 @@
+package ru.yandex.practicum.model.film;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RecommendedFilm {
+    private int filmId;
+
+    private double score;
+}
@@ -0,0 +1,16 @@
+package ru.yandex.practicum.model.user;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class UserDistance {
+    private int userId;
+
+    private int otherId;
+
+    private Integer distance;
+
+    private boolean truncated;
+}
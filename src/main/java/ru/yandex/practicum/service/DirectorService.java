@@ -3,19 +3,26 @@ package ru.yandex.practicum.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.model.CacheStats;
 import ru.yandex.practicum.model.film.Director;
 import ru.yandex.practicum.storage.DirectorStorage;
+import ru.yandex.practicum.storage.FilmSearchStorage;
 
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class DirectorService {
     private final DirectorStorage directorStorage;
+    private final FilmSearchStorage filmSearchStorage;
 
     public Director addDirector(Director director) {
-        return directorStorage.addDirector(director);
+        Director createdDirector = directorStorage.addDirector(director);
+        filmSearchStorage.putDirector(createdDirector);
+
+        return createdDirector;
     }
 
     public Director getDirector(int id) {
@@ -27,10 +34,20 @@ public class DirectorService {
     }
 
     public Director updateDirector(Director director) {
-        return directorStorage.updateDirector(director);
+        Director updatedDirector = directorStorage.updateDirector(director);
+        filmSearchStorage.putDirector(updatedDirector);
+
+        return updatedDirector;
     }
 
     public int deleteDirector(int id) {
-        return directorStorage.deleteDirector(id);
+        int deletedId = directorStorage.deleteDirector(id);
+        filmSearchStorage.removeDirector(deletedId);
+
+        return deletedId;
+    }
+
+    public Map<String, CacheStats> getCacheStats() {
+        return directorStorage.getCacheStats();
     }
 }
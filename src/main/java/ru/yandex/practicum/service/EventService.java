@@ -1,30 +1,83 @@
 package ru.yandex.practicum.service;
 
-import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.model.Page;
 import ru.yandex.practicum.model.event.Event;
 import ru.yandex.practicum.model.event.constants.EventType;
 import ru.yandex.practicum.model.event.constants.Operation;
 import ru.yandex.practicum.storage.EventStorage;
 import ru.yandex.practicum.storage.UserStorage;
+import ru.yandex.practicum.validation.PageValidator;
 
+import javax.annotation.PreDestroy;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+@Slf4j
 @Service
-@RequiredArgsConstructor
 public class EventService {
 
     private final EventStorage eventStorage;
     private final UserStorage userDbStorage;
 
+    // Задачи выполняются по одной в порядке изменений дружбы, чтобы очистка не обогнала дополнение ленты
+    private final ExecutorService timelineUpdater = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "user-timeline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public EventService(EventStorage eventStorage, UserStorage userDbStorage) {
+        this.eventStorage = eventStorage;
+        this.userDbStorage = userDbStorage;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timelineUpdater.shutdownNow();
+    }
 
     public List<Event> getEvents(Integer userId) {
         userDbStorage.checkUser(userId);
         return eventStorage.getEvents(userId);
     }
 
+    public Page<Event> getPage(Integer userId, Integer afterId, Integer limit) {
+        PageValidator.validate(afterId, limit);
+        userDbStorage.checkUser(userId);
+
+        return Page.of(eventStorage.getEvents(userId, afterId, limit + 1), limit, Event::getEventId);
+    }
+
     public void putEvent(Integer userId, EventType eventType, Operation operation, Integer entityId) {
         eventStorage.putEvent(userId, eventType, operation, entityId);
     }
 
+    // Новые события друга попадают в ленту при записи, прошлые дописываются в фоне
+    public void friendshipAccepted(int userId, int friendId) {
+        updateTimeline(() -> {
+            eventStorage.backfillTimeline(userId, friendId);
+            eventStorage.backfillTimeline(friendId, userId);
+        });
+    }
+
+    // До очистки события бывшего друга скрываются при чтении ленты
+    public void friendshipRemoved(int userId, int friendId) {
+        updateTimeline(() -> {
+            eventStorage.pruneTimeline(userId, friendId);
+            eventStorage.pruneTimeline(friendId, userId);
+        });
+    }
+
+    private void updateTimeline(Runnable update) {
+        timelineUpdater.submit(() -> {
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                log.error("Не удалось обновить ленту событий", e);
+            }
+        });
+    }
 }
@@ -3,32 +3,57 @@ package ru.yandex.practicum.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import ru.yandex.practicum.exception.ValidationException;
+import ru.yandex.practicum.model.Page;
 import ru.yandex.practicum.model.event.constants.EventType;
 import ru.yandex.practicum.model.event.constants.Operation;
-import ru.yandex.practicum.model.film.Director;
 import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.model.film.Genre;
 import ru.yandex.practicum.model.film.MPA;
 import ru.yandex.practicum.storage.DirectorStorage;
+import ru.yandex.practicum.storage.FilmSearchStorage;
 import ru.yandex.practicum.storage.FilmStorage;
+import ru.yandex.practicum.storage.RecommendationStorage;
 import ru.yandex.practicum.storage.UserStorage;
+import ru.yandex.practicum.storage.cache.RecommendationCache;
+import ru.yandex.practicum.storage.cache.ReferenceDataCache;
+import ru.yandex.practicum.storage.index.PopularFilmsIndex;
+import ru.yandex.practicum.storage.recommendation.Recommender;
+import ru.yandex.practicum.storage.recommendation.SimilarFilmsIndex;
 import ru.yandex.practicum.validation.FilmValidator;
+import ru.yandex.practicum.validation.PageValidator;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 @Slf4j
 @RequiredArgsConstructor
 @Service
 public class FilmService {
+    private static final int MAX_INDEX_RETRIES = 2;
+
     private final FilmStorage filmStorage;
     private final DirectorStorage directorStorage;
     private final UserStorage userStorage;
     private final EventService eventService;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final FilmSearchStorage filmSearchStorage;
+    private final RecommendationStorage recommendationStorage;
+    private final Recommender recommender;
+    private final RecommendationCache recommendationCache;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final ReferenceDataCache referenceDataCache;
 
     public Film put(Film film) {
         deduplicateGenres(film);
 
-        return filmStorage.put(film);
+        Film createdFilm = filmStorage.put(film);
+        popularFilmsIndex.putFilm(createdFilm);
+        filmSearchStorage.putFilm(createdFilm);
+        similarFilmsIndex.putFilm(createdFilm.getId());
+
+        return createdFilm;
     }
 
     public Film update(Film film) {
@@ -36,7 +61,11 @@ public class FilmService {
         deduplicateGenres(film);
         filmStorage.updateGenre(film.getId(), film.getGenres());
 
-        return filmStorage.updateFilm(film);
+        Film updatedFilm = filmStorage.updateFilm(film);
+        popularFilmsIndex.putFilm(updatedFilm);
+        filmSearchStorage.putFilm(updatedFilm);
+
+        return updatedFilm;
     }
 
     private static void deduplicateGenres(Film film) {
@@ -56,22 +85,52 @@ public class FilmService {
         return filmStorage.getAll();
     }
 
+    public Page<Film> getPage(Integer afterId, Integer limit) {
+        PageValidator.validate(afterId, limit);
+
+        return Page.of(filmStorage.getPage(afterId, limit + 1), limit, Film::getId);
+    }
+
+    public void streamAll(Consumer<List<Film>> chunkConsumer) {
+        filmStorage.streamAll(chunkConsumer);
+    }
+
     public void addLike(int filmId, int userId, Integer userMark) {
         filmStorage.checkFilm(filmId);
         userStorage.checkUser(userId);
-        filmStorage.addLike(filmId, userId, userMark);
-        eventService.putEvent(userId, EventType.LIKE, Operation.ADD, filmId);
+        recommender.likeAdded(userId, filmId, userMark == null ? 0 : userMark, () -> {
+            filmStorage.addLike(filmId, userId, userMark);
+            eventService.putEvent(userId, EventType.LIKE, Operation.ADD, filmId);
+        });
+        popularFilmsIndex.updateStats(filmStorage.getStats(filmId));
+        similarFilmsIndex.putFilm(filmId);
+        similarFilmsIndex.ratingsChanged(1);
+        recommendationStorage.deletePrecomputed(userId);
+        recommendationCache.invalidate(userId);
     }
 
     public void removeLike(int filmId, int userId) {
         filmStorage.checkFilm(filmId);
         userStorage.checkUser(userId);
-        filmStorage.deleteLike(filmId, userId);
-        eventService.putEvent(userId, EventType.LIKE, Operation.REMOVE, filmId);
+        recommender.likeRemoved(userId, filmId, () -> {
+            filmStorage.deleteLike(filmId, userId);
+            eventService.putEvent(userId, EventType.LIKE, Operation.REMOVE, filmId);
+        });
+        popularFilmsIndex.updateStats(filmStorage.getStats(filmId));
+        similarFilmsIndex.ratingsChanged(1);
+        recommendationStorage.deletePrecomputed(userId);
+        recommendationCache.invalidate(userId);
+    }
+
+    // Справочники меняются только в базе, поэтому при пересчете они перечитываются заодно со статистикой
+    public void rebuildStats() {
+        referenceDataCache.reload();
+        filmStorage.rebuildStats();
+        popularFilmsIndex.rebuild();
     }
 
     public List<Film> getTop(Integer limit) {
-        return filmStorage.getTop(limit);
+        return findPopularFilms(limit, null, null);
     }
 
     public List<Genre> getAllGenres() {
@@ -94,13 +153,26 @@ public class FilmService {
         userStorage.checkUser(userId);
         userStorage.checkUser(friendId);
 
-        return filmStorage.getCommonFilms(userId, friendId);
+        int[] commonFilmIds = recommendationStorage.loadRatingMatrix(List.of(userId, friendId))
+                .getCommonFilms(userId, friendId);
+        List<Integer> filmIds = new ArrayList<>(commonFilmIds.length);
+
+        for (int filmId : commonFilmIds) {
+            filmIds.add(filmId);
+        }
+
+        return loadIndexedFilms(() -> popularFilmsIndex.getTop(filmIds, null));
     }
 
     public Film deleteById(int id) {
         filmStorage.checkFilm(id);
 
-        return filmStorage.deleteById(id);
+        Film deletedFilm = recommender.filmRemoved(id, () -> filmStorage.deleteById(id));
+        popularFilmsIndex.remove(id);
+        filmSearchStorage.removeFilm(id);
+        similarFilmsIndex.removeFilm(id);
+
+        return deletedFilm;
     }
 
     public List<Film> getFilmDirectorSortedBy(int directorId, String sortBy) {
@@ -116,76 +188,75 @@ public class FilmService {
     }
 
     public List<Film> findLimitPopularFilmsByGenreAndYear(Integer count, Integer genreId, Integer year) {
-        return filmStorage.findLimitPopularFilmsByGenreAndYear(count, genreId, year);
+        return findPopularFilms(count, genreId, year);
     }
 
     public List<Film> findPopularFilmsByYearAndGenre(Integer year, Integer genreId) {
-        return filmStorage.findPopularFilmsByYearAndGenre(year, genreId);
+        return findPopularFilms(null, genreId, year);
     }
 
     public List<Film> findPopularFilmsByYear(Integer year) {
-        return filmStorage.findPopularFilmsByYear(year);
+        return findPopularFilms(null, null, year);
     }
 
     public List<Film> findPopularFilmsByGenre(Integer genreId) {
-        return filmStorage.findPopularFilmsByGenre(genreId);
+        return findPopularFilms(null, genreId, null);
     }
 
-    public List<Film> searchFilms(String query, String by) {
-        query = query.toLowerCase();
-        final String director = "director";
-        final String title = "title";
-        final String directorTitleVar1 = "director" + "," + "title";
-        final String directorTitleVar2 = "title" + "," + "director";
-
-        List<Film> allFilms = filmStorage.getAll();
-        HashSet<Film> result = new HashSet<>();
-
-        switch (by) {
-            case (director):
-                findFilmByDirector(allFilms, result, query);
-                break;
-            case (title):
-                findFilmByTitle(allFilms, result, query);
-                break;
-            case (directorTitleVar1):
-            case (directorTitleVar2):
-                findFilmByTitle(allFilms, result, query);
-                findFilmByDirector(allFilms, result, query);
-                break;
-        }
+    private List<Film> findPopularFilms(Integer count, Integer genreId, Integer year) {
+        validateCount(count);
 
-        return filmsSortedByLikes(new ArrayList<>(result));
+        return loadIndexedFilms(() -> popularFilmsIndex.getTop(count, genreId, year));
     }
 
-    public static List<Film> filmsSortedByLikes(List<Film> films) {
-        films.sort(new LikesFilmReverseComparator());
-        return films;
-    }
+    // id берутся из индексов заново на каждой попытке, чтобы на место удаленных фильмов встали следующие.
+    // Число попыток ограничено: если индекс снова вернул удаленный фильм, отдаем то, что нашлось в БД
+    private List<Film> loadIndexedFilms(Supplier<List<Integer>> filmIdsSupplier) {
+        for (int attempt = 0; ; attempt++) {
+            List<Integer> filmIds = filmIdsSupplier.get();
+            List<Film> films = filmStorage.getFilmsByIds(filmIds);
 
-    private void findFilmByDirector(List<Film> allFilms, HashSet<Film> result, String query) {
-        for (Film film : allFilms) {
-            for (Director dir : film.getDirectors()) {
-                if (dir.getName().toLowerCase().contains(query)) {
-                    result.add(film);
-                    break;
+            if (films.size() == filmIds.size() || attempt == MAX_INDEX_RETRIES) {
+                return films;
+            }
+
+            Set<Integer> foundIds = new HashSet<>();
+            films.forEach(film -> foundIds.add(film.getId()));
+
+            for (Integer filmId : filmIds) {
+                if (!foundIds.contains(filmId)) {
+                    popularFilmsIndex.remove(filmId);
+                    filmSearchStorage.removeFilm(filmId);
+                    similarFilmsIndex.removeFilm(filmId);
                 }
             }
         }
     }
 
-    private void findFilmByTitle(List<Film> allFilms, HashSet<Film> result, String query) {
-        for (Film film : allFilms) {
-            if (film.getName().toLowerCase().contains(query)) {
-                result.add(film);
-            }
-        }
+    public List<Film> findSimilarFilms(int filmId, Integer count) {
+        validateCount(count);
+        filmStorage.checkFilm(filmId);
+
+        return loadIndexedFilms(() -> similarFilmsIndex.findSimilar(filmId, count));
     }
-}
 
-class LikesFilmReverseComparator implements Comparator<Film> {
-    @Override
-    public int compare(Film film1, Film film2) {
-        return  film2.getMiddleRating() - film1.getMiddleRating();
+    public List<Film> searchFilms(String query, String by) {
+        return searchFilms(query, by, null);
     }
-}
\ No newline at end of file
+
+    public List<Film> searchFilms(String query, String by, Integer count) {
+        validateCount(count);
+
+        Set<String> fields = new HashSet<>(Arrays.asList(by.split(",")));
+
+        return loadIndexedFilms(() -> filmSearchStorage.search(query, fields.contains("title"),
+                fields.contains("director"), count));
+    }
+
+    // count == null - без ограничения
+    private static void validateCount(Integer count) {
+        if (count != null && count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+    }
+}
@@ -3,20 +3,68 @@ package ru.yandex.practicum.service;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.exception.UnknownDataException;
+import ru.yandex.practicum.exception.ValidationException;
+import ru.yandex.practicum.model.Page;
+import ru.yandex.practicum.model.RecommendationBatchStats;
+import ru.yandex.practicum.model.RecommendationCacheStats;
+import ru.yandex.practicum.model.RecommendationEvaluation;
+import ru.yandex.practicum.model.SuggestionBenchmark;
 import ru.yandex.practicum.model.event.constants.EventType;
 import ru.yandex.practicum.model.event.constants.Operation;
 import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.model.user.User;
+import ru.yandex.practicum.model.user.UserDistance;
+import ru.yandex.practicum.storage.FilmStorage;
+import ru.yandex.practicum.storage.RecommendationStorage;
 import ru.yandex.practicum.storage.UserStorage;
+import ru.yandex.practicum.storage.cache.RecommendationCache;
+import ru.yandex.practicum.storage.index.FriendSuggestionIndex;
+import ru.yandex.practicum.storage.index.FriendshipDistanceIndex;
+import ru.yandex.practicum.storage.index.FriendshipGraph;
+import ru.yandex.practicum.storage.index.PopularFilmsIndex;
+import ru.yandex.practicum.storage.recommendation.RecommendationBatchJob;
+import ru.yandex.practicum.storage.recommendation.RecommendationEvaluator;
+import ru.yandex.practicum.storage.recommendation.Recommender;
+import ru.yandex.practicum.storage.recommendation.SimilarFilmsIndex;
+import ru.yandex.practicum.validation.PageValidator;
 import ru.yandex.practicum.validation.UserValidator;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
 @Service
 public class UserService {
+    private static final int MAX_RECOMMENDATION_RETRIES = 2;
+    private static final int MAX_BENCHMARK_USERS = 1_000_000;
+    private static final int MAX_BENCHMARK_FILMS = 100_000;
+    private static final int MAX_BENCHMARK_SAMPLES = 100_000;
+    private static final int MAX_BENCHMARK_RATINGS_PER_USER = 1000;
+    private static final long MAX_BENCHMARK_RATINGS = 5_000_000;
+    private static final int MAX_RECOMMENDATION_K = 1000;
+    private static final int MAX_BENCHMARK_EDGES_PER_USER = 100;
+    private static final long MAX_BENCHMARK_EDGES = 5_000_000;
+    private static final int MAX_SUGGESTION_COUNT = 1000;
+
     private final UserStorage userStorage;
     private final EventService eventService;
+    private final PopularFilmsIndex popularFilmsIndex;
+    private final FilmStorage filmStorage;
+    private final RecommendationStorage recommendationStorage;
+    private final Recommender recommender;
+    private final RecommendationCache recommendationCache;
+    private final RecommendationEvaluator recommendationEvaluator;
+    private final RecommendationBatchJob recommendationBatchJob;
+    private final SimilarFilmsIndex similarFilmsIndex;
+    private final FriendSuggestionIndex friendSuggestionIndex;
+    private final FriendshipGraph friendshipGraph;
+    private final FriendshipDistanceIndex friendshipDistanceIndex;
 
 
     public User put(User user) {
@@ -49,15 +97,39 @@ public class UserService {
         return userStorage.getAll();
     }
 
+    public Page<User> getPage(Integer afterId, Integer limit) {
+        PageValidator.validate(afterId, limit);
+
+        return Page.of(userStorage.getPage(afterId, limit + 1), limit, User::getId);
+    }
+
+    public void streamAll(Consumer<List<User>> chunkConsumer) {
+        userStorage.streamAll(chunkConsumer);
+    }
+
     public User deleteById(int id) {
         userStorage.checkUser(id);
-        return userStorage.deleteById(id);
+
+        Map<Integer, Integer> marks = recommendationStorage.getUserMarks(id);
+        friendSuggestionIndex.invalidate(List.of(id));
+        List<Integer> affectedUsers = Arrays.stream(friendshipGraph.getFriendIds(id))
+                .boxed()
+                .collect(Collectors.toList());
+        affectedUsers.add(id);
+        User deletedUser = recommender.userRemoved(id, () -> userStorage.deleteById(id));
+        friendshipDistanceIndex.friendshipChanged(affectedUsers);
+        popularFilmsIndex.updateStats(filmStorage.getStatsByIds(marks.keySet()));
+        similarFilmsIndex.ratingsChanged(marks.size());
+        recommendationCache.invalidate(id);
+
+        return deletedUser;
     }
 
     public void addFriends(int userId, int addedUserId) {
         userStorage.checkUser(userId);
         userStorage.checkUser(addedUserId);
         userStorage.addFriend(userId, addedUserId);
+        friendSuggestionIndex.invalidate(List.of(userId, addedUserId));
         eventService.putEvent(userId, EventType.FRIEND, Operation.ADD, addedUserId);
     }
 
@@ -65,6 +137,9 @@ public class UserService {
         userStorage.checkUser(userId);
         userStorage.checkUser(friendId);
         userStorage.acceptFriendship(userId, friendId);
+        eventService.friendshipAccepted(userId, friendId);
+        friendSuggestionIndex.invalidate(List.of(userId, friendId));
+        friendshipDistanceIndex.friendshipChanged(List.of(userId, friendId));
         eventService.putEvent(userId, EventType.FRIEND, Operation.UPDATE, friendId);
     }
 
@@ -76,6 +151,9 @@ public class UserService {
         userStorage.checkUser(userId);
         userStorage.checkUser(removedUserid);
         userStorage.removeFriend(userId, removedUserid);
+        eventService.friendshipRemoved(userId, removedUserid);
+        friendSuggestionIndex.invalidate(List.of(userId, removedUserid));
+        friendshipDistanceIndex.friendshipChanged(List.of(userId, removedUserid));
         eventService.putEvent(userId, EventType.FRIEND, Operation.REMOVE, removedUserid);
     }
 
@@ -90,7 +168,167 @@ public class UserService {
         return userStorage.foundUserFriends(userId);
     }
 
+    public List<User> getSuggestions(int userId, Integer count) {
+        if (count == null || count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+
+        userStorage.checkUser(userId);
+
+        List<Integer> suggestedIds = Arrays.stream(friendSuggestionIndex.suggest(userId, count))
+                .boxed()
+                .collect(Collectors.toList());
+        Map<Integer, User> users = userStorage.getUsersByIds(suggestedIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        return suggestedIds.stream()
+                .map(users::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    public UserDistance getDistance(int userId, int otherId) {
+        userStorage.checkUser(userId);
+        userStorage.checkUser(otherId);
+
+        return friendshipDistanceIndex.find(userId, otherId);
+    }
+
+    public SuggestionBenchmark benchmarkSuggestions(Integer users, Integer edgesPerUser, Integer samples,
+                                                    Integer count, Long seed) {
+        if (users == null || users <= 1 || users > MAX_BENCHMARK_USERS) {
+            throw new ValidationException("Параметр users должен быть от 2 до " + MAX_BENCHMARK_USERS);
+        }
+
+        if (edgesPerUser == null || edgesPerUser <= 0 || edgesPerUser >= users
+                || edgesPerUser > MAX_BENCHMARK_EDGES_PER_USER) {
+            throw new ValidationException("Параметр edgesPerUser должен быть от 1 до users - 1 и не больше "
+                    + MAX_BENCHMARK_EDGES_PER_USER);
+        }
+
+        if ((long) users * edgesPerUser > MAX_BENCHMARK_EDGES) {
+            throw new ValidationException("Связей в синтетическом графе не может быть больше " + MAX_BENCHMARK_EDGES);
+        }
+
+        if (samples == null || samples <= 0 || samples > MAX_BENCHMARK_SAMPLES) {
+            throw new ValidationException("Параметр samples должен быть от 1 до " + MAX_BENCHMARK_SAMPLES);
+        }
+
+        if (count == null || count <= 0 || count > MAX_SUGGESTION_COUNT) {
+            throw new ValidationException("Параметр count должен быть от 1 до " + MAX_SUGGESTION_COUNT);
+        }
+
+        return friendSuggestionIndex.benchmark(users, edgesPerUser, samples, count, seed == null ? 0 : seed);
+    }
+
     public List<Film> getRecommendations(Integer userId) {
-        return userStorage.getRecommendations(userId);
+        return getRecommendations(userId, null);
+    }
+
+    // Удаленные фильмы убираются из модели, кэша и заранее посчитанных рекомендаций, и расчет повторяется.
+    // Число попыток ограничено: если удаленный фильм снова попал в рекомендации, отдаем то, что нашлось в БД
+    public List<Film> getRecommendations(Integer userId, Integer count) {
+        if (count != null && count <= 0) {
+            throw new ValidationException("Параметр count должен быть положительным");
+        }
+
+        userStorage.checkUser(userId);
+
+        for (int attempt = 0; ; attempt++) {
+            List<Integer> filmIds = findRecommendedFilmIds(userId, count);
+            List<Film> films = filmStorage.getFilmsByIds(filmIds);
+
+            if (films.size() == filmIds.size() || attempt == MAX_RECOMMENDATION_RETRIES) {
+                return films;
+            }
+
+            Set<Integer> foundIds = films.stream().map(Film::getId).collect(Collectors.toSet());
+
+            filmIds.stream()
+                    .filter(filmId -> !foundIds.contains(filmId))
+                    .forEach(filmId -> recommender.filmRemoved(filmId, () -> null));
+            recommendationCache.invalidate(userId);
+            recommendationStorage.deletePrecomputed(userId);
+        }
+    }
+
+    // Версия модели и эпоха кэша читаются до расчета: если матрица изменится во время расчета, запись сразу окажется
+    // устаревшей, а если пользователь за это время поставит оценку, запись не попадет в кэш
+    // Без записи в кэше сначала берутся рекомендации, посчитанные фоновым заданием, и только потом считаются заново
+    private List<Integer> findRecommendedFilmIds(int userId, Integer count) {
+        long epoch = recommendationCache.getEpoch();
+        long modelVersion = recommender.getModelVersion();
+        List<Integer> cached = recommendationCache.get(userId, count, modelVersion);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        long start = System.nanoTime();
+        List<Integer> filmIds = recommendationBatchJob.findPrecomputed(userId, count);
+
+        if (filmIds == null) {
+            filmIds = recommender.recommend(recommendationStorage.getUserMarks(userId), count);
+        }
+
+        recommendationCache.put(userId, count, modelVersion, epoch, filmIds, System.nanoTime() - start);
+
+        return filmIds;
+    }
+
+    public void rebuildRecommendations() {
+        recommender.rebuild();
+        similarFilmsIndex.rebuild();
+        recommendationCache.invalidateAll();
+    }
+
+    public void runRecommendationBatch() {
+        recommendationBatchJob.submit();
+    }
+
+    public RecommendationBatchStats getRecommendationBatchStats() {
+        return recommendationBatchJob.getStats();
+    }
+
+    public RecommendationCacheStats getRecommendationCacheStats() {
+        return recommendationCache.getStats();
+    }
+
+    public List<RecommendationEvaluation> evaluateRecommendations(Integer k) {
+        if (k == null || k <= 0 || k > MAX_RECOMMENDATION_K) {
+            throw new ValidationException("Параметр k должен быть от 1 до " + MAX_RECOMMENDATION_K);
+        }
+
+        return recommendationEvaluator.evaluate(k);
+    }
+
+    public List<RecommendationEvaluation> benchmarkRecommendations(Integer users, Integer films, Integer ratingsPerUser,
+                                                                   Double zipf, Long seed, Integer k) {
+        if (users == null || users <= 0 || users > MAX_BENCHMARK_USERS) {
+            throw new ValidationException("Параметр users должен быть от 1 до " + MAX_BENCHMARK_USERS);
+        }
+
+        if (films == null || films <= 0 || films > MAX_BENCHMARK_FILMS) {
+            throw new ValidationException("Параметр films должен быть от 1 до " + MAX_BENCHMARK_FILMS);
+        }
+
+        if (ratingsPerUser == null || ratingsPerUser <= 0 || ratingsPerUser > MAX_BENCHMARK_RATINGS_PER_USER) {
+            throw new ValidationException("Параметр ratingsPerUser должен быть от 1 до " + MAX_BENCHMARK_RATINGS_PER_USER);
+        }
+
+        // Пользователь получает до 2 * ratingsPerUser оценок, ограничивается их общее число
+        if (2L * users * Math.min(films, ratingsPerUser) > MAX_BENCHMARK_RATINGS) {
+            throw new ValidationException("Синтетических оценок не может быть больше " + MAX_BENCHMARK_RATINGS);
+        }
+
+        if (zipf == null || zipf < 0) {
+            throw new ValidationException("Параметр zipf не может быть отрицательным");
+        }
+
+        if (k == null || k <= 0 || k > MAX_RECOMMENDATION_K) {
+            throw new ValidationException("Параметр k должен быть от 1 до " + MAX_RECOMMENDATION_K);
+        }
+
+        return recommendationEvaluator.benchmark(users, films, ratingsPerUser, zipf, seed == null ? 0 : seed, k);
     }
 }
@@ -1,8 +1,10 @@
 package ru.yandex.practicum.storage;
 
+import ru.yandex.practicum.model.CacheStats;
 import ru.yandex.practicum.model.film.Director;
 
 import java.util.List;
+import java.util.Map;
 
 public interface DirectorStorage {
 
@@ -18,5 +20,11 @@ public interface DirectorStorage {
 
     List<Director> getDirectorsByFilm(int id);
 
+    Map<Integer, List<Director>> getDirectorsByFilms(List<Integer> filmIds);
+
     void addFilmDirector(int filmId, List<Director> list);
+
+    void deleteFilmDirectors(int filmId);
+
+    Map<String, CacheStats> getCacheStats();
 }
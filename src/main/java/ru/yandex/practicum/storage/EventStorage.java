@@ -10,4 +10,10 @@ public interface EventStorage {
     void putEvent(Integer userId, EventType eventType, Operation operation, Integer entityId);
 
     List<Event> getEvents(Integer userId);
+
+    List<Event> getEvents(int userId, int afterId, int limit);
+
+    void backfillTimeline(int ownerId, int authorId);
+
+    void pruneTimeline(int ownerId, int authorId);
 }
@@ -0,0 +1,19 @@
+package ru.yandex.practicum.storage;
+
+import ru.yandex.practicum.model.film.Director;
+import ru.yandex.practicum.model.film.Film;
+
+import java.util.List;
+
+public interface FilmSearchStorage {
+
+    List<Integer> search(String query, boolean byTitle, boolean byDirector, Integer count);
+
+    void putFilm(Film film);
+
+    void removeFilm(int filmId);
+
+    void putDirector(Director director);
+
+    void removeDirector(int directorId);
+}
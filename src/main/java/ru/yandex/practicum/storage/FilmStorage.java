@@ -1,10 +1,13 @@
 package ru.yandex.practicum.storage;
 
 import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.model.film.FilmStats;
 import ru.yandex.practicum.model.film.Genre;
 import ru.yandex.practicum.model.film.MPA;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
 
@@ -14,10 +17,26 @@ public interface FilmStorage {
 
     List<Film> getAll();
 
+    List<Film> getFilmsByIds(List<Integer> ids);
+
+    List<Film> getPage(int afterId, int limit);
+
+    void streamAll(Consumer<List<Film>> chunkConsumer);
+
     void addLike(int filmId, int userId, Integer userMark);
 
     void deleteLike(int filmId, int userId);
 
+    void deleteLikesByUser(int userId);
+
+    FilmStats getStats(int filmId);
+
+    List<FilmStats> getAllStats();
+
+    List<FilmStats> getStatsByIds(Collection<Integer> filmIds);
+
+    void rebuildStats();
+
     List<Film> getTop(Integer limit);
 
     List<Genre> getAllGenres();
@@ -36,8 +55,6 @@ public interface FilmStorage {
 
     List<Film> getFilmsDirectorSortedByLikes(int directorId);
 
-    List<Film> getCommonFilms(Integer userId, Integer friendId);
-
     Film deleteById(int id);
 
     void checkFilm(int id);
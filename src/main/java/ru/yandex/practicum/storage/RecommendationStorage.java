@@ -0,0 +1,60 @@
+package ru.yandex.practicum.storage;
+
+import ru.yandex.practicum.model.RecommendationJob;
+import ru.yandex.practicum.model.film.FilmDeviation;
+import ru.yandex.practicum.model.film.RecommendedFilm;
+import ru.yandex.practicum.storage.recommendation.RatingMatrix;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+public interface RecommendationStorage {
+
+    Map<Integer, Integer> getUserMarks(int userId);
+
+    Map<Integer, Integer> getFilmMarks(int filmId);
+
+    RatingMatrix loadRatingMatrix();
+
+    RatingMatrix loadRatingMatrix(Collection<Integer> userIds);
+
+    int getRatingCount();
+
+    Set<Integer> getUserIds();
+
+    Set<Integer> getFilmIds();
+
+    long getLastEventId();
+
+    Long getEventTime(long eventId);
+
+    Set<Integer> getUsersRatedAfter(long eventId);
+
+    void forEachDeviation(Consumer<FilmDeviation> consumer);
+
+    void addDeviations(List<FilmDeviation> changes);
+
+    void saveDeviations(List<FilmDeviation> deviations);
+
+    void replaceDeviations(List<FilmDeviation> deviations);
+
+    int getRatedUserCount();
+
+    List<Integer> getRatedUserIds(int afterUserId, int limit);
+
+    RecommendationJob findUnfinishedJob();
+
+    RecommendationJob startJob(int totalUsers);
+
+    void finishJob(long jobId);
+
+    void savePrecomputed(long jobId, int lastUserId, long sinceEventId,
+                         Map<Integer, List<RecommendedFilm>> recommendations);
+
+    List<RecommendedFilm> getPrecomputed(int userId, long computedAfterMillis);
+
+    void deletePrecomputed(int userId);
+}
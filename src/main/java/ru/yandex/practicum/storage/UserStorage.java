@@ -1,9 +1,9 @@
 package ru.yandex.practicum.storage;
 
-import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.model.user.User;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
@@ -19,6 +19,10 @@ public interface UserStorage {
 
     List<User> getAll();
 
+    List<User> getPage(int afterId, int limit);
+
+    void streamAll(Consumer<List<User>> chunkConsumer);
+
     void addFriend(int userId, int friendId);
 
     void acceptFriendship(int userId, int friendId);
@@ -32,6 +36,4 @@ public interface UserStorage {
     String getStatusName(int statusId);
 
     void checkUser(int id);
-
-    List<Film> getRecommendations(Integer userId);
 }
@@ -0,0 +1,89 @@
+package ru.yandex.practicum.storage.cache;
+
+import ru.yandex.practicum.model.CacheStats;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, V> values;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.values = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public synchronized V get(K key) {
+        V value = values.get(key);
+
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return value;
+    }
+
+    public synchronized Map<K, V> getAll(Collection<K> keys) {
+        Map<K, V> found = new HashMap<>();
+
+        for (K key : keys) {
+            V value = get(key);
+
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+
+        return found;
+    }
+
+    public synchronized void put(K key, V value) {
+        values.put(key, value);
+    }
+
+    // Счетчик читается до запроса к БД и передается в putIfNotInvalidated: если за время запроса кэш сбрасывали,
+    // прочитанное значение могло устареть и не кладется
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    public synchronized void putIfNotInvalidated(K key, V value, long invalidationCount) {
+        if (invalidations == invalidationCount) {
+            values.put(key, value);
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        values.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        values.clear();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, evictions, values.size());
+    }
+}
@@ -0,0 +1,124 @@
+package ru.yandex.practicum.storage.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.CacheStats;
+import ru.yandex.practicum.model.RecommendationCacheStats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class RecommendationCache {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final LruCache<Integer, Entry> cache;
+    private final long maxStalenessMillis;
+    // id пользователя -> эпоха его последнего сброса; эпоха растет при каждом сбросе
+    private final Map<Integer, Long> invalidatedAt = new HashMap<>();
+    private long epoch;
+    private long allInvalidatedAt;
+
+    private long hits;
+    private long misses;
+    private long staleEvictions;
+    private long computations;
+    private long computeNanos;
+    private long maxComputeNanos;
+
+    public RecommendationCache(@Value("${filmorate.cache.recommendations.max-size:10000}") int maxSize,
+                               @Value("${filmorate.cache.recommendations.max-staleness-ms:60000}") long maxStalenessMillis) {
+        this.cache = new LruCache<>(maxSize);
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    // Записи, посчитанные по другой версии модели, отдаются, пока не устарели больше чем на max-staleness-ms
+    public synchronized List<Integer> get(int userId, Integer count, long modelVersion) {
+        Entry entry = cache.get(userId);
+
+        if (entry != null && entry.modelVersion != modelVersion
+                && System.currentTimeMillis() - entry.computedAt > maxStalenessMillis) {
+            cache.invalidate(userId);
+            staleEvictions++;
+            entry = null;
+        }
+
+        if (entry == null || !entry.covers(count)) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+
+        if (count == null || count >= entry.filmIds.size()) {
+            return new ArrayList<>(entry.filmIds);
+        }
+
+        return new ArrayList<>(entry.filmIds.subList(0, count));
+    }
+
+    // Эпоха читается до расчета и передается в put: если пользователя сбросили во время расчета, например
+    // после его новой оценки, результат посчитан по старым оценкам и в кэш не кладется
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized void put(int userId, Integer count, long modelVersion, long startEpoch, List<Integer> filmIds,
+                                 long nanos) {
+        if (allInvalidatedAt <= startEpoch && invalidatedAt.getOrDefault(userId, 0L) <= startEpoch) {
+            cache.put(userId, new Entry(List.copyOf(filmIds), count, modelVersion, System.currentTimeMillis()));
+        }
+
+        computations++;
+        computeNanos += nanos;
+        maxComputeNanos = Math.max(maxComputeNanos, nanos);
+    }
+
+    public synchronized void invalidate(int userId) {
+        invalidatedAt.put(userId, ++epoch);
+        cache.invalidate(userId);
+    }
+
+    public synchronized void invalidateAll() {
+        allInvalidatedAt = ++epoch;
+        invalidatedAt.clear();
+        cache.invalidateAll();
+    }
+
+    public synchronized RecommendationCacheStats getStats() {
+        CacheStats cacheStats = cache.getStats();
+        long requests = hits + misses;
+
+        return new RecommendationCacheStats(
+                hits,
+                misses,
+                requests == 0 ? 0 : (double) hits / requests,
+                staleEvictions,
+                cacheStats.getEvictions(),
+                cacheStats.getSize(),
+                computations,
+                computations == 0 ? 0 : computeNanos / NANOS_PER_MILLI / computations,
+                maxComputeNanos / NANOS_PER_MILLI
+        );
+    }
+
+    private static final class Entry {
+        private final List<Integer> filmIds;
+        private final Integer limit;
+        private final long modelVersion;
+        private final long computedAt;
+
+        private Entry(List<Integer> filmIds, Integer limit, long modelVersion, long computedAt) {
+            this.filmIds = filmIds;
+            this.limit = limit;
+            this.modelVersion = modelVersion;
+            this.computedAt = computedAt;
+        }
+
+        private boolean covers(Integer count) {
+            return limit == null || (count != null && count <= limit);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.yandex.practicum.storage.cache;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.exception.UnknownDataException;
+import ru.yandex.practicum.model.film.Genre;
+import ru.yandex.practicum.model.film.MPA;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ReferenceDataCache {
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile ReferenceData data;
+
+    @PostConstruct
+    public void reload() {
+        TreeMap<Integer, Genre> genres = new TreeMap<>();
+        jdbcTemplate.query("SELECT genre_id, name FROM genre", rs -> {
+            genres.put(rs.getInt("genre_id"), new Genre(rs.getInt("genre_id"), rs.getString("name")));
+        });
+
+        TreeMap<Integer, MPA> mpas = new TreeMap<>();
+        jdbcTemplate.query("SELECT mpa_id, name FROM mpa", rs -> {
+            mpas.put(rs.getInt("mpa_id"), new MPA(rs.getInt("mpa_id"), rs.getString("name")));
+        });
+
+        TreeMap<Integer, String> statuses = new TreeMap<>();
+        jdbcTemplate.query("SELECT status_id, name FROM status", rs -> {
+            statuses.put(rs.getInt("status_id"), rs.getString("name"));
+        });
+
+        data = new ReferenceData(
+                toArray(genres, new Genre[size(genres)]),
+                toArray(mpas, new MPA[size(mpas)]),
+                toArray(statuses, new String[size(statuses)]),
+                Collections.unmodifiableList(new ArrayList<>(genres.values())),
+                Collections.unmodifiableList(new ArrayList<>(mpas.values()))
+        );
+
+        log.info("Справочники загружены: жанров {}, категорий {}, статусов дружбы {}",
+                genres.size(), mpas.size(), statuses.size());
+    }
+
+    // Жанры и категории изменяемы, поэтому наружу отдаются копии, а закэшированные значения остаются общими
+    public List<Genre> getAllGenres() {
+        List<Genre> genres = new ArrayList<>(data.genreList.size());
+        data.genreList.forEach(genre -> genres.add(copy(genre)));
+
+        return genres;
+    }
+
+    public Genre getGenre(int id) {
+        Genre genre = get(data.genres, id);
+
+        if (genre == null) {
+            throw new UnknownDataException("Жанра с id = " + id + " не существует");
+        }
+
+        return copy(genre);
+    }
+
+    public List<MPA> getAllMpa() {
+        List<MPA> mpas = new ArrayList<>(data.mpaList.size());
+        data.mpaList.forEach(mpa -> mpas.add(copy(mpa)));
+
+        return mpas;
+    }
+
+    public MPA getMpa(int id) {
+        MPA mpa = get(data.mpas, id);
+
+        if (mpa == null) {
+            throw new UnknownDataException("Категории с id = " + id + " не существует");
+        }
+
+        return copy(mpa);
+    }
+
+    public String getStatusName(int id) {
+        String status = get(data.statuses, id);
+
+        if (status == null) {
+            throw new UnknownDataException("Статуса дружбы с id = " + id + " не существует");
+        }
+
+        return status;
+    }
+
+    private static Genre copy(Genre genre) {
+        return new Genre(genre.getId(), genre.getName());
+    }
+
+    private static MPA copy(MPA mpa) {
+        return new MPA(mpa.getId(), mpa.getName());
+    }
+
+    private static <T> T get(T[] values, int id) {
+        if (id < 0 || id >= values.length) {
+            return null;
+        }
+
+        return values[id];
+    }
+
+    private static int size(TreeMap<Integer, ?> values) {
+        return values.isEmpty() || values.lastKey() < 0 ? 0 : values.lastKey() + 1;
+    }
+
+    private static <T> T[] toArray(Map<Integer, T> values, T[] array) {
+        for (Map.Entry<Integer, T> entry : values.entrySet()) {
+            if (entry.getKey() >= 0) {
+                array[entry.getKey()] = entry.getValue();
+            }
+        }
+
+        return array;
+    }
+
+    private static final class ReferenceData {
+        private final Genre[] genres;
+        private final MPA[] mpas;
+        private final String[] statuses;
+        private final List<Genre> genreList;
+        private final List<MPA> mpaList;
+
+        private ReferenceData(Genre[] genres, MPA[] mpas, String[] statuses, List<Genre> genreList, List<MPA> mpaList) {
+            this.genres = genres;
+            this.mpas = mpas;
+            this.statuses = statuses;
+            this.genreList = genreList;
+            this.mpaList = mpaList;
+        }
+    }
+}
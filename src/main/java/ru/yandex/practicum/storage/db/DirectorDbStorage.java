@@ -1,25 +1,40 @@
 package ru.yandex.practicum.storage.db;
 
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
 import ru.yandex.practicum.exception.UnknownDataException;
+import ru.yandex.practicum.model.CacheStats;
 import ru.yandex.practicum.model.film.Director;
 import ru.yandex.practicum.storage.DirectorStorage;
+import ru.yandex.practicum.storage.cache.LruCache;
 
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Component
-@RequiredArgsConstructor
 public class DirectorDbStorage implements DirectorStorage {
     private final JdbcTemplate jdbcTemplate;
+    private final LruCache<Integer, Director> directorCache;
+    private final LruCache<Integer, List<Integer>> filmDirectorsCache;
+
+    public DirectorDbStorage(JdbcTemplate jdbcTemplate,
+                             @Value("${filmorate.cache.directors.max-size:10000}") int directorsCacheSize,
+                             @Value("${filmorate.cache.film-directors.max-size:50000}") int filmDirectorsCacheSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.directorCache = new LruCache<>(directorsCacheSize);
+        this.filmDirectorsCache = new LruCache<>(filmDirectorsCacheSize);
+    }
 
     @Override
     public Director addDirector(Director director) {
@@ -33,20 +48,33 @@ public class DirectorDbStorage implements DirectorStorage {
         }, keyHolder);
 
         director.setId(keyHolder.getKey().intValue());
+        directorCache.put(director.getId(), copy(director));
 
         return director;
     }
 
+    // В кэше лежат собственные копии режиссеров, наружу отдаются новые копии: изменение возвращенного объекта
+    // не портит кэш
     @Override
     public Director getDirector(int id) {
+        Director director = directorCache.get(id);
+
+        if (director != null) {
+            return copy(director);
+        }
+
+        long invalidationCount = directorCache.getInvalidationCount();
         String sqlQuery = "select * from director where director_id = ?";
-        SqlRowSet directorRows = jdbcTemplate.queryForRowSet(sqlQuery, id);
+        List<Director> directors = jdbcTemplate.query(sqlQuery, this::makeDirector, id);
 
-        if (!directorRows.next()) {
+        if (directors.isEmpty()) {
             throw new UnknownDataException("Director с id = " + id + " не найден");
         }
 
-        return jdbcTemplate.queryForObject(sqlQuery, this::makeDirector, id);
+        director = directors.get(0);
+        directorCache.putIfNotInvalidated(id, copy(director), invalidationCount);
+
+        return director;
     }
 
     @Override
@@ -62,6 +90,7 @@ public class DirectorDbStorage implements DirectorStorage {
 
         getDirector(director.getId());
         jdbcTemplate.update(sqlQuery, director.getName(), director.getId());
+        directorCache.invalidate(director.getId());
 
         return director;
     }
@@ -72,11 +101,17 @@ public class DirectorDbStorage implements DirectorStorage {
 
         getDirector(id);
         jdbcTemplate.update(sqlQuery, id);
+        directorCache.invalidate(id);
+        filmDirectorsCache.invalidateAll();
 
         return id;
     }
 
 
+    private static Director copy(Director director) {
+        return new Director(director.getId(), director.getName());
+    }
+
     private Director makeDirector(ResultSet rs, int rowNum) throws SQLException {
         int id = rs.getInt("director_id");
         String name = rs.getString("name");
@@ -86,21 +121,127 @@ public class DirectorDbStorage implements DirectorStorage {
 
     @Override
     public List<Director> getDirectorsByFilm(int id) {
-        String sqlQuery = "select * from director where director_id in (" +
-                "select director_id from film_director where film_id = ?)";
-        return jdbcTemplate.query(sqlQuery, this::makeDirector, id);
+        return getDirectorsByFilms(List.of(id)).getOrDefault(id, new ArrayList<>());
+    }
+
+    @Override
+    public Map<Integer, List<Director>> getDirectorsByFilms(List<Integer> filmIds) {
+        Map<Integer, List<Integer>> directorIds = loadFilmDirectorIds(filmIds);
+        Set<Integer> allDirectorIds = new LinkedHashSet<>();
+        directorIds.values().forEach(allDirectorIds::addAll);
+
+        Map<Integer, Director> directors = loadDirectors(allDirectorIds);
+        Map<Integer, List<Director>> result = new HashMap<>();
+
+        for (Map.Entry<Integer, List<Integer>> entry : directorIds.entrySet()) {
+            List<Director> filmDirectors = new ArrayList<>();
+
+            for (Integer directorId : entry.getValue()) {
+                Director director = directors.get(directorId);
+
+                if (director != null) {
+                    filmDirectors.add(copy(director));
+                }
+            }
+
+            result.put(entry.getKey(), filmDirectors);
+        }
+
+        return result;
+    }
+
+    private Map<Integer, List<Integer>> loadFilmDirectorIds(List<Integer> filmIds) {
+        Map<Integer, List<Integer>> directorIds = filmDirectorsCache.getAll(filmIds);
+        List<Integer> missingFilmIds = new ArrayList<>();
+
+        for (Integer filmId : filmIds) {
+            if (!directorIds.containsKey(filmId)) {
+                missingFilmIds.add(filmId);
+            }
+        }
+
+        if (missingFilmIds.isEmpty()) {
+            return directorIds;
+        }
+
+        long invalidationCount = filmDirectorsCache.getInvalidationCount();
+        Map<Integer, List<Integer>> loaded = new HashMap<>();
+        missingFilmIds.forEach(filmId -> loaded.put(filmId, new ArrayList<>()));
+
+        // порядок режиссеров фильма не зависит от того, взят он из кэша или прочитан из базы
+        String sqlQuery = String.format("select film_id, director_id from film_director where film_id in (%s) " +
+                "order by film_id, director_id", QueryUtils.repeat(missingFilmIds.size(), ","));
+
+        jdbcTemplate.query(sqlQuery, rs -> {
+            List<Integer> filmDirectorIds = loaded.get(rs.getInt("film_id"));
+            int directorId = rs.getInt("director_id");
+
+            if (!filmDirectorIds.contains(directorId)) {
+                filmDirectorIds.add(directorId);
+            }
+        }, missingFilmIds.toArray());
+
+        loaded.forEach((filmId, filmDirectorIds) ->
+                filmDirectorsCache.putIfNotInvalidated(filmId, List.copyOf(filmDirectorIds), invalidationCount));
+        directorIds.putAll(loaded);
+
+        return directorIds;
+    }
+
+    private Map<Integer, Director> loadDirectors(Set<Integer> directorIds) {
+        Map<Integer, Director> directors = directorCache.getAll(directorIds);
+        List<Integer> missingDirectorIds = new ArrayList<>();
+
+        for (Integer directorId : directorIds) {
+            if (!directors.containsKey(directorId)) {
+                missingDirectorIds.add(directorId);
+            }
+        }
+
+        if (missingDirectorIds.isEmpty()) {
+            return directors;
+        }
+
+        long invalidationCount = directorCache.getInvalidationCount();
+        String sqlQuery = String.format("select * from director where director_id in (%s)",
+                QueryUtils.repeat(missingDirectorIds.size(), ","));
+
+        for (Director director : jdbcTemplate.query(sqlQuery, this::makeDirector, missingDirectorIds.toArray())) {
+            directorCache.putIfNotInvalidated(director.getId(), copy(director), invalidationCount);
+            directors.put(director.getId(), director);
+        }
+
+        return directors;
     }
 
     @Override
     public void addFilmDirector(int filmId, List<Director> list) {
         String sqlQuery = "insert into film_director (film_id, director_id) values (?, ?)";
 
-        if (list == null || list.isEmpty()) {
-            return;
-        }
+        if (list != null && !list.isEmpty()) {
+            List<Object[]> batchArgs = new ArrayList<>();
+
+            for (Director director : list) {
+                batchArgs.add(new Object[]{filmId, director.getId()});
+            }
 
-        for (Director director : list) {
-            jdbcTemplate.update(sqlQuery, filmId, director.getId());
+            jdbcTemplate.batchUpdate(sqlQuery, batchArgs);
         }
+
+        filmDirectorsCache.invalidate(filmId);
+    }
+
+    @Override
+    public void deleteFilmDirectors(int filmId) {
+        jdbcTemplate.update("delete from film_director where film_id = ?", filmId);
+        filmDirectorsCache.invalidate(filmId);
+    }
+
+    @Override
+    public Map<String, CacheStats> getCacheStats() {
+        return Map.of(
+                "directors", directorCache.getStats(),
+                "filmDirectors", filmDirectorsCache.getStats()
+        );
     }
 }
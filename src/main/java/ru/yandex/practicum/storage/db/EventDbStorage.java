@@ -2,12 +2,16 @@ package ru.yandex.practicum.storage.db;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.model.event.Event;
 import ru.yandex.practicum.model.event.constants.EventType;
 import ru.yandex.practicum.model.event.constants.Operation;
 import ru.yandex.practicum.storage.EventStorage;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
@@ -16,28 +20,81 @@ import java.util.List;
 @Component
 @RequiredArgsConstructor
 public class EventDbStorage implements EventStorage {
+    // Строки ленты читаются по первичному ключу user_timeline. Пока удаление дружбы не дочищено в фоне,
+    // события бывшего друга отсекаются проверкой по user_friends
+    private static final String TIMELINE_QUERY = "select e.* from user_timeline t " +
+            "join event_feed e on e.event_id = t.event_id " +
+            "where t.owner_id = ? and t.event_id > ? " +
+            "and (e.user_id = t.owner_id or exists (select 1 from user_friends f " +
+            "where f.user_id = t.owner_id and f.friend_id = e.user_id and f.status_id = 0)) " +
+            "order by t.event_id";
+
     private final JdbcTemplate jdbcTemplate;
 
+    // Событие сразу раскладывается в ленты автора и всех, у кого автор в подтвержденных друзьях
     @Override
+    @Transactional
     public void putEvent(Integer userId, EventType eventType, Operation operation, Integer entityId) {
         String sqlQuery = "insert into event_feed (user_id, event_type, operation, entity_id) " +
                 "values (?, ?, ?, ?)";
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+
+        jdbcTemplate.update(connection -> {
+                    PreparedStatement ps = connection.prepareStatement(sqlQuery, new String[]{"event_id"});
+                    ps.setInt(1, userId);
+                    ps.setString(2, eventType.name());
+                    ps.setString(3, operation.name());
+                    ps.setObject(4, entityId);
+                    return ps;
+                }, keyHolder
+        );
 
-        jdbcTemplate.update(sqlQuery, userId, eventType.name(), operation.name(), entityId);
+        int eventId = keyHolder.getKey().intValue();
+
+        jdbcTemplate.update("insert into user_timeline (owner_id, event_id) values (?, ?)", userId, eventId);
+        jdbcTemplate.update("insert into user_timeline (owner_id, event_id) " +
+                        "select distinct user_id, cast(? as integer) from user_friends " +
+                        "where friend_id = ? and status_id = 0 and user_id <> ?",
+                eventId,
+                userId,
+                userId
+        );
     }
 
     @Override
     public List<Event> getEvents(Integer userId) {
-        return jdbcTemplate.query(
-                "select * from EVENT_FEED where user_id = ? " +
-                        "union " +
-                        "select * " +
-                        "from EVENT_FEED " +
-                        "where user_id in (select friend_id from USER_FRIENDS where USER_FRIENDS.USER_ID = ? and STATUS_ID = 0) " +
-                        "ORDER BY TIMESTAMP",
+        return jdbcTemplate.query(TIMELINE_QUERY,
                 (rs, rowNum) -> mapEventData(rs),
                 userId,
-                userId
+                0
+        );
+    }
+
+    @Override
+    public List<Event> getEvents(int userId, int afterId, int limit) {
+        return jdbcTemplate.query(TIMELINE_QUERY + " limit ?",
+                (rs, rowNum) -> mapEventData(rs),
+                userId,
+                afterId,
+                limit
+        );
+    }
+
+    @Override
+    public void backfillTimeline(int ownerId, int authorId) {
+        jdbcTemplate.update("MERGE INTO user_timeline (owner_id, event_id) KEY (owner_id, event_id) " +
+                        "select cast(? as integer), event_id from event_feed where user_id = ?",
+                ownerId,
+                authorId
+        );
+    }
+
+    @Override
+    public void pruneTimeline(int ownerId, int authorId) {
+        jdbcTemplate.update("delete from user_timeline where owner_id = ? " +
+                        "and event_id in (select event_id from event_feed where user_id = ?)",
+                ownerId,
+                authorId
         );
     }
 
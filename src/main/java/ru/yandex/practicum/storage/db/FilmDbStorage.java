@@ -7,26 +7,39 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 import ru.yandex.practicum.exception.UnknownDataException;
 import ru.yandex.practicum.model.film.Director;
 import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.model.film.FilmStats;
 import ru.yandex.practicum.model.film.Genre;
 import ru.yandex.practicum.model.film.MPA;
 import ru.yandex.practicum.storage.DirectorStorage;
 import ru.yandex.practicum.storage.FilmStorage;
+import ru.yandex.practicum.storage.cache.ReferenceDataCache;
 
 import java.sql.Date;
 import java.sql.*;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class FilmDbStorage implements FilmStorage {
+    // Строка film_stats создается вместе с фильмом, поэтому выборка идет от нее: так сортировка по рейтингу
+    // читает готовый порядок из film_stats_rating_idx
+    private static final String SELECT_FILMS_WITH_STATS = "SELECT f.* FROM film_stats AS fs " +
+            "JOIN film AS f ON f.film_id = fs.film_id ";
+    static final String ORDER_BY_RATING = "ORDER BY fs.rating DESC, fs.like_count DESC, fs.film_id ";
+    private static final String UPDATE_RATING = "UPDATE film_stats SET rating = CASE WHEN mark_count > 0 " +
+            "THEN ROUND(CAST(mark_sum AS DOUBLE) / mark_count) ELSE 0 END ";
+
     private final JdbcTemplate jdbcTemplate;
     private final DirectorStorage directorStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Override
     public Film put(Film film) {
@@ -48,9 +61,9 @@ public class FilmDbStorage implements FilmStorage {
         film.setId(Objects.requireNonNull(keyHolder.getKey()).intValue());
 
         film.setId(keyHolder.getKey().intValue());
+        jdbcTemplate.update("INSERT INTO film_stats (film_id) VALUES (?)", film.getId());
         putGenre(film.getId(), film.getGenres());
         film.setDirectors(putDirector(film.getId(), film.getDirectors()));
-        directorStorage.addFilmDirector(film.getId(), film.getDirectors());
 
         return film;
     }
@@ -81,26 +94,19 @@ public class FilmDbStorage implements FilmStorage {
     }
 
     private List<Director> putDirector(int filmId, List<Director> directorIds) {
-        jdbcTemplate.update("DELETE FROM FILM_DIRECTOR WHERE FILM_ID = ?", filmId);
+        directorStorage.deleteFilmDirectors(filmId);
 
         if (directorIds == null || directorIds.isEmpty()) {
             return new ArrayList<>();
         }
 
-        String value = "(%d,%d)";
-        StringBuilder queryBuilder = new StringBuilder("INSERT INTO FILM_DIRECTOR VALUES ");
         List<Director> listDirectors = new ArrayList<>();
 
-        for (int i = 0; i < directorIds.size(); i++) {
-            listDirectors.add(directorStorage.getDirector(directorIds.get(i).getId()));
-            queryBuilder.append(String.format(value, filmId, directorIds.get(i).getId()));
-
-            if (directorIds.size() != i + 1) {
-                queryBuilder.append(",");
-            }
+        for (Director director : directorIds) {
+            listDirectors.add(directorStorage.getDirector(director.getId()));
         }
 
-        jdbcTemplate.update(queryBuilder.toString());
+        directorStorage.addFilmDirector(filmId, listDirectors);
 
         return listDirectors;
     }
@@ -173,8 +179,8 @@ public class FilmDbStorage implements FilmStorage {
 
     @Override
     public Film get(Integer id) {
-        return jdbcTemplate.query(
-                "select f.*, M.NAME as mpa_name from film f join MPA M on M.MPA_ID = f.MPA_ID where film_id = ?",
+        Film film = jdbcTemplate.query(
+                "select * from film where film_id = ?",
                 rs -> {
                     if (!rs.first() && !rs.next()) {
                         throw new UnknownDataException("Фильма с данным id не существует");
@@ -183,6 +189,8 @@ public class FilmDbStorage implements FilmStorage {
                 },
                 id
         );
+
+        return loadFilmsData(List.of(film)).get(0);
     }
 
     @Override
@@ -190,206 +198,293 @@ public class FilmDbStorage implements FilmStorage {
         String sqlDeleteQuery = "DELETE FROM FILM WHERE FILM_ID = ?";
         Film film = get(id);
 
+        directorStorage.deleteFilmDirectors(id);
         jdbcTemplate.update(sqlDeleteQuery, id);
         log.info("Фильм {} с id = {} удален", film.getName(), film.getId());
 
         return film;
     }
 
+    @Override
+    public List<Film> getFilmsByIds(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String sqlQuery = String.format("SELECT * FROM film WHERE film_id IN (%s)", QueryUtils.repeat(ids.size(), ","));
+
+        Map<Integer, Film> films = loadFilmsData(jdbcTemplate.query(sqlQuery, (rs, rowNum) -> mapFilmData(rs), ids.toArray()))
+                .stream()
+                .collect(Collectors.toMap(Film::getId, film -> film, (film1, film2) -> film1));
+
+        return ids.stream()
+                .map(films::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Film> getPage(int afterId, int limit) {
+        return loadFilmsData(jdbcTemplate.query("SELECT * FROM film WHERE film_id > ? ORDER BY film_id LIMIT ?",
+                (rs, rowNum) -> mapFilmData(rs),
+                afterId,
+                limit
+        ));
+    }
+
+    @Override
+    public void streamAll(Consumer<List<Film>> chunkConsumer) {
+        QueryUtils.queryInPages(this::getPage, Film::getId, chunkConsumer);
+    }
+
     @Override
     public List<Film> getAll() {
-        return jdbcTemplate.query("select *, M.NAME as mpa_name from film join MPA M on M.MPA_ID = FILM.MPA_ID",
+        return loadFilmsData(jdbcTemplate.query("select * from film",
                 (rs, rowNum) -> mapFilmData(rs)
-        );
+        ));
     }
 
     @Override
+    @Transactional
     public void addLike(int filmId, int userId, Integer userMark) {
-        jdbcTemplate.update("INSERT INTO FILM_LIKES VALUES (?, ?, ?)", filmId, userId, userMark);
+        List<Integer> oldMarks = jdbcTemplate.query("SELECT mark FROM film_likes WHERE film_id = ? AND user_id = ? " +
+                "FOR UPDATE", (rs, rowNum) -> (Integer) rs.getObject("mark"), filmId, userId);
+        int updated;
+
+        // Повторная оценка заменяет прежнюю: число лайков не меняется, в статистике заменяется только оценка
+        if (oldMarks.isEmpty()) {
+            jdbcTemplate.update("INSERT INTO FILM_LIKES VALUES (?, ?, ?)", filmId, userId, userMark);
+
+            updated = jdbcTemplate.update("UPDATE film_stats SET like_count = like_count + 1, " +
+                            "mark_sum = mark_sum + ?, mark_count = mark_count + ?, version = version + 1 " +
+                            "WHERE film_id = ?",
+                    userMark == null ? 0 : userMark,
+                    userMark == null ? 0 : 1,
+                    filmId
+            );
+        } else {
+            Integer oldMark = oldMarks.get(0);
+            jdbcTemplate.update("UPDATE film_likes SET mark = ? WHERE film_id = ? AND user_id = ?",
+                    userMark, filmId, userId);
+
+            updated = jdbcTemplate.update("UPDATE film_stats SET mark_sum = mark_sum + ?, " +
+                            "mark_count = mark_count + ?, version = version + 1 WHERE film_id = ?",
+                    (userMark == null ? 0 : userMark) - (oldMark == null ? 0 : oldMark),
+                    (userMark == null ? 0 : 1) - (oldMark == null ? 0 : 1),
+                    filmId
+            );
+        }
+
+        if (updated == 0) {
+            rebuildStats(filmId);
+        } else {
+            jdbcTemplate.update(UPDATE_RATING + "WHERE film_id = ?", filmId);
+        }
     }
 
     @Override
+    @Transactional
     public void deleteLike(int filmId, int userId) {
+        jdbcTemplate.update("UPDATE film_stats SET " +
+                        "like_count = like_count - (SELECT COUNT(*) FROM film_likes WHERE film_id = ? AND user_id = ?), " +
+                        "mark_sum = mark_sum - (SELECT COALESCE(SUM(mark), 0) FROM film_likes WHERE film_id = ? AND user_id = ?), " +
+                        "mark_count = mark_count - (SELECT COUNT(mark) FROM film_likes WHERE film_id = ? AND user_id = ?), " +
+                        "version = version + 1 " +
+                        "WHERE film_id = ?",
+                filmId, userId, filmId, userId, filmId, userId, filmId
+        );
+        jdbcTemplate.update(UPDATE_RATING + "WHERE film_id = ?", filmId);
         jdbcTemplate.update("DELETE FROM FILM_LIKES WHERE FILM_ID = ? AND USER_ID = ?", filmId, userId);
     }
 
+    @Override
+    @Transactional
+    public void deleteLikesByUser(int userId) {
+        jdbcTemplate.update("UPDATE film_stats AS fs SET " +
+                        "like_count = like_count - (SELECT COUNT(*) FROM film_likes AS fl " +
+                        "WHERE fl.film_id = fs.film_id AND fl.user_id = ?), " +
+                        "mark_sum = mark_sum - (SELECT COALESCE(SUM(mark), 0) FROM film_likes AS fl " +
+                        "WHERE fl.film_id = fs.film_id AND fl.user_id = ?), " +
+                        "mark_count = mark_count - (SELECT COUNT(mark) FROM film_likes AS fl " +
+                        "WHERE fl.film_id = fs.film_id AND fl.user_id = ?), " +
+                        "version = version + 1 " +
+                        "WHERE fs.film_id IN (SELECT film_id FROM film_likes WHERE user_id = ?)",
+                userId, userId, userId, userId
+        );
+        jdbcTemplate.update(UPDATE_RATING + "WHERE film_id IN (SELECT film_id FROM film_likes WHERE user_id = ?)", userId);
+        jdbcTemplate.update("DELETE FROM FILM_LIKES WHERE USER_ID = ?", userId);
+    }
+
+    @Override
+    public FilmStats getStats(int filmId) {
+        return jdbcTemplate.query("SELECT * FROM film_stats WHERE film_id = ?",
+                rs -> {
+                    if (!rs.next()) {
+                        return new FilmStats(filmId);
+                    }
+                    return mapFilmStats(rs);
+                },
+                filmId
+        );
+    }
+
+    @Override
+    public List<FilmStats> getAllStats() {
+        return jdbcTemplate.query("SELECT * FROM film_stats", (rs, rowNum) -> mapFilmStats(rs));
+    }
+
+    @Override
+    public List<FilmStats> getStatsByIds(Collection<Integer> filmIds) {
+        if (filmIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        return jdbcTemplate.query(
+                String.format("SELECT * FROM film_stats WHERE film_id IN (%s)",
+                        QueryUtils.repeat(filmIds.size(), ",")),
+                (rs, rowNum) -> mapFilmStats(rs),
+                filmIds.toArray()
+        );
+    }
+
+    private FilmStats mapFilmStats(ResultSet rs) throws SQLException {
+        return new FilmStats(
+                rs.getInt("film_id"),
+                rs.getInt("like_count"),
+                rs.getInt("mark_sum"),
+                rs.getInt("mark_count"),
+                rs.getLong("version")
+        );
+    }
+
+    @Override
+    @Transactional
+    public void rebuildStats() {
+        rebuildStats(null);
+    }
+
+    private void rebuildStats(Integer filmId) {
+        String counts = "SELECT f.film_id, COUNT(fl.user_id) AS like_count, COALESCE(SUM(fl.mark), 0) AS mark_sum, " +
+                "COUNT(fl.mark) AS mark_count FROM film AS f LEFT JOIN film_likes AS fl ON fl.film_id = f.film_id " +
+                (filmId == null ? "" : "WHERE f.film_id = ? ") +
+                "GROUP BY f.film_id";
+        String sqlQuery = "MERGE INTO film_stats AS fs USING (" + counts + ") AS s ON fs.film_id = s.film_id " +
+                "WHEN MATCHED THEN UPDATE SET like_count = s.like_count, mark_sum = s.mark_sum, " +
+                "mark_count = s.mark_count, version = fs.version + 1 " +
+                "WHEN NOT MATCHED THEN INSERT (film_id, like_count, mark_sum, mark_count) " +
+                "VALUES (s.film_id, s.like_count, s.mark_sum, s.mark_count)";
+
+        if (filmId == null) {
+            jdbcTemplate.update(sqlQuery);
+            jdbcTemplate.update(UPDATE_RATING);
+        } else {
+            jdbcTemplate.update(sqlQuery, filmId);
+            jdbcTemplate.update(UPDATE_RATING + "WHERE film_id = ?", filmId);
+        }
+
+        log.info("Статистика оценок пересчитана для {}", filmId == null ? "всех фильмов" : "фильма с id = " + filmId);
+    }
+
     @Override
     public List<Film> getTop(Integer limit) {
-        //to do
-        //Максим
-        //поправить вывод фильмов не по лайкам а по оценкам
-        String sqlQuery = "SELECT *, M.NAME as mpa_name " +
-                "FROM film AS f LEFT JOIN (SELECT film_id, " +
-                "                       COUNT(user_id) as likes_count " +
-                "                       FROM FILM_LIKES " +
-                "                       GROUP BY film_id) " +
-                "AS film_likes_count ON f.film_id = film_likes_count.film_id join MPA M on M.MPA_ID = f.MPA_ID " +
-                "ORDER BY film_likes_count.likes_count DESC NULLS LAST " +
-                "LIMIT ?;";
-
-        return jdbcTemplate.query(sqlQuery,
+        String sqlQuery = SELECT_FILMS_WITH_STATS +
+                ORDER_BY_RATING +
+                "LIMIT ?";
+
+        return loadFilmsData(jdbcTemplate.query(sqlQuery,
                 (rs, rowNum) -> mapFilmData(rs),
                 limit
-        );
+        ));
     }
 
     @Override
     public List<Genre> getAllGenres() {
-        String sqlQuery = "SELECT * FROM GENRE;";
-
-        return jdbcTemplate.query(
-                sqlQuery,
-                (rs, rowNum) -> new Genre(rs.getInt("genre_id"), rs.getString("name")));
+        return referenceDataCache.getAllGenres();
     }
 
     @Override
     public Genre getGenreById(int genreId) {
-        String sqlQuery = "SELECT * FROM GENRE WHERE GENRE_ID=?;";
-
-        return jdbcTemplate.query(sqlQuery,
-                rs -> {
-                    if (!rs.first()) {
-                        throw new UnknownDataException("Фильма с данным id не существует");
-                    }
-                    return new Genre(rs.getInt("genre_id"), rs.getString("name"));
-                },
-                genreId);
+        return referenceDataCache.getGenre(genreId);
     }
 
     @Override
     public List<MPA> getAllCategories() {
-        String sqlQuery = "SELECT * FROM MPA;";
-
-        return jdbcTemplate.query(
-                sqlQuery,
-                (rs, rowNum) -> new MPA(rs.getInt("mpa_id"), rs.getString("name")));
+        return referenceDataCache.getAllMpa();
     }
 
     @Override
     public MPA getCategoryById(int categoryId) {
-        String sqlQuery = "SELECT * FROM MPA WHERE MPA_ID=?;";
-
-        return jdbcTemplate.query(sqlQuery,
-                rs -> {
-                    if (!rs.first()) {
-                        throw new UnknownDataException("Фильма с данным id не существует");
-                    }
-                    return new MPA(rs.getInt("mpa_id"), rs.getString("name"));
-                },
-                categoryId);
+        return referenceDataCache.getMpa(categoryId);
     }
 
     @Override
     public List<Film> getFilmsDirectorSortedByYear(int directorId) {
-        String sqlQuery = "SELECT *, M.NAME AS mpa_name FROM film JOIN MPA M ON M.MPA_ID = FILM.MPA_ID" +
+        String sqlQuery = "SELECT * FROM film" +
                 " WHERE film_id IN (" +
                 "SELECT film_id FROM film_director WHERE director_id = ?) " +
                 "ORDER BY release_date";
 
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> mapFilmData(rs), directorId);
+        return loadFilmsData(jdbcTemplate.query(sqlQuery, (rs, rowNum) -> mapFilmData(rs), directorId));
     }
 
     @Override
     public List<Film> getFilmsDirectorSortedByLikes(int directorId) {
-        //TODO максим
-        String sqlQuery = "SELECT *, M.NAME AS mpa_name from film join MPA M on M.MPA_ID = FILM.MPA_ID " +
-                "LEFT JOIN film_likes fl ON film.film_id = fl.film_id " +
-                "WHERE film.film_id IN (" +
-                "SELECT film_id FROM film_director WHERE director_id = ?) " +
-                "GROUP BY film.film_id " +
-                "ORDER BY AVG(fl.mark) DESC";
+        String sqlQuery = SELECT_FILMS_WITH_STATS +
+                "WHERE f.film_id IN (SELECT film_id FROM film_director WHERE director_id = ?) " +
+                ORDER_BY_RATING;
 
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> mapFilmData(rs), directorId);
-    }
-
-    @Override
-    public List<Film> getCommonFilms(Integer userId, Integer friendId) {
-        //TODO максим
-        String sqlQuery = "SELECT f.FILM_ID, f.TITLE, f.DESCRIPTION, f.RELEASE_DATE, f.DURATION, f.MPA_ID, m.NAME AS mpa_name " +
-                "FROM FILM AS f LEFT JOIN MPA AS m on m.MPA_ID = f.MPA_ID WHERE FILM_ID IN " +
-                "(SELECT FILM_ID FROM FILM_LIKES WHERE USER_ID = ? AND FILM_ID IN " +
-                "(SELECT FILM_ID FROM FILM_LIKES WHERE USER_ID = ?));";
-
-        return jdbcTemplate.query(sqlQuery, (rs, rowNum) -> mapFilmData(rs), userId, friendId).stream()
-                .sorted((f1, f2) -> f2.getMiddleRating() - f1.getMiddleRating())
-                .collect(Collectors.toList());
+        return loadFilmsData(jdbcTemplate.query(sqlQuery, (rs, rowNum) -> mapFilmData(rs), directorId));
     }
 
     @Override
     public List<Film> findLimitPopularFilmsByGenreAndYear(Integer count, Integer genreId, Integer year) {
-        //TODO максим
-        String sqlQuery = "SELECT f.*, m.mpa_id, m.name AS mpa_name " +
-                "FROM film AS f " +
-                "LEFT OUTER JOIN film_likes AS fl ON f.film_id = fl.film_id " +
-                "LEFT OUTER JOIN film_genre AS fg ON f.film_id = fg.film_id " +
-                "LEFT OUTER JOIN genre AS g ON fg.genre_id = g.genre_id " +
-                "LEFT OUTER JOIN mpa AS m ON f.mpa_id = m.mpa_id " +
-                "WHERE fg.genre_id = ? AND EXTRACT(YEAR FROM f.release_date) = ? " +
-                "GROUP BY f.film_id, fg.genre_id " +
-                "ORDER BY COUNT(FL.USER_ID) DESC " +
+        String sqlQuery = SELECT_FILMS_WITH_STATS +
+                "WHERE f.film_id IN (SELECT film_id FROM film_genre WHERE genre_id = ?) " +
+                "AND EXTRACT(YEAR FROM f.release_date) = ? " +
+                ORDER_BY_RATING +
                 "LIMIT ?";
 
-        return jdbcTemplate.query(sqlQuery,
+        return loadFilmsData(jdbcTemplate.query(sqlQuery,
                 (rs, rowNum) -> mapFilmData(rs),
                 genreId, year, count
-        ).stream().sorted((f1, f2) -> f2.getMiddleRating() - f1.getMiddleRating()).collect(Collectors.toList());
+        ));
     }
 
     @Override
     public List<Film> findPopularFilmsByYearAndGenre(Integer year, Integer genreId) {
-        //TODO максим
-        String sqlQuery = "SELECT f.*, m.mpa_id, m.name AS mpa_name " +
-                "FROM film AS f " +
-                "LEFT OUTER JOIN film_likes AS fl ON f.film_id = fl.film_id " +
-                "LEFT OUTER JOIN film_genre AS fg ON f.film_id = fg.film_id " +
-                "LEFT OUTER JOIN genre AS g ON fg.genre_id = g.genre_id " +
-                "LEFT OUTER JOIN mpa AS m ON f.mpa_id = m.mpa_id " +
-                "WHERE fg.genre_id = ? AND EXTRACT(YEAR FROM f.release_date) = ? " +
-                "GROUP BY f.film_id, fg.genre_id " +
-                "ORDER BY COUNT(FL.USER_ID) DESC";
-
-        return jdbcTemplate.query(sqlQuery,
+        String sqlQuery = SELECT_FILMS_WITH_STATS +
+                "WHERE f.film_id IN (SELECT film_id FROM film_genre WHERE genre_id = ?) " +
+                "AND EXTRACT(YEAR FROM f.release_date) = ? " +
+                ORDER_BY_RATING;
+
+        return loadFilmsData(jdbcTemplate.query(sqlQuery,
                 (rs, rowNum) -> mapFilmData(rs),
                 genreId, year
-        ).stream().sorted((f1, f2) -> f2.getMiddleRating() - f1.getMiddleRating()).collect(Collectors.toList());
+        ));
     }
 
     @Override
     public List<Film> findPopularFilmsByYear(Integer year) {
-        ///TODO максим
-        String sqlQuery = "SELECT f.*, m.mpa_id, m.name AS mpa_name " +
-                "FROM film AS f " +
-                "LEFT OUTER JOIN film_likes AS fl ON f.film_id = fl.film_id " +
-                "LEFT OUTER JOIN film_genre AS fg ON f.film_id = fg.film_id " +
-                "LEFT OUTER JOIN genre AS g ON fg.genre_id = g.genre_id " +
-                "LEFT OUTER JOIN mpa AS m ON f.mpa_id = m.mpa_id " +
+        String sqlQuery = SELECT_FILMS_WITH_STATS +
                 "WHERE EXTRACT(YEAR FROM f.release_date) = ? " +
-                "GROUP BY f.film_id " +
-                "ORDER BY COUNT(FL.USER_ID) DESC";
+                ORDER_BY_RATING;
 
-        return jdbcTemplate.query(sqlQuery,
+        return loadFilmsData(jdbcTemplate.query(sqlQuery,
                 (rs, rowNum) -> mapFilmData(rs),
                 year
-        ).stream().sorted((f1, f2) -> f2.getMiddleRating() - f1.getMiddleRating()).collect(Collectors.toList());
+        ));
     }
 
     @Override
     public List<Film> findPopularFilmsByGenre(Integer genreId) {
-        //TODO максим
-        String sqlQuery = "SELECT f.*, m.mpa_id, m.name AS mpa_name " +
-                "FROM film AS f " +
-                "LEFT OUTER JOIN film_likes AS fl ON f.film_id = fl.film_id " +
-                "LEFT OUTER JOIN film_genre AS fg ON f.film_id = fg.film_id " +
-                "LEFT OUTER JOIN genre AS g ON fg.genre_id = g.genre_id " +
-                "LEFT OUTER JOIN mpa AS m ON f.mpa_id = m.mpa_id " +
-                "WHERE fg.genre_id = ? " +
-                "GROUP BY f.film_id, fg.genre_id " +
-                "ORDER BY COUNT(FL.USER_ID) DESC";
-
-        return jdbcTemplate.query(sqlQuery,
+        String sqlQuery = SELECT_FILMS_WITH_STATS +
+                "WHERE f.film_id IN (SELECT film_id FROM film_genre WHERE genre_id = ?) " +
+                ORDER_BY_RATING;
+
+        return loadFilmsData(jdbcTemplate.query(sqlQuery,
                 (rs, rowNum) -> mapFilmData(rs),
                 genreId
-        ).stream().sorted((f1, f2) -> f2.getMiddleRating() - f1.getMiddleRating()).collect(Collectors.toList());
+        ));
     }
 
     private Film mapFilmData(ResultSet rs) throws SQLException {
@@ -398,36 +493,60 @@ public class FilmDbStorage implements FilmStorage {
                 rs.getString("description"),
                 rs.getObject("release_date", LocalDate.class),
                 rs.getInt("duration"),
-                new MPA(rs.getInt("mpa_id"), rs.getString("mpa_name"))
+                referenceDataCache.getMpa(rs.getInt("mpa_id"))
         );
 
         film.setId(rs.getInt("film_id"));
 
-        String sqlQuerySelectLikes = "SELECT user_id FROM FILM_LIKES WHERE FILM_ID = ?";
+        return film;
+    }
 
-        List<Integer> userLikes = jdbcTemplate.queryForList(
-                sqlQuerySelectLikes, Integer.class, film.getId()
-        );
+    private List<Film> loadFilmsData(List<Film> films) {
+        if (films.isEmpty()) {
+            return films;
+        }
 
-        film.setUserLikes(new HashSet<>(userLikes));
+        List<Integer> ids = films.stream().map(Film::getId).distinct().collect(Collectors.toList());
+        String placeholders = QueryUtils.repeat(ids.size(), ",");
 
-        String sqlQuerySelectGenre = "SELECT G2.GENRE_ID, NAME FROM FILM_GENRE join GENRE G2 on G2.GENRE_ID = FILM_GENRE.GENRE_ID WHERE FILM_ID = ?";
+        Map<Integer, Set<Integer>> likes = new HashMap<>();
+        jdbcTemplate.query(
+                String.format("SELECT film_id, user_id FROM film_likes WHERE film_id IN (%s)", placeholders),
+                rs -> {
+                    likes.computeIfAbsent(rs.getInt("film_id"), filmId -> new HashSet<>()).add(rs.getInt("user_id"));
+                },
+                ids.toArray()
+        );
 
-        List<Genre> filmGenres = jdbcTemplate.query(
-                sqlQuerySelectGenre,
-                (grs, rowNum) -> new Genre(grs.getInt("genre_id"), grs.getString("name")),
-                film.getId()
+        Map<Integer, List<Genre>> genres = new HashMap<>();
+        jdbcTemplate.query(
+                String.format("SELECT film_id, genre_id FROM film_genre WHERE film_id IN (%s)", placeholders),
+                rs -> {
+                    genres.computeIfAbsent(rs.getInt("film_id"), filmId -> new ArrayList<>())
+                            .add(referenceDataCache.getGenre(rs.getInt("genre_id")));
+                },
+                ids.toArray()
         );
 
-        film.setGenres(filmGenres);
-        film.setDirectors(putDirector(film.getId(), directorStorage.getDirectorsByFilm(film.getId())));
+        Map<Integer, List<Director>> directors = directorStorage.getDirectorsByFilms(ids);
 
-        String sqlGetMiddleRating = "SELECT AVG(mark) FROM film_likes where film_id = ?";
-        film.setMiddleRating(jdbcTemplate.queryForObject(sqlGetMiddleRating, new Object[]{film.getId()}, Integer.class));
-        if (film.getMiddleRating() == null) {
-            film.setMiddleRating(0);
+        Map<Integer, Integer> ratings = new HashMap<>();
+        jdbcTemplate.query(
+                String.format("SELECT * FROM film_stats WHERE film_id IN (%s)", placeholders),
+                rs -> {
+                    ratings.put(rs.getInt("film_id"), mapFilmStats(rs).getRating());
+                },
+                ids.toArray()
+        );
+
+        for (Film film : films) {
+            film.setUserLikes(likes.getOrDefault(film.getId(), new HashSet<>()));
+            film.setGenres(genres.getOrDefault(film.getId(), new ArrayList<>()));
+            film.setDirectors(new ArrayList<>(directors.getOrDefault(film.getId(), List.of())));
+            film.setMiddleRating(ratings.getOrDefault(film.getId(), 0));
         }
-        return film;
+
+        return films;
     }
 
     @Override
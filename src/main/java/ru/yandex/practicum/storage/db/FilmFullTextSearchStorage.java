@@ -0,0 +1,96 @@
+package ru.yandex.practicum.storage.db;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.film.Director;
+import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.storage.FilmSearchStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "filmorate.search.mode", havingValue = "fulltext")
+public class FilmFullTextSearchStorage implements FilmSearchStorage {
+    private static final String MATCHED_KEYS = "SELECT CAST(ft.KEYS[1] AS INTEGER) " +
+            "FROM FT_SEARCH_DATA(?, 0, 0) AS ft WHERE ft.\"TABLE\" = ";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        jdbcTemplate.execute("CREATE ALIAS IF NOT EXISTS FT_INIT FOR 'org.h2.fulltext.FullText.init'");
+        jdbcTemplate.execute("CALL FT_INIT()");
+
+        createIndex("FILM", "TITLE");
+        createIndex("DIRECTOR", "NAME");
+
+        log.info("Полнотекстовый поиск фильмов H2 инициализирован");
+    }
+
+    private void createIndex(String table, String column) {
+        Integer indexes = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM FT.INDEXES WHERE \"TABLE\" = ?",
+                Integer.class, table);
+
+        if (indexes == null || indexes == 0) {
+            jdbcTemplate.execute("CALL FT_CREATE_INDEX('PUBLIC', '" + table + "', '" + column + "')");
+        }
+    }
+
+    @Override
+    public List<Integer> search(String query, boolean byTitle, boolean byDirector, Integer count) {
+        List<String> conditions = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+
+        if (byTitle) {
+            conditions.add("f.film_id IN (" + MATCHED_KEYS + "'FILM')");
+            args.add(query);
+        }
+
+        if (byDirector) {
+            conditions.add("f.film_id IN (SELECT fd.film_id FROM film_director AS fd " +
+                    "WHERE fd.director_id IN (" + MATCHED_KEYS + "'DIRECTOR'))");
+            args.add(query);
+        }
+
+        if (conditions.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        StringBuilder sqlQuery = new StringBuilder("SELECT f.film_id FROM film AS f " +
+                "LEFT JOIN film_stats AS fs ON fs.film_id = f.film_id WHERE ")
+                .append(String.join(" OR ", conditions))
+                .append(" ")
+                .append(FilmDbStorage.ORDER_BY_RATING);
+
+        if (count != null) {
+            sqlQuery.append("LIMIT ?");
+            args.add(count);
+        }
+
+        return jdbcTemplate.queryForList(sqlQuery.toString(), Integer.class, args.toArray());
+    }
+
+    // Полнотекстовый индекс H2 обновляется триггерами, созданными FT_CREATE_INDEX
+    @Override
+    public void putFilm(Film film) {
+    }
+
+    @Override
+    public void removeFilm(int filmId) {
+    }
+
+    @Override
+    public void putDirector(Director director) {
+    }
+
+    @Override
+    public void removeDirector(int directorId) {
+    }
+}
@@ -0,0 +1,46 @@
+package ru.yandex.practicum.storage.db;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+final class QueryUtils {
+    static final int STREAM_CHUNK_SIZE = 500;
+
+    private QueryUtils() {
+    }
+
+    static String repeat(int times, String delimiter) {
+        if (times == 1) {
+            return "?";
+        }
+
+        String withDelimiter = "?" + delimiter;
+
+        return withDelimiter.repeat(times - 1) + "?";
+    }
+
+    // Каждая порция читается отдельным запросом по ключу после последнего id, поэтому между порциями
+    // не держатся ни курсор, ни соединение из пула
+    static <T> void queryInPages(BiFunction<Integer, Integer, List<T>> pageLoader, ToIntFunction<T> idGetter,
+                                 Consumer<List<T>> chunkConsumer) {
+        int afterId = 0;
+
+        while (true) {
+            List<T> page = pageLoader.apply(afterId, STREAM_CHUNK_SIZE);
+
+            if (page.isEmpty()) {
+                return;
+            }
+
+            chunkConsumer.accept(page);
+
+            if (page.size() < STREAM_CHUNK_SIZE) {
+                return;
+            }
+
+            afterId = idGetter.applyAsInt(page.get(page.size() - 1));
+        }
+    }
+}
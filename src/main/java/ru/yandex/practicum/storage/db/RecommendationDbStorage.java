@@ -0,0 +1,377 @@
+package ru.yandex.practicum.storage.db;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.model.RecommendationJob;
+import ru.yandex.practicum.model.event.constants.EventType;
+import ru.yandex.practicum.model.film.FilmDeviation;
+import ru.yandex.practicum.model.film.RecommendedFilm;
+import ru.yandex.practicum.storage.RecommendationStorage;
+import ru.yandex.practicum.storage.recommendation.RatingMatrix;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@Component
+@RequiredArgsConstructor
+public class RecommendationDbStorage implements RecommendationStorage {
+    private static final String SELECT_RATINGS = "SELECT user_id, film_id, mark FROM film_likes ";
+    private static final String ORDER_BY_USER_AND_FILM = "ORDER BY user_id, film_id";
+    private static final String ADD_DEVIATION = "MERGE INTO film_deviation AS d USING (VALUES (CAST(? AS INTEGER), " +
+            "CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS INTEGER))) " +
+            "AS s (film_id, other_film_id, diff_sum, co_count) " +
+            "ON d.film_id = s.film_id AND d.other_film_id = s.other_film_id " +
+            "WHEN MATCHED THEN UPDATE SET diff_sum = d.diff_sum + s.diff_sum, co_count = d.co_count + s.co_count " +
+            "WHEN NOT MATCHED THEN INSERT (film_id, other_film_id, diff_sum, co_count) " +
+            "VALUES (s.film_id, s.other_film_id, s.diff_sum, s.co_count)";
+    // Пара удаленного за время пересчета фильма не вставляется
+    private static final String REPLACE_DEVIATION = "MERGE INTO film_deviation AS d USING (VALUES (CAST(? AS INTEGER), " +
+            "CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS INTEGER))) " +
+            "AS s (film_id, other_film_id, diff_sum, co_count) " +
+            "ON d.film_id = s.film_id AND d.other_film_id = s.other_film_id " +
+            "WHEN MATCHED THEN UPDATE SET diff_sum = s.diff_sum, co_count = s.co_count " +
+            "WHEN NOT MATCHED AND EXISTS (SELECT 1 FROM film WHERE film_id = s.film_id) " +
+            "AND EXISTS (SELECT 1 FROM film WHERE film_id = s.other_film_id) " +
+            "THEN INSERT (film_id, other_film_id, diff_sum, co_count) " +
+            "VALUES (s.film_id, s.other_film_id, s.diff_sum, s.co_count)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Map<Integer, Integer> getUserMarks(int userId) {
+        Map<Integer, Integer> marks = new HashMap<>();
+
+        jdbcTemplate.query("SELECT film_id, mark FROM film_likes WHERE user_id = ?", rs -> {
+            marks.put(rs.getInt("film_id"), rs.getInt("mark"));
+        }, userId);
+
+        return marks;
+    }
+
+    @Override
+    public Map<Integer, Integer> getFilmMarks(int filmId) {
+        Map<Integer, Integer> marks = new HashMap<>();
+
+        jdbcTemplate.query("SELECT user_id, mark FROM film_likes WHERE film_id = ?", rs -> {
+            marks.put(rs.getInt("user_id"), rs.getInt("mark"));
+        }, filmId);
+
+        return marks;
+    }
+
+    @Override
+    public RatingMatrix loadRatingMatrix() {
+        RatingMatrix.Builder builder = RatingMatrix.builder();
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_RATINGS + ORDER_BY_USER_AND_FILM,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(QueryUtils.STREAM_CHUNK_SIZE);
+            return ps;
+        }, rs -> {
+            builder.add(rs.getInt("user_id"), rs.getInt("film_id"), rs.getInt("mark"));
+        });
+
+        return builder.build();
+    }
+
+    @Override
+    public RatingMatrix loadRatingMatrix(Collection<Integer> userIds) {
+        RatingMatrix.Builder builder = RatingMatrix.builder();
+
+        if (userIds.isEmpty()) {
+            return builder.build();
+        }
+
+        String sqlQuery = SELECT_RATINGS + "WHERE user_id IN (" + QueryUtils.repeat(userIds.size(), ",") + ") " +
+                ORDER_BY_USER_AND_FILM;
+
+        jdbcTemplate.query(sqlQuery, rs -> {
+            builder.add(rs.getInt("user_id"), rs.getInt("film_id"), rs.getInt("mark"));
+        }, userIds.toArray());
+
+        return builder.build();
+    }
+
+    @Override
+    public int getRatingCount() {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_likes", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public Set<Integer> getUserIds() {
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT user_id FROM users", Integer.class));
+    }
+
+    @Override
+    public Set<Integer> getFilmIds() {
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT film_id FROM film", Integer.class));
+    }
+
+    @Override
+    public long getLastEventId() {
+        Long eventId = jdbcTemplate.queryForObject("SELECT MAX(event_id) FROM event_feed", Long.class);
+        return eventId == null ? 0 : eventId;
+    }
+
+    @Override
+    public Long getEventTime(long eventId) {
+        List<Long> times = jdbcTemplate.query("SELECT * FROM event_feed WHERE event_id = ?",
+                (rs, rowNum) -> rs.getTimestamp("timestamp").getTime(), eventId);
+
+        return times.isEmpty() ? null : times.get(0);
+    }
+
+    @Override
+    public Set<Integer> getUsersRatedAfter(long eventId) {
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT DISTINCT user_id FROM event_feed " +
+                "WHERE event_type = ? AND event_id > ?", Integer.class, EventType.LIKE.name(), eventId));
+    }
+
+    @Override
+    public void forEachDeviation(Consumer<FilmDeviation> consumer) {
+        jdbcTemplate.query("SELECT * FROM film_deviation", rs -> {
+            consumer.accept(new FilmDeviation(
+                    rs.getInt("film_id"),
+                    rs.getInt("other_film_id"),
+                    rs.getInt("diff_sum"),
+                    rs.getInt("co_count")
+            ));
+        });
+    }
+
+    // Поправки прибавляются к сохраненным парам фильмов, пары без общих оценок удаляются
+    @Override
+    public void addDeviations(List<FilmDeviation> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> added = new ArrayList<>();
+        List<Object[]> pairs = new ArrayList<>();
+
+        for (FilmDeviation change : changes) {
+            boolean ordered = change.getFilmId() < change.getOtherFilmId();
+            int filmId = ordered ? change.getFilmId() : change.getOtherFilmId();
+            int otherFilmId = ordered ? change.getOtherFilmId() : change.getFilmId();
+
+            added.add(new Object[]{filmId, otherFilmId, ordered ? change.getDiffSum() : -change.getDiffSum(),
+                    change.getCoCount()});
+            pairs.add(new Object[]{filmId, otherFilmId});
+        }
+
+        // Новую пару могла только что вставить параллельная оценка или пересчет: после фиксации их вставки
+        // поправка повторяется и прибавляется к уже существующей строке
+        List<Object[]> failed = batchUpdateSkippingFailed(ADD_DEVIATION, added);
+        if (!failed.isEmpty()) {
+            jdbcTemplate.batchUpdate(ADD_DEVIATION, failed);
+        }
+
+        jdbcTemplate.batchUpdate("DELETE FROM film_deviation WHERE film_id = ? AND other_film_id = ? " +
+                "AND co_count = 0", pairs);
+    }
+
+    // Пары записываются как есть, пары без общих оценок удаляются
+    @Override
+    public void saveDeviations(List<FilmDeviation> deviations) {
+        List<Object[]> merged = new ArrayList<>();
+        List<Object[]> deleted = new ArrayList<>();
+
+        for (FilmDeviation deviation : deviations) {
+            if (deviation.getCoCount() > 0) {
+                merged.add(new Object[]{deviation.getFilmId(), deviation.getOtherFilmId(),
+                        deviation.getDiffSum(), deviation.getCoCount()});
+            } else {
+                deleted.add(new Object[]{deviation.getFilmId(), deviation.getOtherFilmId()});
+            }
+        }
+
+        if (!merged.isEmpty()) {
+            jdbcTemplate.batchUpdate("MERGE INTO film_deviation (film_id, other_film_id, diff_sum, co_count) " +
+                    "KEY (film_id, other_film_id) VALUES (?, ?, ?, ?)", merged);
+        }
+
+        if (!deleted.isEmpty()) {
+            jdbcTemplate.batchUpdate("DELETE FROM film_deviation WHERE film_id = ? AND other_film_id = ?", deleted);
+        }
+    }
+
+    // Таблица переписывается короткими порциями без общей транзакции, чтобы параллельные оценки не ждали
+    // ее целиком. Пары, которые при этом менялись оценками, вызывающий потом перезаписывает через saveDeviations
+    @Override
+    public void replaceDeviations(List<FilmDeviation> deviations) {
+        Set<Long> kept = new HashSet<>();
+        deviations.forEach(deviation -> kept.add(pairKey(deviation.getFilmId(), deviation.getOtherFilmId())));
+
+        List<Object[]> stale = new ArrayList<>();
+        forEachDeviation(deviation -> {
+            if (!kept.contains(pairKey(deviation.getFilmId(), deviation.getOtherFilmId()))) {
+                stale.add(new Object[]{deviation.getFilmId(), deviation.getOtherFilmId()});
+            }
+        });
+
+        List<Object[]> written = new ArrayList<>(deviations.size());
+        deviations.forEach(deviation -> written.add(new Object[]{deviation.getFilmId(), deviation.getOtherFilmId(),
+                deviation.getDiffSum(), deviation.getCoCount()}));
+
+        for (int from = 0; from < stale.size(); from += QueryUtils.STREAM_CHUNK_SIZE) {
+            jdbcTemplate.batchUpdate("DELETE FROM film_deviation WHERE film_id = ? AND other_film_id = ?",
+                    stale.subList(from, Math.min(stale.size(), from + QueryUtils.STREAM_CHUNK_SIZE)));
+        }
+
+        // Пару, которую одновременно вставила оценка, пересчет пропускает: она все равно перезаписывается
+        for (int from = 0; from < written.size(); from += QueryUtils.STREAM_CHUNK_SIZE) {
+            batchUpdateSkippingFailed(REPLACE_DEVIATION,
+                    written.subList(from, Math.min(written.size(), from + QueryUtils.STREAM_CHUNK_SIZE)));
+        }
+    }
+
+    // H2 выполняет пакет до конца и после ошибки в одной из строк, строки с ошибкой возвращаются вызывающему
+    private List<Object[]> batchUpdateSkippingFailed(String sql, List<Object[]> batchArgs) {
+        int[] counts = jdbcTemplate.execute(sql, (PreparedStatementCallback<int[]>) ps -> {
+            for (Object[] args : batchArgs) {
+                for (int i = 0; i < args.length; i++) {
+                    ps.setObject(i + 1, args[i]);
+                }
+                ps.addBatch();
+            }
+
+            try {
+                return ps.executeBatch();
+            } catch (BatchUpdateException e) {
+                return e.getUpdateCounts();
+            }
+        });
+
+        List<Object[]> failed = new ArrayList<>();
+        for (int i = 0; i < batchArgs.size(); i++) {
+            if (counts == null || i >= counts.length || counts[i] == Statement.EXECUTE_FAILED) {
+                failed.add(batchArgs.get(i));
+            }
+        }
+
+        return failed;
+    }
+
+    private static long pairKey(int filmId, int otherFilmId) {
+        return ((long) filmId << 32) | (otherFilmId & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public int getRatedUserCount() {
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(DISTINCT user_id) FROM film_likes", Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    @Override
+    public List<Integer> getRatedUserIds(int afterUserId, int limit) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT user_id FROM film_likes WHERE user_id > ? " +
+                "ORDER BY user_id LIMIT ?", Integer.class, afterUserId, limit);
+    }
+
+    @Override
+    public RecommendationJob findUnfinishedJob() {
+        List<RecommendationJob> jobs = jdbcTemplate.query("SELECT * FROM recommendation_job " +
+                "WHERE finished_at IS NULL ORDER BY job_id DESC LIMIT 1", (rs, rowNum) -> new RecommendationJob(
+                rs.getLong("job_id"),
+                rs.getInt("last_user_id"),
+                rs.getInt("processed_users"),
+                rs.getInt("total_users")
+        ));
+
+        return jobs.isEmpty() ? null : jobs.get(0);
+    }
+
+    @Override
+    public RecommendationJob startJob(int totalUsers) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement("INSERT INTO recommendation_job " +
+                    "(started_at, total_users) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS);
+            ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            ps.setInt(2, totalUsers);
+            return ps;
+        }, keyHolder);
+
+        return new RecommendationJob(keyHolder.getKey().longValue(), 0, 0, totalUsers);
+    }
+
+    @Override
+    public void finishJob(long jobId) {
+        jdbcTemplate.update("UPDATE recommendation_job SET finished_at = ? WHERE job_id = ?",
+                Timestamp.valueOf(LocalDateTime.now()), jobId);
+    }
+
+    // Рекомендации порции и позиция задания сохраняются одной транзакцией, поэтому после сбоя задание
+    // продолжается со следующей порции. Пользователи, оценившие фильмы после чтения их оценок, пропускаются:
+    // их рекомендации устарели еще до записи
+    @Override
+    @Transactional
+    public void savePrecomputed(long jobId, int lastUserId, long sinceEventId,
+                                Map<Integer, List<RecommendedFilm>> recommendations) {
+        if (!recommendations.isEmpty()) {
+            String userIds = QueryUtils.repeat(recommendations.size(), ",");
+            List<Object> args = new ArrayList<>();
+            args.add(EventType.LIKE.name());
+            args.add(sinceEventId);
+            args.addAll(recommendations.keySet());
+
+            Set<Integer> changed = new HashSet<>(jdbcTemplate.queryForList("SELECT DISTINCT user_id FROM event_feed " +
+                    "WHERE event_type = ? AND event_id > ? AND user_id IN (" + userIds + ")", Integer.class,
+                    args.toArray()));
+
+            jdbcTemplate.update("DELETE FROM user_recommendations WHERE user_id IN (" + userIds + ")",
+                    recommendations.keySet().toArray());
+
+            Timestamp computedAt = Timestamp.valueOf(LocalDateTime.now());
+            List<Object[]> rows = new ArrayList<>();
+
+            recommendations.forEach((userId, films) -> {
+                if (!changed.contains(userId)) {
+                    films.forEach(film -> rows.add(new Object[]{userId, film.getFilmId(), film.getScore(), computedAt}));
+                }
+            });
+
+            if (!rows.isEmpty()) {
+                jdbcTemplate.batchUpdate("INSERT INTO user_recommendations (user_id, film_id, score, computed_at) " +
+                        "VALUES (?, ?, ?, ?)", rows);
+            }
+        }
+
+        jdbcTemplate.update("UPDATE recommendation_job SET last_user_id = ?, processed_users = processed_users + ? " +
+                "WHERE job_id = ?", lastUserId, recommendations.size(), jobId);
+    }
+
+    @Override
+    public List<RecommendedFilm> getPrecomputed(int userId, long computedAfterMillis) {
+        return jdbcTemplate.query("SELECT film_id, score FROM user_recommendations WHERE user_id = ? " +
+                "AND computed_at >= ? ORDER BY score DESC, film_id", (rs, rowNum) -> new RecommendedFilm(
+                rs.getInt("film_id"),
+                rs.getDouble("score")
+        ), userId, new Timestamp(computedAfterMillis));
+    }
+
+    @Override
+    public void deletePrecomputed(int userId) {
+        jdbcTemplate.update("DELETE FROM user_recommendations WHERE user_id = ?", userId);
+    }
+}
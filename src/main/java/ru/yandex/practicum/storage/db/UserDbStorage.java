@@ -7,12 +7,15 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.exception.UnknownDataException;
-import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.model.user.FriendConnection;
 import ru.yandex.practicum.model.user.User;
 import ru.yandex.practicum.storage.UserStorage;
+import ru.yandex.practicum.storage.cache.ReferenceDataCache;
+import ru.yandex.practicum.storage.index.FriendshipGraph;
 
+import javax.annotation.PostConstruct;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -20,18 +23,71 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @RequiredArgsConstructor
 @Slf4j
 @Component
 public class UserDbStorage implements UserStorage {
+    private static final int ACCEPTED_STATUS_ID = 0;
+    private static final int NOT_ACCEPTED_STATUS_ID = 1;
+
     private final JdbcTemplate jdbcTemplate;
     private final FilmDbStorage filmDbStorage;
+    private final ReferenceDataCache referenceDataCache;
+    private final FriendshipGraph friendshipGraph;
+    private final TransactionTemplate transactionTemplate;
+    // Изменение связей в БД и в графе выполняется под одной блокировкой, а граф обновляется только после
+    // фиксации транзакции, поэтому граф не расходится с user_friends ни при гонках, ни при откате
+    private final Object friendshipLock = new Object();
+
+    @PostConstruct
+    public void loadFriendshipGraph() {
+        synchronized (friendshipLock) {
+            loadFriendshipGraphLocked();
+        }
+    }
+
+    private void loadFriendshipGraphLocked() {
+        List<int[]> connections = new ArrayList<>();
+        int[] previousUserId = {0};
+
+        friendshipGraph.clear();
+        jdbcTemplate.query("select user_id, friend_id, status_id from user_friends order by user_id", rs -> {
+            int userId = rs.getInt("user_id");
+
+            if (userId != previousUserId[0] && !connections.isEmpty()) {
+                loadConnections(previousUserId[0], connections);
+            }
+
+            previousUserId[0] = userId;
+            connections.add(new int[]{rs.getInt("friend_id"), rs.getInt("status_id")});
+        });
+
+        if (!connections.isEmpty()) {
+            loadConnections(previousUserId[0], connections);
+        }
+    }
+
+    private void loadConnections(int userId, List<int[]> connections) {
+        int[] friendIds = new int[connections.size()];
+        int[] statusIds = new int[connections.size()];
+
+        for (int i = 0; i < connections.size(); i++) {
+            friendIds[i] = connections.get(i)[0];
+            statusIds[i] = connections.get(i)[1];
+        }
+
+        friendshipGraph.load(userId, friendIds, statusIds);
+        connections.clear();
+    }
 
     @Override
     public User put(User user) {
@@ -136,281 +192,185 @@ public class UserDbStorage implements UserStorage {
         String sqlDeleteQuery = "DELETE FROM users WHERE USER_ID = ?";
         User user = get(id);
 
-        jdbcTemplate.update(sqlDeleteQuery, id);
+        filmDbStorage.deleteLikesByUser(id);
+
+        synchronized (friendshipLock) {
+            jdbcTemplate.update(sqlDeleteQuery, id);
+            friendshipGraph.removeUser(id);
+        }
         log.info("Запрос на удаление user с id = {} отправлен", id);
 
         return user;
     }
 
     private List<FriendConnection> findFriends(Integer id) {
-        return jdbcTemplate.query(
-                "select us.friend_id, s.name from user_friends us JOIN status s ON us.status_id = s.STATUS_ID WHERE USER_ID = ?",
-                (rs, rowNum) -> {
-                    FriendConnection friendConnection = new FriendConnection();
-                    friendConnection.setFriendId(rs.getInt("friend_id"));
-                    friendConnection.setStatus(rs.getString("name"));
-
-                    return friendConnection;
-                },
-                id
-        );
+        return findFriends(List.of(id)).getOrDefault(id, new ArrayList<>());
     }
 
+    // Связи всех пользователей набора читаются одним запросом и раскладываются по пользователям в памяти
+    private Map<Integer, List<FriendConnection>> findFriends(Collection<Integer> userIds) {
+        Map<Integer, List<FriendConnection>> friends = new HashMap<>();
 
-    @Override
-    public List<User> getUsersByIds(List<Integer> ids) {
-        return jdbcTemplate.query(
-                String.format("select * from users where user_id in (%s)", repeat(ids.size(), ",")),
-                (rs, rowNum) -> {
-                    User user = mapUserData(rs);
-                    user.setFriends(findFriends(user.getId()));
-                    return user;
+        if (userIds.isEmpty()) {
+            return friends;
+        }
+
+        jdbcTemplate.query(
+                String.format("select user_id, friend_id, status_id from user_friends where user_id in (%s)",
+                        QueryUtils.repeat(userIds.size(), ",")),
+                rs -> {
+                    friends.computeIfAbsent(rs.getInt("user_id"), userId -> new ArrayList<>())
+                            .add(mapFriendConnection(rs));
                 },
-                ids.toArray()
+                userIds.toArray()
         );
-    }
-
 
-    @Override
-    public List<User> getAll() {
-        return jdbcTemplate.query("select * from users",
-                (rs, rowNum) -> {
-                    User user = mapUserData(rs);
-                    user.setFriends(findFriends(user.getId()));
-                    return user;
-                }
-        );
+        return friends;
     }
 
-    @Override
-    public void addFriend(int userId, int friendId) {
-        String sqlQuery = "insert into user_friends (user_id, friend_id) " +
-                "values (?, ?)";
+    private Map<Integer, List<FriendConnection>> findAllFriends() {
+        Map<Integer, List<FriendConnection>> friends = new HashMap<>();
 
-        jdbcTemplate.update(
-                sqlQuery,
-                userId,
-                friendId
-        );
+        jdbcTemplate.query("select user_id, friend_id, status_id from user_friends", rs -> {
+            friends.computeIfAbsent(rs.getInt("user_id"), userId -> new ArrayList<>())
+                    .add(mapFriendConnection(rs));
+        });
+
+        return friends;
     }
 
-    @Override
-    public void acceptFriendship(int userId, int friendId) {
-        User friend = get(friendId);
-        boolean notFriend = true;
+    private FriendConnection mapFriendConnection(ResultSet rs) throws SQLException {
+        FriendConnection friendConnection = new FriendConnection();
+        friendConnection.setFriendId(rs.getInt("friend_id"));
+        friendConnection.setStatus(referenceDataCache.getStatusName(rs.getInt("status_id")));
 
-        for (FriendConnection friendConnection : friend.getFriends()) {
-            if (friendConnection.getFriendId() == userId) {
-                notFriend = false;
-                break;
-            }
-        }
+        return friendConnection;
+    }
 
-        if (notFriend) {
-            throw new UnknownDataException("Данной связи не существует");
-        }
+    private List<User> withFriends(List<User> users, Map<Integer, List<FriendConnection>> friends) {
+        users.forEach(user -> user.setFriends(friends.getOrDefault(user.getId(), new ArrayList<>())));
 
-        jdbcTemplate.update(
-                "UPDATE USER_FRIENDS SET STATUS_ID = 0 WHERE USER_ID = ? AND FRIEND_ID = ?",
-                friendId,
-                userId
-        );
+        return users;
+    }
 
-        jdbcTemplate.update(
-                "insert into user_friends (user_id, friend_id, STATUS_ID) " +
-                        "values (?, ?, 0)",
-                userId,
-                friendId
-        );
+    private List<User> withFriends(List<User> users) {
+        return withFriends(users, findFriends(users.stream().map(User::getId).collect(Collectors.toList())));
     }
 
     @Override
-    public void removeFriend(int userId, int friendId) {
-        String sqlQuery = "delete from user_friends where user_id = ? AND friend_id = ?";
+    public List<User> getUsersByIds(List<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        jdbcTemplate.update(sqlQuery, userId, friendId);
-        jdbcTemplate.update(sqlQuery, friendId, userId);
+        return withFriends(jdbcTemplate.query(
+                String.format("select * from users where user_id in (%s)", QueryUtils.repeat(ids.size(), ",")),
+                (rs, rowNum) -> mapUserData(rs),
+                ids.toArray()
+        ));
     }
 
     @Override
-    public List<User> foundCommonFriends(int userId1, int userId2) {
-        String sqlQuery = "SELECT * " +
-                "FROM users " +
-                "WHERE user_id IN (SELECT friend_id " +
-                "                  FROM user_friends " +
-                "      WHERE user_id=? " +
-                "      AND friend_id IN " +
-                "          (SELECT friend_id " +
-                "                       FROM user_friends " +
-                "                       WHERE user_id=?));";
-        return jdbcTemplate.query(sqlQuery,
-                (rs, rowNum) -> {
-                    User user = mapUserData(rs);
-                    user.setFriends(findFriends(user.getId()));
-                    return user;
-                },
-                userId1,
-                userId2
-        );
+    public List<User> getAll() {
+        return withFriends(jdbcTemplate.query("select * from users", (rs, rowNum) -> mapUserData(rs)),
+                findAllFriends());
     }
 
     @Override
-    public List<User> foundUserFriends(int userId) {
-        String sqlQuery = "SELECT * " +
-                "FROM users " +
-                "WHERE user_id IN (SELECT friend_id " +
-                "                  FROM user_friends " +
-                "                   WHERE user_id=?)";
-        return jdbcTemplate.query(sqlQuery,
-                (rs, rowNum) -> {
-                    User user = mapUserData(rs);
-                    user.setFriends(findFriends(user.getId()));
-                    return user;
-                },
-                userId);
+    public List<User> getPage(int afterId, int limit) {
+        return withFriends(jdbcTemplate.query("select * from users where user_id > ? order by user_id limit ?",
+                (rs, rowNum) -> mapUserData(rs),
+                afterId,
+                limit
+        ));
     }
 
     @Override
-    public String getStatusName(int statusId) {
-        String sqlQuery = "SELECT name FROM status WHERE STATUS_ID = ?";
-        return jdbcTemplate.queryForObject(sqlQuery, String.class, statusId);
+    public void streamAll(Consumer<List<User>> chunkConsumer) {
+        QueryUtils.queryInPages(this::getPage, User::getId, chunkConsumer);
     }
 
     @Override
-    public List<Film> getRecommendations(Integer userId) {
-        checkUser(userId);
-
-        Map<Integer, HashMap<Integer, Double>> data = new HashMap<>();
-        String sqlQuery = "SELECT user_id, film_id, mark FROM film_likes;";
-
-        Map<Integer, HashMap<Integer, Double>> rows = jdbcTemplate.query(sqlQuery, this::mapUserMark);
-
-        if (rows != null && rows.size() != 0) {
-            for (Map.Entry<Integer, HashMap<Integer, Double>> rowsEntry : rows.entrySet()) {
-                HashMap<Integer, Double> hashMap = rowsEntry.getValue();
-
-                for (Map.Entry<Integer, Double> filmMark : hashMap.entrySet()) {
-                    int user = rowsEntry.getKey();
-
-                    if (!data.containsKey(user)) {
-                        data.put(user, new HashMap<>());
-                    }
-
-                    data.get(user).put(filmMark.getKey(), filmMark.getValue());
-                }
-            }
-        } else {
-            return new ArrayList<>();
-        }
-
-        Map<Integer, HashMap<Integer, Double>> diff = new HashMap<>();
-        Map<Integer, HashMap<Integer, Integer>> freq = new HashMap<>();
-
-        for (HashMap<Integer, Double> user : data.values()) {
-            for (Map.Entry<Integer, Double> e : user.entrySet()) {
-                if (!diff.containsKey(e.getKey())) {
-                    diff.put(e.getKey(), new HashMap<>());
-                    freq.put(e.getKey(), new HashMap<>());
-                }
-
-                for (Map.Entry<Integer, Double> e2 : user.entrySet()) {
-                    int oldCount = 0;
-                    if (freq.get(e.getKey()).containsKey(e2.getKey())) {
-                        oldCount = freq.get(e.getKey()).get(e2.getKey());
-                    }
-
-                    double oldDiff = 0.0;
-                    if (diff.get(e.getKey()).containsKey(e2.getKey())) {
-                        oldDiff = diff.get(e.getKey()).get(e2.getKey());
-                    }
-
-                    double observedDiff = e.getValue() - e2.getValue();
-                    freq.get(e.getKey()).put(e2.getKey(), oldCount + 1);
-                    diff.get(e.getKey()).put(e2.getKey(), oldDiff + observedDiff);
-                }
-            }
-        }
-
-        for (Integer j : diff.keySet()) {
-            for (Integer i : diff.get(j).keySet()) {
-                double oldValue = diff.get(j).get(i);
-                int count = freq.get(j).get(i);
-                diff.get(j).put(i, oldValue / count);
-            }
-        }
-
-        HashMap<Integer, Double> uPred = new HashMap<>();
-        HashMap<Integer, Integer> uFreq = new HashMap<>();
+    public void addFriend(int userId, int friendId) {
+        String sqlQuery = "insert into user_friends (user_id, friend_id) " +
+                "values (?, ?)";
 
-        for (Integer j : diff.keySet()) {
-            uFreq.put(j, 0);
-            uPred.put(j, 0.0);
+        synchronized (friendshipLock) {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.update(
+                    sqlQuery,
+                    userId,
+                    friendId
+            ));
+            friendshipGraph.put(userId, friendId, NOT_ACCEPTED_STATUS_ID);
         }
+    }
 
-        Map<Integer, HashMap<Integer, Double>> outputData = new HashMap<>();
-
-        for (Map.Entry<Integer, HashMap<Integer, Double>> user : data.entrySet()) {
-            for (Integer j : user.getValue().keySet()) {
-                for (Integer k : diff.keySet()) {
-                    try {
-                        double predictedValue = diff.get(k).get(j) + user.getValue().get(j);
-                        double finalValue = predictedValue * freq.get(k).get(j);
-                        uPred.put(k, uPred.get(k) + finalValue);
-                        uFreq.put(k, uFreq.get(k) + freq.get(k).get(j));
-                    } catch (NullPointerException ignored) {
-                    }
-                }
-            }
-
-            HashMap<Integer, Double> clean = new HashMap<>();
-
-            for (Integer j : uPred.keySet()) {
-                if (uFreq.get(j) > 0) {
-                    clean.put(j, uPred.get(j) / uFreq.get(j));
-                }
-            }
-
-            List<Integer> items = filmDbStorage.getAll().stream()
-                    .map(Film::getId)
-                    .collect(Collectors.toList());
-
-            for (Integer j : items) {
-                if (user.getValue().containsKey(j)) {
-                    clean.put(j, user.getValue().get(j));
-                } else if (!clean.containsKey(j)) {
-                    clean.put(j, -1.0);
-                }
+    @Override
+    public void acceptFriendship(int userId, int friendId) {
+        synchronized (friendshipLock) {
+            if (!friendshipGraph.hasFriend(friendId, userId)) {
+                throw new UnknownDataException("Данной связи не существует");
             }
 
-            outputData.put(user.getKey(), clean);
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update(
+                        "UPDATE USER_FRIENDS SET STATUS_ID = 0 WHERE USER_ID = ? AND FRIEND_ID = ?",
+                        friendId,
+                        userId
+                );
+
+                jdbcTemplate.update(
+                        "insert into user_friends (user_id, friend_id, STATUS_ID) " +
+                                "values (?, ?, 0)",
+                        userId,
+                        friendId
+                );
+            });
+            friendshipGraph.put(friendId, userId, ACCEPTED_STATUS_ID);
+            friendshipGraph.put(userId, friendId, ACCEPTED_STATUS_ID);
         }
+    }
 
-        List<Integer> recommendedFilmsIds = new ArrayList<>();
+    @Override
+    public void removeFriend(int userId, int friendId) {
+        String sqlQuery = "delete from user_friends where user_id = ? AND friend_id = ?";
 
-        for (Map.Entry<Integer, Double> entry : outputData.get(userId).entrySet()) {
-            if (entry.getValue() > 5.0 && !getLikedFilmsIds(userId).contains(entry.getKey())) {
-                recommendedFilmsIds.add(entry.getKey());
-            }
+        synchronized (friendshipLock) {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update(sqlQuery, userId, friendId);
+                jdbcTemplate.update(sqlQuery, friendId, userId);
+            });
+            friendshipGraph.remove(userId, friendId);
+            friendshipGraph.remove(friendId, userId);
         }
+    }
 
-        return recommendedFilmsIds.stream()
-                .map(filmDbStorage::get)
-                .collect(Collectors.toList());
+    @Override
+    public List<User> foundCommonFriends(int userId1, int userId2) {
+        return findUsersByIds(friendshipGraph.getCommonFriendIds(userId1, userId2));
     }
 
-    private List<Integer> getLikedFilmsIds(Integer userId) {
-        String sqlQuery = "SELECT film_id FROM film_likes WHERE user_id = ?;";
-        return jdbcTemplate.queryForList(sqlQuery, Integer.class, userId);
+    @Override
+    public List<User> foundUserFriends(int userId) {
+        return findUsersByIds(friendshipGraph.getFriendIds(userId));
     }
 
-    private static String repeat(int times, String delimiter) {
-        if (times == 1) {
-            return "?";
+    private List<User> findUsersByIds(int[] ids) {
+        if (ids.length == 0) {
+            return new ArrayList<>();
         }
 
-        String withDelimiter = "?" + delimiter;
+        return withFriends(jdbcTemplate.query(
+                String.format("select * from users where user_id in (%s) order by user_id",
+                        QueryUtils.repeat(ids.length, ",")),
+                (rs, rowNum) -> mapUserData(rs),
+                Arrays.stream(ids).boxed().toArray()
+        ));
+    }
 
-        return withDelimiter.repeat(times - 1) + "?";
+    @Override
+    public String getStatusName(int statusId) {
+        return referenceDataCache.getStatusName(statusId);
     }
 
     private User mapUserData(ResultSet rs) throws SQLException {
@@ -426,22 +386,6 @@ public class UserDbStorage implements UserStorage {
         return user;
     }
 
-    private Map<Integer, HashMap<Integer, Double>> mapUserMark(ResultSet rs) throws SQLException {
-        Map<Integer, HashMap<Integer, Double>> rows = new HashMap<>();
-
-        while (rs.next()) {
-            int userId = rs.getInt("user_id");
-
-            if (!rows.containsKey(userId)) {
-                rows.put(userId, new HashMap<>());
-            }
-
-            rows.get(userId).put(rs.getInt("film_id"), (double) rs.getInt("mark"));
-        }
-
-        return rows;
-    }
-
     @Override
     public void checkUser(int id) {
         final String sqlCheckQuery = "SELECT * FROM users WHERE USER_ID = ?";
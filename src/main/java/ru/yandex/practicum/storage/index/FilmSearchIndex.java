@@ -0,0 +1,230 @@
+package ru.yandex.practicum.storage.index;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.film.Director;
+import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.storage.DirectorStorage;
+import ru.yandex.practicum.storage.FilmSearchStorage;
+import ru.yandex.practicum.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "filmorate.search.mode", havingValue = "index", matchIfMissing = true)
+public class FilmSearchIndex implements FilmSearchStorage {
+    private static final int GRAM_SIZE = 3;
+
+    private final FilmStorage filmStorage;
+    private final DirectorStorage directorStorage;
+    private final PopularFilmsIndex popularFilmsIndex;
+
+    private final Map<Integer, String> titles = new ConcurrentHashMap<>();
+    private final Map<Integer, String> directorNames = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> titleGrams = new ConcurrentHashMap<>();
+    private final Map<String, Set<Integer>> directorGrams = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> filmsByDirector = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> directorsByFilm = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        titles.clear();
+        directorNames.clear();
+        titleGrams.clear();
+        directorGrams.clear();
+        filmsByDirector.clear();
+        directorsByFilm.clear();
+
+        directorStorage.getAllDirector().forEach(this::putDirector);
+        filmStorage.streamAll(films -> films.forEach(this::putFilm));
+
+        log.info("Поисковый индекс фильмов построен, фильмов в индексе: {}, режиссеров: {}",
+                titles.size(), directorNames.size());
+    }
+
+    @Override
+    public List<Integer> search(String query, boolean byTitle, boolean byDirector, Integer count) {
+        return popularFilmsIndex.getTop(findFilmIds(query, byTitle, byDirector), count);
+    }
+
+    @Override
+    public synchronized void putFilm(Film film) {
+        int filmId = film.getId();
+
+        putText(filmId, film.getName(), titles, titleGrams);
+        unlinkDirectors(filmId);
+
+        if (film.getDirectors() == null) {
+            return;
+        }
+
+        Set<Integer> directorIds = ConcurrentHashMap.newKeySet();
+
+        for (Director director : film.getDirectors()) {
+            directorIds.add(director.getId());
+            filmsByDirector.computeIfAbsent(director.getId(), id -> ConcurrentHashMap.newKeySet()).add(filmId);
+        }
+
+        directorsByFilm.put(filmId, directorIds);
+    }
+
+    @Override
+    public synchronized void removeFilm(int filmId) {
+        removeText(filmId, titles, titleGrams);
+        unlinkDirectors(filmId);
+    }
+
+    @Override
+    public synchronized void putDirector(Director director) {
+        putText(director.getId(), director.getName(), directorNames, directorGrams);
+    }
+
+    @Override
+    public synchronized void removeDirector(int directorId) {
+        removeText(directorId, directorNames, directorGrams);
+
+        Set<Integer> filmIds = filmsByDirector.remove(directorId);
+
+        if (filmIds != null) {
+            for (Integer filmId : filmIds) {
+                Set<Integer> directorIds = directorsByFilm.get(filmId);
+
+                if (directorIds != null) {
+                    directorIds.remove(directorId);
+                }
+            }
+        }
+    }
+
+    private Set<Integer> findFilmIds(String query, boolean byTitle, boolean byDirector) {
+        String normalized = query.toLowerCase();
+        Set<Integer> filmIds = new HashSet<>();
+
+        if (byTitle) {
+            filmIds.addAll(find(normalized, titleGrams, titles));
+        }
+
+        if (byDirector) {
+            for (Integer directorId : find(normalized, directorGrams, directorNames)) {
+                filmIds.addAll(filmsByDirector.getOrDefault(directorId, Set.of()));
+            }
+        }
+
+        return filmIds;
+    }
+
+    private static List<Integer> find(String query, Map<String, Set<Integer>> grams, Map<Integer, String> texts) {
+        Collection<Integer> candidates;
+
+        if (query.length() < GRAM_SIZE) {
+            candidates = texts.keySet();
+        } else {
+            List<Set<Integer>> postings = new ArrayList<>();
+
+            for (String gram : grams(query)) {
+                Set<Integer> posting = grams.get(gram);
+
+                if (posting == null) {
+                    return List.of();
+                }
+
+                postings.add(posting);
+            }
+
+            postings.sort(Comparator.comparingInt(Set::size));
+
+            Set<Integer> intersection = new HashSet<>(postings.get(0));
+
+            for (int i = 1; i < postings.size() && !intersection.isEmpty(); i++) {
+                intersection.retainAll(postings.get(i));
+            }
+
+            candidates = intersection;
+        }
+
+        List<Integer> found = new ArrayList<>();
+
+        for (Integer id : candidates) {
+            String text = texts.get(id);
+
+            if (text != null && text.contains(query)) {
+                found.add(id);
+            }
+        }
+
+        return found;
+    }
+
+    private void unlinkDirectors(int filmId) {
+        Set<Integer> directorIds = directorsByFilm.remove(filmId);
+
+        if (directorIds == null) {
+            return;
+        }
+
+        for (Integer directorId : directorIds) {
+            Set<Integer> filmIds = filmsByDirector.get(directorId);
+
+            if (filmIds != null) {
+                filmIds.remove(filmId);
+            }
+        }
+    }
+
+    private static void putText(int id, String text, Map<Integer, String> texts, Map<String, Set<Integer>> grams) {
+        removeText(id, texts, grams);
+
+        if (text == null) {
+            return;
+        }
+
+        String normalized = text.toLowerCase();
+        texts.put(id, normalized);
+
+        for (String gram : grams(normalized)) {
+            grams.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    private static void removeText(int id, Map<Integer, String> texts, Map<String, Set<Integer>> grams) {
+        String old = texts.remove(id);
+
+        if (old == null) {
+            return;
+        }
+
+        for (String gram : grams(old)) {
+            Set<Integer> posting = grams.get(gram);
+
+            if (posting != null) {
+                posting.remove(id);
+
+                if (posting.isEmpty()) {
+                    grams.remove(gram);
+                }
+            }
+        }
+    }
+
+    private static Set<String> grams(String text) {
+        Set<String> grams = new HashSet<>();
+
+        for (int i = 0; i + GRAM_SIZE <= text.length(); i++) {
+            grams.add(text.substring(i, i + GRAM_SIZE));
+        }
+
+        return grams;
+    }
+}
@@ -0,0 +1,116 @@
+package ru.yandex.practicum.storage.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.CacheStats;
+import ru.yandex.practicum.model.SuggestionBenchmark;
+import ru.yandex.practicum.storage.cache.LruCache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+// Рекомендации друзей по числу общих друзей, посчитанные по графу в памяти. Результат кэшируется на пользователя
+// и сбрасывается при изменении его связей и связей его друзей
+@Slf4j
+@Component
+public class FriendSuggestionIndex {
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final FriendshipGraph friendshipGraph;
+    private final int candidateCap;
+    private final LruCache<Integer, Entry> cache;
+
+    public FriendSuggestionIndex(FriendshipGraph friendshipGraph,
+                                 @Value("${filmorate.suggestions.candidate-cap:10000}") int candidateCap,
+                                 @Value("${filmorate.cache.suggestions.max-size:10000}") int maxSize) {
+        this.friendshipGraph = friendshipGraph;
+        this.candidateCap = candidateCap;
+        this.cache = new LruCache<>(maxSize);
+    }
+
+    public int[] suggest(int userId, int count) {
+        Entry entry = cache.get(userId);
+
+        if (entry != null && entry.covers(count)) {
+            return Arrays.copyOf(entry.userIds, Math.min(count, entry.userIds.length));
+        }
+
+        int[] userIds = friendshipGraph.suggest(userId, count, candidateCap);
+        cache.put(userId, new Entry(userIds, count));
+
+        return userIds;
+    }
+
+    // Изменение связей пользователя меняет кандидатов у него самого и у всех, кто видит его друзей через него
+    public void invalidate(Collection<Integer> userIds) {
+        for (int userId : userIds) {
+            cache.invalidate(userId);
+
+            for (int friendId : friendshipGraph.getFriendIds(userId)) {
+                cache.invalidate(friendId);
+            }
+        }
+    }
+
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    public SuggestionBenchmark benchmark(int users, int edgesPerUser, int samples, int count, long seed) {
+        long start = System.nanoTime();
+        FriendshipGraph graph = SyntheticSocialGraph.generate(users, edgesPerUser, seed);
+        long buildNanos = System.nanoTime() - start;
+
+        Random random = new Random(seed);
+        long[] latencies = new long[samples];
+
+        for (int i = 0; i < samples; i++) {
+            int userId = 1 + random.nextInt(users);
+            long requestStart = System.nanoTime();
+            graph.suggest(userId, count, candidateCap);
+            latencies[i] = System.nanoTime() - requestStart;
+        }
+
+        Arrays.sort(latencies);
+        SuggestionBenchmark benchmark = new SuggestionBenchmark(
+                users,
+                graph.getEdgeCount(),
+                graph.getMaxDegree(),
+                samples,
+                buildNanos / NANOS_PER_MILLI,
+                percentile(latencies, 0.5) / NANOS_PER_MILLI,
+                percentile(latencies, 0.9) / NANOS_PER_MILLI,
+                percentile(latencies, 0.99) / NANOS_PER_MILLI,
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1] / NANOS_PER_MILLI
+        );
+
+        log.info("Замер рекомендаций друзей на синтетическом графе: {}", benchmark);
+
+        return benchmark;
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+
+    // Список, посчитанный для count, полон, если в нем меньше count пользователей
+    private static final class Entry {
+        private final int[] userIds;
+        private final int count;
+
+        private Entry(int[] userIds, int count) {
+            this.userIds = userIds;
+            this.count = count;
+        }
+
+        private boolean covers(int requested) {
+            return requested <= count || userIds.length < count;
+        }
+    }
+}
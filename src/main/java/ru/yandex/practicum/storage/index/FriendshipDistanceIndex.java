@@ -0,0 +1,198 @@
+package ru.yandex.practicum.storage.index;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.user.UserDistance;
+
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Расстояние между пользователями по подтвержденным связям дружбы - двунаправленный поиск в ширину по снимку
+// графа в формате CSR (смещения и соседи по id пользователя). Соседи пользователей, чьи связи изменились после
+// снимка, читаются из FriendshipGraph, а когда таких пользователей набирается больше порога, снимок пересобирается в фоне
+@Slf4j
+@Component
+public class FriendshipDistanceIndex {
+    private static final int NODES_PER_DEADLINE_CHECK = 1024;
+    private static final int[] EMPTY = new int[0];
+
+    private final FriendshipGraph friendshipGraph;
+    private final int maxDepth;
+    private final long timeoutNanos;
+    private final int rebuildThreshold;
+
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "friendship-distance-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final AtomicLong changeSequence = new AtomicLong();
+    // id пользователя -> номер последнего изменения его связей
+    private final Map<Integer, Long> changedUsers = new ConcurrentHashMap<>();
+    private volatile Snapshot snapshot;
+
+    public FriendshipDistanceIndex(FriendshipGraph friendshipGraph,
+                                   @Value("${filmorate.distance.max-depth:6}") int maxDepth,
+                                   @Value("${filmorate.distance.timeout-ms:200}") long timeoutMillis,
+                                   @Value("${filmorate.distance.rebuild-threshold:1000}") int rebuildThreshold) {
+        this.friendshipGraph = friendshipGraph;
+        this.maxDepth = maxDepth;
+        this.timeoutNanos = timeoutMillis * 1_000_000;
+        this.rebuildThreshold = rebuildThreshold;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+
+    // Снимок строится по графу, номер изменения запоминается до чтения: все изменения с меньшим номером
+    // уже видны в графе, и их можно перестать читать из него после публикации снимка
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        long sequence = changeSequence.get();
+        int maxUserId = friendshipGraph.getMaxUserId();
+        int[][] rows = new int[maxUserId + 1][];
+        int edges = 0;
+
+        for (int userId = 1; userId <= maxUserId; userId++) {
+            rows[userId] = friendshipGraph.getAcceptedFriendIds(userId);
+            edges += rows[userId].length;
+        }
+
+        int[] offsets = new int[maxUserId + 2];
+        int[] neighbours = new int[edges];
+
+        for (int userId = 1; userId <= maxUserId; userId++) {
+            offsets[userId + 1] = offsets[userId] + rows[userId].length;
+            System.arraycopy(rows[userId], 0, neighbours, offsets[userId], rows[userId].length);
+        }
+
+        snapshot = new Snapshot(maxUserId, offsets, neighbours);
+        changedUsers.values().removeIf(changedAt -> changedAt <= sequence);
+
+        log.info("Снимок графа дружбы построен за {} мс, пользователей: {}, связей: {}",
+                System.currentTimeMillis() - start, maxUserId, edges);
+    }
+
+    public void friendshipChanged(Collection<Integer> userIds) {
+        long sequence = changeSequence.incrementAndGet();
+
+        for (int userId : userIds) {
+            changedUsers.put(userId, sequence);
+        }
+
+        if (snapshot != null && changedUsers.size() > rebuildThreshold && rebuildScheduled.compareAndSet(false, true)) {
+            builder.submit(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    log.error("Не удалось пересобрать снимок графа дружбы", e);
+                } finally {
+                    rebuildScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    // Расширяется меньший из двух фронтов; первая встреча фронтов при полном обходе уровня дает кратчайший путь.
+    // truncated - поиск остановлен по глубине или времени, и связь на большем расстоянии не исключена
+    public UserDistance find(int userId, int otherId) {
+        if (userId == otherId) {
+            return new UserDistance(userId, otherId, 0, false);
+        }
+
+        if (snapshot == null) {
+            rebuild();
+        }
+
+        Snapshot current = snapshot;
+        long deadline = System.nanoTime() + timeoutNanos;
+        BitSet seenForward = new BitSet(current.maxUserId + 1);
+        BitSet seenBackward = new BitSet(current.maxUserId + 1);
+        int[] forward = {userId};
+        int[] backward = {otherId};
+        int depth = 0;
+        int expanded = 0;
+
+        seenForward.set(userId);
+        seenBackward.set(otherId);
+
+        while (forward.length > 0 && backward.length > 0 && depth < maxDepth) {
+            boolean expandForward = forward.length <= backward.length;
+            int[] frontier = expandForward ? forward : backward;
+            BitSet seen = expandForward ? seenForward : seenBackward;
+            BitSet seenOther = expandForward ? seenBackward : seenForward;
+            int[] next = new int[Math.max(frontier.length, 16)];
+            int size = 0;
+
+            for (int user : frontier) {
+                if (++expanded % NODES_PER_DEADLINE_CHECK == 0 && System.nanoTime() > deadline) {
+                    return new UserDistance(userId, otherId, null, true);
+                }
+
+                int[] live = changedUsers.containsKey(user) ? friendshipGraph.getAcceptedFriendIds(user) : null;
+                int from = live != null ? 0 : current.start(user);
+                int to = live != null ? live.length : current.end(user);
+
+                for (int i = from; i < to; i++) {
+                    int neighbour = live != null ? live[i] : current.neighbours[i];
+
+                    if (seenOther.get(neighbour)) {
+                        return new UserDistance(userId, otherId, depth + 1, false);
+                    }
+
+                    if (!seen.get(neighbour)) {
+                        seen.set(neighbour);
+
+                        if (size == next.length) {
+                            next = Arrays.copyOf(next, size * 2);
+                        }
+
+                        next[size++] = neighbour;
+                    }
+                }
+            }
+
+            if (expandForward) {
+                forward = Arrays.copyOf(next, size);
+            } else {
+                backward = Arrays.copyOf(next, size);
+            }
+
+            depth++;
+        }
+
+        return new UserDistance(userId, otherId, null, forward.length > 0 && backward.length > 0);
+    }
+
+    private static final class Snapshot {
+        private final int maxUserId;
+        private final int[] offsets;
+        private final int[] neighbours;
+
+        private Snapshot(int maxUserId, int[] offsets, int[] neighbours) {
+            this.maxUserId = maxUserId;
+            this.offsets = offsets;
+            this.neighbours = neighbours;
+        }
+
+        private int start(int userId) {
+            return userId <= maxUserId ? offsets[userId] : 0;
+        }
+
+        private int end(int userId) {
+            return userId <= maxUserId ? offsets[userId + 1] : 0;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package ru.yandex.practicum.storage.index;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Связи дружбы в памяти: для каждого пользователя отсортированный массив записей (id друга << 1 | бит статуса).
+// Массивы не изменяются после публикации, каждое изменение заменяет массив пользователя целиком,
+// поэтому чтение идет без блокировок
+@Component
+public class FriendshipGraph {
+    private static final int[] EMPTY = new int[0];
+    private static final int ACCEPTED_STATUS_ID = 0;
+    private static final int NOT_ACCEPTED_BIT = 1;
+    // {id кандидата, число общих друзей}: меньше общих друзей, а при равенстве больший id - хуже
+    private static final Comparator<int[]> WORST_SUGGESTION_FIRST = Comparator
+            .<int[]>comparingInt(suggestion -> suggestion[1])
+            .thenComparing(Comparator.<int[]>comparingInt(suggestion -> suggestion[0]).reversed());
+
+    private final Map<Integer, int[]> adjacency = new ConcurrentHashMap<>();
+
+    public void clear() {
+        adjacency.clear();
+    }
+
+    // friendIds и statusIds - связи одного пользователя в любом порядке, повторы схлопываются
+    public void load(int userId, int[] friendIds, int[] statusIds) {
+        int[] entries = new int[friendIds.length];
+
+        for (int i = 0; i < friendIds.length; i++) {
+            entries[i] = encode(friendIds[i], statusIds[i]);
+        }
+
+        Arrays.sort(entries);
+        int size = 0;
+
+        // после сортировки из повторов первой идет запись с подтвержденным статусом, она и остается
+        for (int entry : entries) {
+            if (size > 0 && friendIdOf(entries[size - 1]) == friendIdOf(entry)) {
+                continue;
+            }
+
+            entries[size++] = entry;
+        }
+
+        adjacency.put(userId, Arrays.copyOf(entries, size));
+    }
+
+    public void put(int userId, int friendId, int statusId) {
+        int entry = encode(friendId, statusId);
+
+        adjacency.compute(userId, (id, entries) -> {
+            if (entries == null) {
+                return new int[]{entry};
+            }
+
+            int index = indexOf(entries, friendId);
+
+            if (index >= 0) {
+                int[] updated = entries.clone();
+                updated[index] = entry;
+                return updated;
+            }
+
+            int insertion = -index - 1;
+            int[] updated = new int[entries.length + 1];
+            System.arraycopy(entries, 0, updated, 0, insertion);
+            updated[insertion] = entry;
+            System.arraycopy(entries, insertion, updated, insertion + 1, entries.length - insertion);
+            return updated;
+        });
+    }
+
+    public void remove(int userId, int friendId) {
+        adjacency.computeIfPresent(userId, (id, entries) -> without(entries, friendId));
+    }
+
+    // Входящие связи не индексируются, поэтому удаление пользователя проходит по всем массивам
+    public void removeUser(int userId) {
+        adjacency.remove(userId);
+        adjacency.replaceAll((id, entries) -> indexOf(entries, userId) >= 0 ? without(entries, userId) : entries);
+    }
+
+    public boolean hasFriend(int userId, int friendId) {
+        return indexOf(adjacency.getOrDefault(userId, EMPTY), friendId) >= 0;
+    }
+
+    public int[] getFriendIds(int userId) {
+        int[] entries = adjacency.getOrDefault(userId, EMPTY);
+        int[] friendIds = new int[entries.length];
+
+        for (int i = 0; i < entries.length; i++) {
+            friendIds[i] = friendIdOf(entries[i]);
+        }
+
+        return friendIds;
+    }
+
+    public int[] getAcceptedFriendIds(int userId) {
+        int[] entries = adjacency.getOrDefault(userId, EMPTY);
+        int[] friendIds = new int[entries.length];
+        int size = 0;
+
+        for (int entry : entries) {
+            if ((entry & NOT_ACCEPTED_BIT) == 0) {
+                friendIds[size++] = friendIdOf(entry);
+            }
+        }
+
+        return size == entries.length ? friendIds : Arrays.copyOf(friendIds, size);
+    }
+
+    public int getMaxUserId() {
+        return adjacency.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    // Пересечение двух отсортированных массивов слиянием за O(n + m)
+    public int[] getCommonFriendIds(int userId1, int userId2) {
+        int[] first = adjacency.getOrDefault(userId1, EMPTY);
+        int[] second = adjacency.getOrDefault(userId2, EMPTY);
+        int[] common = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < first.length && j < second.length) {
+            int firstId = friendIdOf(first[i]);
+            int secondId = friendIdOf(second[j]);
+
+            if (firstId < secondId) {
+                i++;
+            } else if (firstId > secondId) {
+                j++;
+            } else {
+                common[size++] = firstId;
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(common, size);
+    }
+
+    // Кандидаты - друзья друзей, которых нет среди друзей пользователя; ранг - число друзей пользователя,
+    // у которых кандидат в друзьях. После candidateCap разных кандидатов новые не добавляются, но для уже
+    // найденных счет продолжается, поэтому обход пользователя с тысячами друзей ограничен по памяти
+    public int[] suggest(int userId, int count, int candidateCap) {
+        int[] own = adjacency.getOrDefault(userId, EMPTY);
+        Map<Integer, int[]> mutualCounts = new HashMap<>();
+
+        for (int entry : own) {
+            for (int candidateEntry : adjacency.getOrDefault(friendIdOf(entry), EMPTY)) {
+                int candidateId = friendIdOf(candidateEntry);
+
+                if (candidateId == userId || indexOf(own, candidateId) >= 0) {
+                    continue;
+                }
+
+                int[] mutual = mutualCounts.get(candidateId);
+
+                if (mutual != null) {
+                    mutual[0]++;
+                } else if (mutualCounts.size() < candidateCap) {
+                    mutualCounts.put(candidateId, new int[]{1});
+                }
+            }
+        }
+
+        PriorityQueue<int[]> top = new PriorityQueue<>(Math.max(count, 1), WORST_SUGGESTION_FIRST);
+
+        mutualCounts.forEach((candidateId, mutual) -> {
+            int[] suggestion = {candidateId, mutual[0]};
+
+            if (top.size() < count) {
+                top.add(suggestion);
+            } else if (count > 0 && WORST_SUGGESTION_FIRST.compare(suggestion, top.peek()) > 0) {
+                top.poll();
+                top.add(suggestion);
+            }
+        });
+
+        int[] suggested = new int[top.size()];
+
+        for (int i = suggested.length - 1; i >= 0; i--) {
+            suggested[i] = top.poll()[0];
+        }
+
+        return suggested;
+    }
+
+    public int getEdgeCount() {
+        return adjacency.values().stream().mapToInt(entries -> entries.length).sum();
+    }
+
+    public int getMaxDegree() {
+        return adjacency.values().stream().mapToInt(entries -> entries.length).max().orElse(0);
+    }
+
+    private static int[] without(int[] entries, int friendId) {
+        int index = indexOf(entries, friendId);
+
+        if (index < 0) {
+            return entries;
+        }
+
+        int[] updated = new int[entries.length - 1];
+        System.arraycopy(entries, 0, updated, 0, index);
+        System.arraycopy(entries, index + 1, updated, index, updated.length - index);
+        return updated;
+    }
+
+    // Поиск по id друга без учета бита статуса: обе записи friendId << 1 и (friendId << 1) | 1 ищутся одинаково
+    private static int indexOf(int[] entries, int friendId) {
+        int index = Arrays.binarySearch(entries, friendId << 1);
+
+        if (index >= 0) {
+            return index;
+        }
+
+        int insertion = -index - 1;
+
+        if (insertion < entries.length && friendIdOf(entries[insertion]) == friendId) {
+            return insertion;
+        }
+
+        return index;
+    }
+
+    private static int encode(int friendId, int statusId) {
+        return friendId << 1 | (statusId == ACCEPTED_STATUS_ID ? 0 : NOT_ACCEPTED_BIT);
+    }
+
+    private static int friendIdOf(int entry) {
+        return entry >>> 1;
+    }
+}
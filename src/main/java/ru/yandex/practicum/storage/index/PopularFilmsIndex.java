@@ -0,0 +1,272 @@
+package ru.yandex.practicum.storage.index;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.model.film.FilmStats;
+import ru.yandex.practicum.model.film.Genre;
+import ru.yandex.practicum.storage.FilmStorage;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PopularFilmsIndex {
+    private final FilmStorage filmStorage;
+
+    // Пересборка наполняет новый набор рейтингов и подменяет им текущий, читатели не видят пустых рейтингов
+    private volatile Rankings rankings = new Rankings();
+
+    @PostConstruct
+    public synchronized void rebuild() {
+        Map<Integer, FilmStats> stats = filmStorage.getAllStats().stream()
+                .collect(Collectors.toMap(FilmStats::getFilmId, Function.identity()));
+        Rankings rebuilt = new Rankings();
+
+        for (Film film : filmStorage.getAll()) {
+            FilmStats filmStats = stats.getOrDefault(film.getId(), new FilmStats(film.getId()));
+            rebuilt.replace(null, new FilmRank(filmStats, genreIds(film), yearOf(film)));
+        }
+
+        rankings = rebuilt;
+
+        log.info("Индекс популярных фильмов построен, фильмов в индексе: {}", rebuilt.ranks.size());
+    }
+
+    public synchronized void putFilm(Film film) {
+        FilmRank old = rankings.ranks.get(film.getId());
+        FilmStats stats = old == null ? new FilmStats(film.getId()) : old.stats;
+
+        rankings.replace(old, new FilmRank(stats, genreIds(film), yearOf(film)));
+    }
+
+    // Статистика читается из БД вне блокировки, поэтому снимок, который старее уже примененного, пропускается
+    public synchronized void updateStats(FilmStats stats) {
+        FilmRank old = rankings.ranks.get(stats.getFilmId());
+
+        if (old == null) {
+            log.warn("Фильм с id = {} отсутствует в индексе популярных фильмов", stats.getFilmId());
+            return;
+        }
+
+        if (old.stats.getVersion() >= stats.getVersion()) {
+            return;
+        }
+
+        rankings.replace(old, new FilmRank(stats, old.genreIds, old.year));
+    }
+
+    public void updateStats(Collection<FilmStats> stats) {
+        stats.forEach(this::updateStats);
+    }
+
+    public synchronized void remove(int filmId) {
+        FilmRank old = rankings.ranks.remove(filmId);
+
+        if (old != null) {
+            rankings.removeFromSets(old);
+        }
+    }
+
+    public List<Integer> getTop(Integer count, Integer genreId, Integer year) {
+        Rankings current = rankings;
+        NavigableSet<FilmRank> ranking;
+
+        if (genreId != null && year != null) {
+            ranking = current.byGenreAndYear.get(key(genreId, year));
+        } else if (genreId != null) {
+            ranking = current.byGenre.get(genreId);
+        } else if (year != null) {
+            ranking = current.byYear.get(year);
+        } else {
+            ranking = current.global;
+        }
+
+        if (ranking == null) {
+            return new ArrayList<>();
+        }
+
+        Stream<FilmRank> top = ranking.stream();
+
+        if (count != null) {
+            top = top.limit(count);
+        }
+
+        return top.map(rank -> rank.stats.getFilmId()).collect(Collectors.toList());
+    }
+
+    public List<Integer> getTop(Collection<Integer> filmIds, Integer count) {
+        int limit = count == null ? filmIds.size() : Math.min(count, filmIds.size());
+
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        Map<Integer, FilmRank> ranks = rankings.ranks;
+        PriorityQueue<FilmRank> top = new PriorityQueue<>(limit, (rank1, rank2) -> compareRanks(rank2, rank1));
+
+        for (Integer filmId : filmIds) {
+            FilmRank rank = ranks.get(filmId);
+
+            if (rank == null) {
+                rank = new FilmRank(new FilmStats(filmId), Set.of(), null);
+            }
+
+            if (top.size() < limit) {
+                top.add(rank);
+            } else if (compareRanks(rank, top.peek()) < 0) {
+                top.poll();
+                top.add(rank);
+            }
+        }
+
+        return top.stream()
+                .sorted(PopularFilmsIndex::compareRanks)
+                .map(rank -> rank.stats.getFilmId())
+                .collect(Collectors.toList());
+    }
+
+    public List<Integer> findInconsistentFilms() {
+        Map<Integer, FilmStats> stats = filmStorage.getAllStats().stream()
+                .collect(Collectors.toMap(FilmStats::getFilmId, Function.identity()));
+        Map<Integer, FilmRank> ranks = rankings.ranks;
+        List<Integer> inconsistent = new ArrayList<>();
+
+        for (FilmRank rank : ranks.values()) {
+            if (!rank.stats.equals(stats.get(rank.stats.getFilmId()))) {
+                inconsistent.add(rank.stats.getFilmId());
+            }
+        }
+
+        for (Integer filmId : stats.keySet()) {
+            if (!ranks.containsKey(filmId)) {
+                inconsistent.add(filmId);
+            }
+        }
+
+        if (!inconsistent.isEmpty()) {
+            log.warn("Индекс популярных фильмов расходится с film_stats для фильмов {}", inconsistent);
+        }
+
+        return inconsistent;
+    }
+
+    private static NavigableSet<FilmRank> newRanking() {
+        return new ConcurrentSkipListSet<>(PopularFilmsIndex::compareRanks);
+    }
+
+    private static int compareRanks(FilmRank rank1, FilmRank rank2) {
+        if (rank1.rating != rank2.rating) {
+            return Integer.compare(rank2.rating, rank1.rating);
+        }
+
+        if (rank1.stats.getLikeCount() != rank2.stats.getLikeCount()) {
+            return Integer.compare(rank2.stats.getLikeCount(), rank1.stats.getLikeCount());
+        }
+
+        return Integer.compare(rank1.stats.getFilmId(), rank2.stats.getFilmId());
+    }
+
+    private static long key(int genreId, int year) {
+        return ((long) genreId << 32) | (year & 0xFFFFFFFFL);
+    }
+
+    private static Set<Integer> genreIds(Film film) {
+        if (film.getGenres() == null) {
+            return Set.of();
+        }
+
+        Set<Integer> genreIds = new HashSet<>();
+
+        for (Genre genre : film.getGenres()) {
+            genreIds.add(genre.getId());
+        }
+
+        return genreIds;
+    }
+
+    private static Integer yearOf(Film film) {
+        return film.getReleaseDate() == null ? null : film.getReleaseDate().getYear();
+    }
+
+    private static final class FilmRank {
+        private final FilmStats stats;
+        private final int rating;
+        private final Set<Integer> genreIds;
+        private final Integer year;
+
+        private FilmRank(FilmStats stats, Set<Integer> genreIds, Integer year) {
+            this.stats = stats;
+            this.rating = stats.getRating();
+            this.genreIds = genreIds;
+            this.year = year;
+        }
+    }
+
+    private static final class Rankings {
+        private final Map<Integer, FilmRank> ranks = new ConcurrentHashMap<>();
+        private final NavigableSet<FilmRank> global = newRanking();
+        private final Map<Integer, NavigableSet<FilmRank>> byGenre = new ConcurrentHashMap<>();
+        private final Map<Integer, NavigableSet<FilmRank>> byYear = new ConcurrentHashMap<>();
+        private final Map<Long, NavigableSet<FilmRank>> byGenreAndYear = new ConcurrentHashMap<>();
+
+        private void replace(FilmRank old, FilmRank rank) {
+            if (old != null) {
+                removeFromSets(old);
+            }
+
+            ranks.put(rank.stats.getFilmId(), rank);
+
+            global.add(rank);
+
+            for (Integer genreId : rank.genreIds) {
+                byGenre.computeIfAbsent(genreId, id -> newRanking()).add(rank);
+            }
+
+            if (rank.year != null) {
+                byYear.computeIfAbsent(rank.year, id -> newRanking()).add(rank);
+
+                for (Integer genreId : rank.genreIds) {
+                    byGenreAndYear.computeIfAbsent(key(genreId, rank.year), id -> newRanking()).add(rank);
+                }
+            }
+        }
+
+        private void removeFromSets(FilmRank rank) {
+            global.remove(rank);
+
+            for (Integer genreId : rank.genreIds) {
+                removeFrom(byGenre.get(genreId), rank);
+            }
+
+            if (rank.year != null) {
+                removeFrom(byYear.get(rank.year), rank);
+
+                for (Integer genreId : rank.genreIds) {
+                    removeFrom(byGenreAndYear.get(key(genreId, rank.year)), rank);
+                }
+            }
+        }
+
+        private static void removeFrom(NavigableSet<FilmRank> ranking, FilmRank rank) {
+            if (ranking != null) {
+                ranking.remove(rank);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.yandex.practicum.storage.index;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// Граф со степенным распределением степеней по модели предпочтительного присоединения (Барабаши-Альберт):
+// каждый новый пользователь дружит с edgesPerUser уже существующими, выбранными пропорционально числу их друзей
+final class SyntheticSocialGraph {
+    private SyntheticSocialGraph() {
+    }
+
+    static FriendshipGraph generate(int users, int edgesPerUser, long seed) {
+        Random random = new Random(seed);
+        // Размер считается в long: при переполнении генерация падает сразу, а не на отрицательной длине массива
+        int[] endpoints = new int[Math.toIntExact(2L * users * edgesPerUser)];
+        int endpointCount = 0;
+        int[][] friends = new int[users + 1][];
+        int[] degrees = new int[users + 1];
+
+        for (int userId = 1; userId <= users; userId++) {
+            friends[userId] = new int[Math.max(edgesPerUser, 4)];
+        }
+
+        for (int userId = 2; userId <= users; userId++) {
+            int links = Math.min(edgesPerUser, userId - 1);
+
+            for (int i = 0; i < links; i++) {
+                int friendId = endpointCount == 0 ? 1 : endpoints[random.nextInt(endpointCount)];
+
+                if (friendId == userId || contains(friends[userId], degrees[userId], friendId)) {
+                    continue;
+                }
+
+                link(friends, degrees, userId, friendId);
+                link(friends, degrees, friendId, userId);
+                endpoints[endpointCount++] = userId;
+                endpoints[endpointCount++] = friendId;
+            }
+        }
+
+        FriendshipGraph graph = new FriendshipGraph();
+
+        for (int userId = 1; userId <= users; userId++) {
+            graph.load(userId, Arrays.copyOf(friends[userId], degrees[userId]), new int[degrees[userId]]);
+        }
+
+        return graph;
+    }
+
+    private static void link(int[][] friends, int[] degrees, int userId, int friendId) {
+        if (degrees[userId] == friends[userId].length) {
+            friends[userId] = Arrays.copyOf(friends[userId], degrees[userId] * 2);
+        }
+
+        friends[userId][degrees[userId]++] = friendId;
+    }
+
+    private static boolean contains(int[] friends, int degree, int friendId) {
+        for (int i = 0; i < degree; i++) {
+            if (friends[i] == friendId) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,288 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import ru.yandex.practicum.model.film.RecommendedFilm;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+
+// Матричная факторизация оценок методом чередующихся наименьших квадратов (ALS-WR) с центрированием
+// по средней оценке. Векторы пользователей и фильмов хранятся подряд в float[], вектор пользователя при запросе
+// заново решается по его текущим оценкам, поэтому новые оценки учитываются без переобучения
+final class AlsModel {
+    private static final int ITEMS_PER_TASK = 64;
+    private static final long SEED = 42;
+    private static final float INITIAL_SCALE = 0.1f;
+
+    private final int factors;
+    private final double regularization;
+    private final double mean;
+    private final int[] userIds;
+    private final float[] userFactors;
+    private final int[] filmIds;
+    private final float[] filmFactors;
+    private final boolean[] removed;
+
+    private AlsModel(int factors, double regularization, double mean, int[] userIds, float[] userFactors,
+                     int[] filmIds, float[] filmFactors) {
+        this.factors = factors;
+        this.regularization = regularization;
+        this.mean = mean;
+        this.userIds = userIds;
+        this.userFactors = userFactors;
+        this.filmIds = filmIds;
+        this.filmFactors = filmFactors;
+        this.removed = new boolean[filmIds.length];
+    }
+
+    static AlsModel train(RatingMatrix ratings, int factors, int iterations, double regularization,
+                          int parallelism) {
+        int users = ratings.getUserCount();
+        int films = ratings.getFilmCount();
+        int[] rowColumns = new int[ratings.getRatingCount()];
+        int[] columnRows = new int[ratings.getRatingCount()];
+        long markSum = 0;
+
+        for (int position = 0; position < rowColumns.length; position++) {
+            rowColumns[position] = ratings.columnOf(ratings.filmIdAt(position));
+            columnRows[position] = ratings.rowOf(ratings.columnUserIdAt(position));
+            markSum += ratings.markAt(position);
+        }
+
+        double mean = rowColumns.length == 0 ? 0 : (double) markSum / rowColumns.length;
+        int[] userIds = new int[users];
+        int[] filmIds = new int[films];
+        float[] filmFactors = new float[films * factors];
+        float[] userFactors = new float[users * factors];
+        Random random = new Random(SEED);
+
+        for (int row = 0; row < users; row++) {
+            userIds[row] = ratings.userIdAt(row);
+        }
+
+        for (int column = 0; column < films; column++) {
+            filmIds[column] = ratings.filmIdOfColumn(column);
+        }
+
+        for (int i = 0; i < filmFactors.length; i++) {
+            filmFactors[i] = (float) random.nextGaussian() * INITIAL_SCALE;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                pool.invoke(new RangeTask(0, users, row -> fit(userFactors, row, filmFactors, rowColumns,
+                        ratings::markAt, ratings.rowStart(row), ratings.rowEnd(row), factors, regularization, mean)));
+                pool.invoke(new RangeTask(0, films, column -> fit(filmFactors, column, userFactors, columnRows,
+                        ratings::columnMarkAt, ratings.columnStart(column), ratings.columnEnd(column), factors,
+                        regularization, mean)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        return new AlsModel(factors, regularization, mean, userIds, userFactors, filmIds, filmFactors);
+    }
+
+    List<RecommendedFilm> recommend(Map<Integer, Integer> userMarks, Integer count) {
+        double[] gram = new double[factors * factors];
+        double[] right = new double[factors];
+        int rated = 0;
+
+        for (Map.Entry<Integer, Integer> entry : userMarks.entrySet()) {
+            int column = Arrays.binarySearch(filmIds, entry.getKey());
+
+            if (column >= 0 && !removed[column]) {
+                accumulate(gram, right, filmFactors, column * factors, entry.getValue() - mean, factors);
+                rated++;
+            }
+        }
+
+        if (rated == 0) {
+            return List.of();
+        }
+
+        double[] user = solve(gram, right, regularization * rated, factors);
+        TopFilms top = new TopFilms(count == null ? filmIds.length : Math.min(count, filmIds.length));
+
+        for (int column = 0; column < filmIds.length; column++) {
+            if (removed[column] || userMarks.containsKey(filmIds[column])) {
+                continue;
+            }
+
+            double score = mean;
+            int offset = column * factors;
+
+            for (int f = 0; f < factors; f++) {
+                score += user[f] * filmFactors[offset + f];
+            }
+
+            if (score > Recommender.RECOMMENDATION_THRESHOLD) {
+                top.offer(filmIds[column], score);
+            }
+        }
+
+        return top.toList();
+    }
+
+    int[] getFilmIds() {
+        return filmIds;
+    }
+
+    float[] getFilmVector(int filmId) {
+        int column = Arrays.binarySearch(filmIds, filmId);
+
+        if (column < 0 || removed[column]) {
+            return null;
+        }
+
+        return Arrays.copyOfRange(filmFactors, column * factors, (column + 1) * factors);
+    }
+
+    // Вектор фильма, которого не было при обучении, решается по оценкам его зрителей, как и вектор пользователя
+    float[] foldInFilm(Map<Integer, Integer> marksByUser) {
+        double[] gram = new double[factors * factors];
+        double[] right = new double[factors];
+        int rated = 0;
+
+        for (Map.Entry<Integer, Integer> entry : marksByUser.entrySet()) {
+            int row = Arrays.binarySearch(userIds, entry.getKey());
+
+            if (row >= 0) {
+                accumulate(gram, right, userFactors, row * factors, entry.getValue() - mean, factors);
+                rated++;
+            }
+        }
+
+        if (rated == 0) {
+            return null;
+        }
+
+        double[] solution = solve(gram, right, regularization * rated, factors);
+        float[] vector = new float[factors];
+
+        for (int f = 0; f < factors; f++) {
+            vector[f] = (float) solution[f];
+        }
+
+        return vector;
+    }
+
+    void removeFilm(int filmId) {
+        int column = Arrays.binarySearch(filmIds, filmId);
+
+        if (column >= 0) {
+            removed[column] = true;
+        }
+    }
+
+    // Решает задачу наименьших квадратов для одной строки (или столбца) при зафиксированных векторах другой стороны
+    private static void fit(float[] target, int index, float[] fixed, int[] fixedIndexes, IntUnaryOperator marks,
+                            int from, int to, int factors, double regularization, double mean) {
+        int offset = index * factors;
+
+        if (from == to) {
+            Arrays.fill(target, offset, offset + factors, 0);
+            return;
+        }
+
+        double[] gram = new double[factors * factors];
+        double[] right = new double[factors];
+
+        for (int position = from; position < to; position++) {
+            accumulate(gram, right, fixed, fixedIndexes[position] * factors, marks.applyAsInt(position) - mean,
+                    factors);
+        }
+
+        double[] solution = solve(gram, right, regularization * (to - from), factors);
+
+        for (int f = 0; f < factors; f++) {
+            target[offset + f] = (float) solution[f];
+        }
+    }
+
+    private static void accumulate(double[] gram, double[] right, float[] vectors, int offset, double mark,
+                                   int factors) {
+        for (int i = 0; i < factors; i++) {
+            double vi = vectors[offset + i];
+            right[i] += mark * vi;
+
+            for (int j = 0; j <= i; j++) {
+                gram[i * factors + j] += vi * vectors[offset + j];
+            }
+        }
+    }
+
+    // Разложение Холецкого по нижнему треугольнику матрицы Грама с добавленной регуляризацией на диагонали
+    private static double[] solve(double[] gram, double[] right, double lambda, int factors) {
+        for (int i = 0; i < factors; i++) {
+            gram[i * factors + i] += lambda;
+        }
+
+        for (int i = 0; i < factors; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = gram[i * factors + j];
+
+                for (int k = 0; k < j; k++) {
+                    sum -= gram[i * factors + k] * gram[j * factors + k];
+                }
+
+                gram[i * factors + j] = i == j ? Math.sqrt(sum) : sum / gram[j * factors + j];
+            }
+        }
+
+        double[] solution = right.clone();
+
+        for (int i = 0; i < factors; i++) {
+            for (int k = 0; k < i; k++) {
+                solution[i] -= gram[i * factors + k] * solution[k];
+            }
+
+            solution[i] /= gram[i * factors + i];
+        }
+
+        for (int i = factors - 1; i >= 0; i--) {
+            for (int k = i + 1; k < factors; k++) {
+                solution[i] -= gram[k * factors + i] * solution[k];
+            }
+
+            solution[i] /= gram[i * factors + i];
+        }
+
+        return solution;
+    }
+
+    private static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        private RangeTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= ITEMS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    action.accept(i);
+                }
+
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, action), new RangeTask(middle, to, action));
+        }
+    }
+}
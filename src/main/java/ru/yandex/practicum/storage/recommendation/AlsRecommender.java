@@ -0,0 +1,175 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.film.RecommendedFilm;
+import ru.yandex.practicum.storage.RecommendationStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.recommendations.engine", havingValue = "als")
+public class AlsRecommender implements Recommender {
+    private final RecommendationStorage recommendationStorage;
+    private final int buildParallelism;
+    private final int factors;
+    private final int iterations;
+    private final double regularization;
+    private final int retrainThreshold;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong modelVersion = new AtomicLong();
+    private volatile long modelChangedAt;
+    private AlsModel model;
+
+    private final ExecutorService trainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "als-trainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean retrainScheduled = new AtomicBoolean();
+    private final AtomicLong changedRatings = new AtomicLong();
+    private volatile int trainedRatings;
+
+    public AlsRecommender(RecommendationStorage recommendationStorage,
+                          @Value("${filmorate.recommendations.build-parallelism:0}") int buildParallelism,
+                          @Value("${filmorate.recommendations.als.factors:16}") int factors,
+                          @Value("${filmorate.recommendations.als.iterations:10}") int iterations,
+                          @Value("${filmorate.recommendations.als.regularization:0.1}") double regularization,
+                          @Value("${filmorate.recommendations.als.retrain-threshold:1000}") int retrainThreshold) {
+        this.recommendationStorage = recommendationStorage;
+        this.buildParallelism = buildParallelism > 0 ? buildParallelism : Runtime.getRuntime().availableProcessors();
+        this.factors = factors;
+        this.iterations = iterations;
+        this.regularization = regularization;
+        this.retrainThreshold = retrainThreshold;
+    }
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        trainer.shutdownNow();
+    }
+
+    // Счетчик изменений сбрасывается до чтения оценок: изменения, попавшие в выборку, посчитаются лишний раз
+    // и только приблизят следующее переобучение
+    @Override
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        changedRatings.set(0);
+        RatingMatrix ratings = recommendationStorage.loadRatingMatrix();
+        AlsModel trained = AlsModel.train(ratings, factors, iterations, regularization, buildParallelism);
+
+        lock.writeLock().lock();
+        try {
+            model = trained;
+            modelChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        trainedRatings = ratings.getRatingCount();
+
+        log.info("Модель ALS обучена за {} мс, пользователей: {}, фильмов: {}, факторов: {}, итераций: {}",
+                System.currentTimeMillis() - start, ratings.getUserCount(), ratings.getFilmCount(), factors,
+                iterations);
+    }
+
+    // Вектор пользователя решается по его оценкам при каждом запросе, поэтому собственные оценки
+    // учитываются сразу, а векторы фильмов обновляются только при переобучении
+    @Override
+    public void likeAdded(int userId, int filmId, int mark, Runnable write) {
+        write.run();
+        ratingsChanged(1);
+    }
+
+    @Override
+    public void likeRemoved(int userId, int filmId, Runnable write) {
+        write.run();
+        ratingsChanged(1);
+    }
+
+    @Override
+    public <T> T userRemoved(int userId, Supplier<T> delete) {
+        int marks = recommendationStorage.getUserMarks(userId).size();
+        T deleted = delete.get();
+        ratingsChanged(marks);
+
+        return deleted;
+    }
+
+    @Override
+    public <T> T filmRemoved(int filmId, Supplier<T> delete) {
+        T deleted = delete.get();
+
+        lock.writeLock().lock();
+        try {
+            model.removeFilm(filmId);
+            modelChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return deleted;
+    }
+
+    // Модель переобучается в фоне, когда изменений накопилось больше порога или больше, чем оценок в выборке
+    // прошлого обучения: пока оценок мало, например после запуска на пустой базе, модель догоняет их быстрее
+    private void ratingsChanged(int count) {
+        long changes = changedRatings.addAndGet(count);
+
+        if (changes > Math.min(retrainThreshold, trainedRatings) && retrainScheduled.compareAndSet(false, true)) {
+            trainer.submit(() -> {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    log.error("Не удалось переобучить модель ALS", e);
+                } finally {
+                    retrainScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    @Override
+    public long getModelVersion() {
+        return modelVersion.get();
+    }
+
+    @Override
+    public long getModelChangedAt() {
+        return modelChangedAt;
+    }
+
+    private void modelChanged() {
+        modelVersion.incrementAndGet();
+        modelChangedAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public List<RecommendedFilm> recommendScored(Map<Integer, Integer> userMarks, Integer count) {
+        lock.readLock().lock();
+        try {
+            return model.recommend(userMarks, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class DeviationMatrix {
+    private final Map<Integer, PairRow> rows = new HashMap<>();
+
+    void add(int filmId, int otherFilmId, int diffDelta, int countDelta) {
+        row(filmId).add(otherFilmId, diffDelta, countDelta);
+        row(otherFilmId).add(filmId, -diffDelta, countDelta);
+    }
+
+    void set(int filmId, int otherFilmId, int diffSum, int count) {
+        row(filmId).set(otherFilmId, diffSum, count);
+        row(otherFilmId).set(filmId, -diffSum, count);
+    }
+
+    DeviationMatrix merge(DeviationMatrix other) {
+        other.rows.forEach((filmId, otherRow) -> {
+            PairRow row = row(filmId);
+            otherRow.forEach(row::add);
+        });
+
+        return this;
+    }
+
+    int getDiffSum(int filmId, int otherFilmId) {
+        PairRow row = rows.get(filmId);
+        return row == null ? 0 : row.getDiffSum(otherFilmId);
+    }
+
+    int getCount(int filmId, int otherFilmId) {
+        PairRow row = rows.get(filmId);
+        return row == null ? 0 : row.getCount(otherFilmId);
+    }
+
+    void removeFilm(int filmId) {
+        PairRow removed = rows.remove(filmId);
+
+        if (removed == null) {
+            return;
+        }
+
+        removed.forEach((otherFilmId, diffSum, count) -> {
+            PairRow row = rows.get(otherFilmId);
+
+            if (row != null) {
+                row.set(filmId, 0, 0);
+            }
+        });
+    }
+
+    void forEachPair(int filmId, PairVisitor visitor) {
+        PairRow row = rows.get(filmId);
+
+        if (row != null) {
+            row.forEach(visitor);
+        }
+    }
+
+    void forEachFilm(FilmVisitor visitor) {
+        rows.forEach((filmId, row) -> visitor.visit(filmId, row));
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    private PairRow row(int filmId) {
+        return rows.computeIfAbsent(filmId, id -> new PairRow());
+    }
+
+    interface PairVisitor {
+        void visit(int otherFilmId, int diffSum, int count);
+    }
+
+    interface FilmVisitor {
+        void visit(int filmId, PairRow row);
+    }
+
+    // Open addressing с линейным пробированием: id фильмов из БД начинаются с 1, поэтому 0 - свободная ячейка
+    static final class PairRow {
+        private static final int FREE = 0;
+
+        private int[] keys = new int[4];
+        private int[] diffSums = new int[4];
+        private int[] counts = new int[4];
+        private int size;
+
+        void add(int otherFilmId, int diffDelta, int countDelta) {
+            int slot = slotFor(otherFilmId);
+
+            diffSums[slot] += diffDelta;
+            counts[slot] += countDelta;
+        }
+
+        void set(int otherFilmId, int diffSum, int count) {
+            int slot = slotFor(otherFilmId);
+
+            diffSums[slot] = diffSum;
+            counts[slot] = count;
+        }
+
+        int getDiffSum(int otherFilmId) {
+            int slot = find(otherFilmId);
+            return keys[slot] == FREE ? 0 : diffSums[slot];
+        }
+
+        int getCount(int otherFilmId) {
+            int slot = find(otherFilmId);
+            return keys[slot] == FREE ? 0 : counts[slot];
+        }
+
+        void forEach(PairVisitor visitor) {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != FREE && counts[slot] > 0) {
+                    visitor.visit(keys[slot], diffSums[slot], counts[slot]);
+                }
+            }
+        }
+
+        private int slotFor(int otherFilmId) {
+            int slot = find(otherFilmId);
+
+            if (keys[slot] == FREE) {
+                if ((size + 1) * 4 > keys.length * 3) {
+                    grow();
+                    slot = find(otherFilmId);
+                }
+
+                keys[slot] = otherFilmId;
+                size++;
+            }
+
+            return slot;
+        }
+
+        private int find(int otherFilmId) {
+            int mask = keys.length - 1;
+            int slot = hash(otherFilmId) & mask;
+
+            while (keys[slot] != FREE && keys[slot] != otherFilmId) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        // Пары с нулевым счетчиком остаются в таблице до следующего расширения, где и отбрасываются
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldDiffSums = diffSums;
+            int[] oldCounts = counts;
+
+            keys = new int[oldKeys.length * 2];
+            diffSums = new int[keys.length];
+            counts = new int[keys.length];
+            size = 0;
+
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != FREE && oldCounts[slot] != 0) {
+                    int newSlot = find(oldKeys[slot]);
+
+                    keys[newSlot] = oldKeys[slot];
+                    diffSums[newSlot] = oldDiffSums[slot];
+                    counts[newSlot] = oldCounts[slot];
+                    size++;
+                }
+            }
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+// Иерархический граф малого мира (HNSW) для поиска ближайших фильмов по косинусному расстоянию.
+// Векторы нормируются при вставке, удаленные фильмы остаются узлами графа, но не попадают в выдачу
+final class HnswGraph {
+    private static final long SEED = 42;
+
+    private final int maxLinks;
+    private final int maxBottomLinks;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(SEED);
+
+    private final Map<Integer, Node> nodes = new HashMap<>();
+    private final Set<Integer> removed = new HashSet<>();
+    private Node entry;
+
+    HnswGraph(int maxLinks, int efConstruction) {
+        this.maxLinks = maxLinks;
+        this.maxBottomLinks = maxLinks * 2;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(maxLinks);
+    }
+
+    boolean contains(int filmId) {
+        return nodes.containsKey(filmId) && !removed.contains(filmId);
+    }
+
+    int size() {
+        return nodes.size() - removed.size();
+    }
+
+    float[] vectorOf(int filmId) {
+        Node node = nodes.get(filmId);
+        return node == null || removed.contains(filmId) ? null : node.vector;
+    }
+
+    // Возвращает false для нулевого вектора: у фильма без оценок нет направления, и сравнивать его не с чем
+    boolean insert(int filmId, float[] vector) {
+        float[] normalized = normalize(vector);
+
+        if (normalized == null || nodes.containsKey(filmId)) {
+            return false;
+        }
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        Node node = new Node(filmId, normalized, level);
+        nodes.put(filmId, node);
+
+        if (entry == null) {
+            entry = node;
+            return true;
+        }
+
+        Node current = entry;
+
+        for (int layer = entry.level; layer > level; layer--) {
+            current = searchLayer(normalized, current, 1, layer).get(0).node;
+        }
+
+        for (int layer = Math.min(level, entry.level); layer >= 0; layer--) {
+            List<Candidate> candidates = searchLayer(normalized, current, efConstruction, layer);
+            int limit = layer == 0 ? maxBottomLinks : maxLinks;
+
+            for (int i = 0; i < candidates.size() && i < maxLinks; i++) {
+                Node neighbour = candidates.get(i).node;
+
+                node.link(layer, neighbour);
+                neighbour.link(layer, node);
+
+                if (neighbour.linkCount(layer) > limit) {
+                    shrink(neighbour, layer, limit);
+                }
+            }
+
+            current = candidates.get(0).node;
+        }
+
+        if (level > entry.level) {
+            entry = node;
+        }
+
+        return true;
+    }
+
+    void remove(int filmId) {
+        if (nodes.containsKey(filmId)) {
+            removed.add(filmId);
+        }
+    }
+
+    // ef - ширина поиска на нижнем слое: чем больше, тем выше полнота и дольше запрос
+    List<Integer> search(float[] vector, int count, int ef, int excludedFilmId) {
+        float[] normalized = normalize(vector);
+
+        if (entry == null || normalized == null || count <= 0) {
+            return new ArrayList<>();
+        }
+
+        Node current = entry;
+
+        for (int layer = entry.level; layer > 0; layer--) {
+            current = searchLayer(normalized, current, 1, layer).get(0).node;
+        }
+
+        List<Integer> found = new ArrayList<>(count);
+
+        for (Candidate candidate : searchLayer(normalized, current, Math.max(ef, count + 1), 0)) {
+            int filmId = candidate.node.filmId;
+
+            if (filmId != excludedFilmId && !removed.contains(filmId)) {
+                found.add(filmId);
+
+                if (found.size() == count) {
+                    break;
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private List<Candidate> searchLayer(float[] query, Node start, int ef, int layer) {
+        Set<Node> visited = new HashSet<>();
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(Candidate.BY_DISTANCE);
+        PriorityQueue<Candidate> nearest = new PriorityQueue<>(Candidate.BY_DISTANCE.reversed());
+
+        Candidate first = new Candidate(start, distance(query, start.vector));
+        visited.add(start);
+        candidates.add(first);
+        nearest.add(first);
+
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+
+            if (closest.distance > nearest.peek().distance && nearest.size() >= ef) {
+                break;
+            }
+
+            Node[] links = closest.node.links[layer];
+
+            for (int i = 0; i < closest.node.linkCounts[layer]; i++) {
+                Node neighbour = links[i];
+
+                if (!visited.add(neighbour)) {
+                    continue;
+                }
+
+                double distance = distance(query, neighbour.vector);
+
+                if (nearest.size() < ef || distance < nearest.peek().distance) {
+                    Candidate candidate = new Candidate(neighbour, distance);
+                    candidates.add(candidate);
+                    nearest.add(candidate);
+
+                    if (nearest.size() > ef) {
+                        nearest.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> result = new ArrayList<>(nearest);
+        result.sort(Candidate.BY_DISTANCE);
+        return result;
+    }
+
+    private void shrink(Node node, int layer, int limit) {
+        List<Candidate> links = new ArrayList<>(node.linkCounts[layer]);
+
+        for (int i = 0; i < node.linkCounts[layer]; i++) {
+            links.add(new Candidate(node.links[layer][i], distance(node.vector, node.links[layer][i].vector)));
+        }
+
+        links.sort(Candidate.BY_DISTANCE);
+        node.linkCounts[layer] = 0;
+
+        for (int i = 0; i < limit; i++) {
+            node.link(layer, links.get(i).node);
+        }
+    }
+
+    private static double distance(float[] first, float[] second) {
+        double dot = 0;
+
+        for (int i = 0; i < first.length; i++) {
+            dot += first[i] * second[i];
+        }
+
+        return 1 - dot;
+    }
+
+    private static float[] normalize(float[] vector) {
+        if (vector == null) {
+            return null;
+        }
+
+        double norm = 0;
+
+        for (float value : vector) {
+            norm += value * value;
+        }
+
+        if (norm == 0) {
+            return null;
+        }
+
+        float[] normalized = new float[vector.length];
+        double scale = 1 / Math.sqrt(norm);
+
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] * scale);
+        }
+
+        return normalized;
+    }
+
+    private static final class Node {
+        private final int filmId;
+        private final float[] vector;
+        private final int level;
+        private final Node[][] links;
+        private final int[] linkCounts;
+
+        private Node(int filmId, float[] vector, int level) {
+            this.filmId = filmId;
+            this.vector = vector;
+            this.level = level;
+            this.links = new Node[level + 1][];
+            this.linkCounts = new int[level + 1];
+
+            for (int layer = 0; layer <= level; layer++) {
+                links[layer] = new Node[4];
+            }
+        }
+
+        private void link(int layer, Node neighbour) {
+            if (linkCounts[layer] == links[layer].length) {
+                links[layer] = Arrays.copyOf(links[layer], linkCounts[layer] * 2);
+            }
+
+            links[layer][linkCounts[layer]++] = neighbour;
+        }
+
+        private int linkCount(int layer) {
+            return linkCounts[layer];
+        }
+    }
+
+    private static final class Candidate {
+        private static final Comparator<Candidate> BY_DISTANCE = Comparator.comparingDouble(candidate -> candidate.distance);
+
+        private final Node node;
+        private final double distance;
+
+        private Candidate(Node node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Разреженная матрица оценок: строки (пользователи) в формате CSR и транспонированное представление CSC
+// для доступа по фильмам. Id внутри строки и столбца отсортированы, оценки хранятся в byte
+public final class RatingMatrix {
+    private final int[] userIds;
+    private final int[] rowOffsets;
+    private final int[] filmIds;
+    private final byte[] marks;
+
+    private final int[] columnFilmIds;
+    private final int[] columnOffsets;
+    private final int[] columnUserIds;
+    private final byte[] columnMarks;
+
+    private RatingMatrix(int[] userIds, int[] rowOffsets, int[] filmIds, byte[] marks) {
+        this.userIds = userIds;
+        this.rowOffsets = rowOffsets;
+        this.filmIds = filmIds;
+        this.marks = marks;
+
+        int[] sortedFilmIds = filmIds.clone();
+        Arrays.sort(sortedFilmIds);
+
+        int columns = 0;
+        for (int i = 0; i < sortedFilmIds.length; i++) {
+            if (i == 0 || sortedFilmIds[i] != sortedFilmIds[i - 1]) {
+                sortedFilmIds[columns++] = sortedFilmIds[i];
+            }
+        }
+
+        columnFilmIds = Arrays.copyOf(sortedFilmIds, columns);
+        columnOffsets = new int[columns + 1];
+
+        for (int filmId : filmIds) {
+            columnOffsets[Arrays.binarySearch(columnFilmIds, filmId) + 1]++;
+        }
+
+        for (int column = 0; column < columns; column++) {
+            columnOffsets[column + 1] += columnOffsets[column];
+        }
+
+        // Строки обходятся по возрастанию id пользователя, поэтому столбцы заполняются уже отсортированными
+        int[] next = Arrays.copyOf(columnOffsets, columns);
+        columnUserIds = new int[filmIds.length];
+        columnMarks = new byte[filmIds.length];
+
+        for (int row = 0; row < userIds.length; row++) {
+            for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+                int position = next[Arrays.binarySearch(columnFilmIds, filmIds[i])]++;
+
+                columnUserIds[position] = userIds[row];
+                columnMarks[position] = marks[i];
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getUserCount() {
+        return userIds.length;
+    }
+
+    public int getFilmCount() {
+        return columnFilmIds.length;
+    }
+
+    public int getRatingCount() {
+        return filmIds.length;
+    }
+
+    public long getSizeInBytes() {
+        long ints = (long) userIds.length + rowOffsets.length + filmIds.length
+                + columnFilmIds.length + columnOffsets.length + columnUserIds.length;
+
+        return ints * Integer.BYTES + marks.length + columnMarks.length;
+    }
+
+    public int getMark(int userId, int filmId) {
+        int row = Arrays.binarySearch(userIds, userId);
+
+        if (row < 0) {
+            return 0;
+        }
+
+        int i = Arrays.binarySearch(filmIds, rowOffsets[row], rowOffsets[row + 1], filmId);
+        return i < 0 ? 0 : marks[i];
+    }
+
+    // Слияние двух отсортированных строк без промежуточных коллекций
+    public int[] getCommonFilms(int userId, int otherUserId) {
+        int row = Arrays.binarySearch(userIds, userId);
+        int otherRow = Arrays.binarySearch(userIds, otherUserId);
+
+        if (row < 0 || otherRow < 0) {
+            return new int[0];
+        }
+
+        int i = rowOffsets[row];
+        int j = rowOffsets[otherRow];
+        int[] common = new int[Math.min(rowOffsets[row + 1] - i, rowOffsets[otherRow + 1] - j)];
+        int size = 0;
+
+        while (i < rowOffsets[row + 1] && j < rowOffsets[otherRow + 1]) {
+            if (filmIds[i] < filmIds[j]) {
+                i++;
+            } else if (filmIds[i] > filmIds[j]) {
+                j++;
+            } else {
+                common[size++] = filmIds[i];
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(common, size);
+    }
+
+    // Косинусная близость столбцов двух фильмов по оценкам пользователей
+    public double getSimilarity(int filmId, int otherFilmId) {
+        int column = Arrays.binarySearch(columnFilmIds, filmId);
+        int otherColumn = Arrays.binarySearch(columnFilmIds, otherFilmId);
+
+        if (column < 0 || otherColumn < 0) {
+            return 0;
+        }
+
+        long dot = 0;
+        int i = columnOffsets[column];
+        int j = columnOffsets[otherColumn];
+
+        while (i < columnOffsets[column + 1] && j < columnOffsets[otherColumn + 1]) {
+            if (columnUserIds[i] < columnUserIds[j]) {
+                i++;
+            } else if (columnUserIds[i] > columnUserIds[j]) {
+                j++;
+            } else {
+                dot += columnMarks[i++] * columnMarks[j++];
+            }
+        }
+
+        double norms = Math.sqrt(squaredNorm(column)) * Math.sqrt(squaredNorm(otherColumn));
+        return norms == 0 ? 0 : dot / norms;
+    }
+
+    int userIdAt(int row) {
+        return userIds[row];
+    }
+
+    int rowStart(int row) {
+        return rowOffsets[row];
+    }
+
+    int rowEnd(int row) {
+        return rowOffsets[row + 1];
+    }
+
+    int filmIdAt(int position) {
+        return filmIds[position];
+    }
+
+    int markAt(int position) {
+        return marks[position];
+    }
+
+    int rowOf(int userId) {
+        return Arrays.binarySearch(userIds, userId);
+    }
+
+    int columnOf(int filmId) {
+        return Arrays.binarySearch(columnFilmIds, filmId);
+    }
+
+    int filmIdOfColumn(int column) {
+        return columnFilmIds[column];
+    }
+
+    int columnStart(int column) {
+        return columnOffsets[column];
+    }
+
+    int columnEnd(int column) {
+        return columnOffsets[column + 1];
+    }
+
+    int columnUserIdAt(int position) {
+        return columnUserIds[position];
+    }
+
+    int columnMarkAt(int position) {
+        return columnMarks[position];
+    }
+
+    long getSerializedSize() {
+        return (long) Integer.BYTES * (userIds.length + rowOffsets.length + filmIds.length) + marks.length;
+    }
+
+    // Сохраняется только CSR, транспонированное представление восстанавливается при чтении
+    void writeTo(ByteBuffer buffer) {
+        buffer.asIntBuffer().put(userIds).put(rowOffsets).put(filmIds);
+        buffer.position(buffer.position() + Integer.BYTES * (userIds.length + rowOffsets.length + filmIds.length));
+        buffer.put(marks);
+    }
+
+    static RatingMatrix readFrom(ByteBuffer buffer, int users, int ratings) {
+        int[] userIds = new int[users];
+        int[] rowOffsets = new int[users + 1];
+        int[] filmIds = new int[ratings];
+        byte[] marks = new byte[ratings];
+
+        buffer.asIntBuffer().get(userIds).get(rowOffsets).get(filmIds);
+        buffer.position(buffer.position() + Integer.BYTES * (userIds.length + rowOffsets.length + filmIds.length));
+        buffer.get(marks);
+
+        return new RatingMatrix(userIds, rowOffsets, filmIds, marks);
+    }
+
+    private long squaredNorm(int column) {
+        long norm = 0;
+
+        for (int i = columnOffsets[column]; i < columnOffsets[column + 1]; i++) {
+            norm += columnMarks[i] * columnMarks[i];
+        }
+
+        return norm;
+    }
+
+    // Оценки должны поступать упорядоченными по пользователю, а внутри пользователя - по фильму
+    public static final class Builder {
+        private int[] userIds = new int[16];
+        private int[] rowOffsets = new int[17];
+        private int[] filmIds = new int[64];
+        private byte[] marks = new byte[64];
+        private int users;
+        private int ratings;
+
+        private Builder() {
+        }
+
+        public Builder add(int userId, int filmId, int mark) {
+            if (users == 0 || userIds[users - 1] != userId) {
+                if (users > 0 && userIds[users - 1] > userId) {
+                    throw new IllegalArgumentException("Оценки должны быть упорядочены по id пользователя");
+                }
+
+                if (users == userIds.length) {
+                    userIds = Arrays.copyOf(userIds, users * 2);
+                    rowOffsets = Arrays.copyOf(rowOffsets, users * 2 + 1);
+                }
+
+                userIds[users] = userId;
+                rowOffsets[users] = ratings;
+                users++;
+            } else if (filmIds[ratings - 1] >= filmId) {
+                throw new IllegalArgumentException("Оценки пользователя должны быть упорядочены по id фильма");
+            }
+
+            if (ratings == filmIds.length) {
+                filmIds = Arrays.copyOf(filmIds, ratings * 2);
+                marks = Arrays.copyOf(marks, ratings * 2);
+            }
+
+            filmIds[ratings] = filmId;
+            marks[ratings] = (byte) mark;
+            ratings++;
+
+            return this;
+        }
+
+        public RatingMatrix build() {
+            int[] offsets = Arrays.copyOf(rowOffsets, users + 1);
+            offsets[users] = ratings;
+
+            return new RatingMatrix(Arrays.copyOf(userIds, users), offsets,
+                    Arrays.copyOf(filmIds, ratings), Arrays.copyOf(marks, ratings));
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.RecommendationBatchStats;
+import ru.yandex.practicum.model.RecommendationJob;
+import ru.yandex.practicum.model.film.RecommendedFilm;
+import ru.yandex.practicum.storage.RecommendationStorage;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Фоновый расчет рекомендаций для всех пользователей, у которых есть оценки, в таблицу user_recommendations.
+// Пользователи обрабатываются порциями по возрастанию id, каждая порция считается параллельно и записывается
+// короткой транзакцией вместе с позицией задания: film_likes только читается, поэтому запись лайков не ждет задания
+@Slf4j
+@Component
+public class RecommendationBatchJob {
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private final RecommendationStorage recommendationStorage;
+    private final Recommender recommender;
+    private final int chunkSize;
+    private final int topN;
+    private final long maxStalenessMillis;
+    private final ForkJoinPool pool;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recommendation-batch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong completedJobs = new AtomicLong();
+    private volatile RecommendationJob currentJob;
+    private volatile boolean resumed;
+    private volatile int processedUsers;
+    private volatile long startedAt;
+    private volatile long durationMillis;
+
+    public RecommendationBatchJob(RecommendationStorage recommendationStorage,
+                                  Recommender recommender,
+                                  @Value("${filmorate.recommendations.build-parallelism:0}") int buildParallelism,
+                                  @Value("${filmorate.recommendations.batch.chunk-size:500}") int chunkSize,
+                                  @Value("${filmorate.recommendations.batch.top-n:50}") int topN,
+                                  @Value("${filmorate.cache.recommendations.max-staleness-ms:60000}")
+                                  long maxStalenessMillis) {
+        this.recommendationStorage = recommendationStorage;
+        this.recommender = recommender;
+        this.chunkSize = chunkSize;
+        this.topN = topN;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.pool = new ForkJoinPool(buildParallelism > 0 ? buildParallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    @Scheduled(initialDelayString = "${filmorate.recommendations.batch.interval-ms:3600000}",
+            fixedDelayString = "${filmorate.recommendations.batch.interval-ms:3600000}")
+    public void scheduledRun() {
+        try {
+            run();
+        } catch (RuntimeException e) {
+            log.error("Расчет рекомендаций по расписанию завершился ошибкой", e);
+        }
+    }
+
+    // Запуск по запросу не держит поток запроса: задание выполняется в своем потоке, ход виден в getStats
+    public void submit() {
+        runner.submit(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                log.error("Расчет рекомендаций по запросу завершился ошибкой", e);
+            }
+        });
+    }
+
+    // Незавершенное задание продолжается с последней сохраненной порции, иначе начинается новое
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Расчет рекомендаций уже выполняется");
+            return;
+        }
+
+        try {
+            RecommendationJob job = recommendationStorage.findUnfinishedJob();
+            resumed = job != null;
+
+            if (job == null) {
+                job = recommendationStorage.startJob(recommendationStorage.getRatedUserCount());
+            }
+
+            currentJob = job;
+            processedUsers = job.getProcessedUsers();
+            startedAt = System.currentTimeMillis();
+            durationMillis = 0;
+
+            log.info("Расчет рекомендаций {}, задание {}, пользователей: {}, обработано: {}",
+                    resumed ? "продолжен" : "запущен", job.getJobId(), job.getTotalUsers(), processedUsers);
+
+            int lastUserId = job.getLastUserId();
+            List<Integer> userIds = recommendationStorage.getRatedUserIds(lastUserId, chunkSize);
+
+            while (!userIds.isEmpty()) {
+                long sinceEventId = recommendationStorage.getLastEventId();
+                Map<Integer, List<RecommendedFilm>> recommendations = computeChunk(userIds);
+
+                lastUserId = userIds.get(userIds.size() - 1);
+                recommendationStorage.savePrecomputed(job.getJobId(), lastUserId, sinceEventId, recommendations);
+                processedUsers += userIds.size();
+                durationMillis = System.currentTimeMillis() - startedAt;
+
+                userIds = recommendationStorage.getRatedUserIds(lastUserId, chunkSize);
+            }
+
+            recommendationStorage.finishJob(job.getJobId());
+            completedJobs.incrementAndGet();
+            durationMillis = System.currentTimeMillis() - startedAt;
+
+            log.info("Расчет рекомендаций завершен за {} мс, задание {}, обработано пользователей: {}",
+                    durationMillis, job.getJobId(), processedUsers);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    // Сохраненный список полный, если в нем меньше topN фильмов, иначе он покрывает только запросы до topN.
+    // Как и записи кэша, список отдается, если модель с его расчета не менялась или он устарел не больше
+    // чем на max-staleness-ms
+    public List<Integer> findPrecomputed(int userId, Integer count) {
+        long computedAfter = Math.min(recommender.getModelChangedAt(), System.currentTimeMillis() - maxStalenessMillis);
+        List<RecommendedFilm> precomputed = recommendationStorage.getPrecomputed(userId, computedAfter);
+
+        if (precomputed.isEmpty() || (precomputed.size() >= topN && (count == null || count > precomputed.size()))) {
+            return null;
+        }
+
+        return precomputed.stream()
+                .limit(count == null ? precomputed.size() : count)
+                .map(RecommendedFilm::getFilmId)
+                .collect(Collectors.toList());
+    }
+
+    public RecommendationBatchStats getStats() {
+        RecommendationJob job = currentJob;
+        int total = job == null ? 0 : job.getTotalUsers();
+        int processed = processedUsers;
+        long duration = running.get() ? System.currentTimeMillis() - startedAt : durationMillis;
+        int processedNow = job == null ? 0 : processed - job.getProcessedUsers();
+
+        return new RecommendationBatchStats(
+                running.get(),
+                job == null ? null : job.getJobId(),
+                resumed,
+                total,
+                processed,
+                total == 0 ? 0 : Math.min(1.0, (double) processed / total),
+                duration,
+                duration == 0 ? 0 : processedNow * MILLIS_PER_SECOND / duration,
+                completedJobs.get()
+        );
+    }
+
+    private Map<Integer, List<RecommendedFilm>> computeChunk(List<Integer> userIds) {
+        RatingMatrix ratings = recommendationStorage.loadRatingMatrix(userIds);
+
+        return pool.submit(() -> userIds.parallelStream()
+                .collect(Collectors.toMap(Function.identity(),
+                        userId -> recommender.recommendScored(marksOf(ratings, userId), topN))))
+                .join();
+    }
+
+    private static Map<Integer, Integer> marksOf(RatingMatrix ratings, int userId) {
+        Map<Integer, Integer> marks = new HashMap<>();
+        int row = ratings.rowOf(userId);
+
+        if (row < 0) {
+            return marks;
+        }
+
+        for (int position = ratings.rowStart(row); position < ratings.rowEnd(row); position++) {
+            marks.put(ratings.filmIdAt(position), ratings.markAt(position));
+        }
+
+        return marks;
+    }
+}
@@ -0,0 +1,168 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import com.sun.management.ThreadMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.model.RecommendationEvaluation;
+import ru.yandex.practicum.model.film.RecommendedFilm;
+import ru.yandex.practicum.storage.RecommendationStorage;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+// Офлайн-сравнение движков на одних данных: каждая пятая оценка (по хэшу пары пользователь-фильм)
+// откладывается, движки обучаются на остальных и проверяются на отложенных оценках выше порога.
+// Данные берутся из film_likes или генерируются синтетически, чтобы запуски можно было сравнивать между собой
+@Slf4j
+@Component
+public class RecommendationEvaluator {
+    private static final int HOLDOUT_RATE = 5;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final double BYTES_PER_KB = 1024.0;
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+    private static final ThreadMXBean THREADS = ManagementFactory.getPlatformMXBean(ThreadMXBean.class);
+
+    private final RecommendationStorage recommendationStorage;
+    private final int buildParallelism;
+    private final int factors;
+    private final int iterations;
+    private final double regularization;
+
+    public RecommendationEvaluator(RecommendationStorage recommendationStorage,
+                                   @Value("${filmorate.recommendations.build-parallelism:0}") int buildParallelism,
+                                   @Value("${filmorate.recommendations.als.factors:16}") int factors,
+                                   @Value("${filmorate.recommendations.als.iterations:10}") int iterations,
+                                   @Value("${filmorate.recommendations.als.regularization:0.1}") double regularization) {
+        this.recommendationStorage = recommendationStorage;
+        this.buildParallelism = buildParallelism > 0 ? buildParallelism : Runtime.getRuntime().availableProcessors();
+        this.factors = factors;
+        this.iterations = iterations;
+        this.regularization = regularization;
+    }
+
+    public List<RecommendationEvaluation> evaluate(int k) {
+        return evaluate("film_likes", recommendationStorage.loadRatingMatrix(), k);
+    }
+
+    public List<RecommendationEvaluation> benchmark(int users, int films, int ratingsPerUser, double zipfExponent,
+                                                    long seed, int k) {
+        String dataset = String.format(Locale.ROOT, "synthetic(users=%d,films=%d,ratingsPerUser=%d,zipf=%.2f,seed=%d)",
+                users, films, ratingsPerUser, zipfExponent, seed);
+
+        return evaluate(dataset, SyntheticRatings.generate(users, films, ratingsPerUser, zipfExponent, seed), k);
+    }
+
+    private List<RecommendationEvaluation> evaluate(String dataset, RatingMatrix ratings, int k) {
+        RatingMatrix.Builder train = RatingMatrix.builder();
+        Map<Integer, Map<Integer, Integer>> trainMarks = new HashMap<>();
+        Map<Integer, Set<Integer>> relevant = new HashMap<>();
+
+        for (int row = 0; row < ratings.getUserCount(); row++) {
+            int userId = ratings.userIdAt(row);
+
+            for (int position = ratings.rowStart(row); position < ratings.rowEnd(row); position++) {
+                int filmId = ratings.filmIdAt(position);
+                int mark = ratings.markAt(position);
+
+                if (Math.floorMod(userId * 31 + filmId, HOLDOUT_RATE) != 0) {
+                    train.add(userId, filmId, mark);
+                    trainMarks.computeIfAbsent(userId, id -> new HashMap<>()).put(filmId, mark);
+                } else if (mark > Recommender.RECOMMENDATION_THRESHOLD) {
+                    relevant.computeIfAbsent(userId, id -> new HashSet<>()).add(filmId);
+                }
+            }
+        }
+
+        relevant.keySet().retainAll(trainMarks.keySet());
+        RatingMatrix trainRatings = train.build();
+        List<RecommendationEvaluation> evaluations = new ArrayList<>();
+
+        long start = System.nanoTime();
+        DeviationMatrix deviations = SlopeOneRecommender.build(trainRatings, buildParallelism);
+        evaluations.add(measure("slope-one", dataset, ratings, k, System.nanoTime() - start, trainMarks, relevant,
+                marks -> SlopeOneRecommender.selectTop(SlopeOneRecommender.predict(deviations, marks), k)));
+
+        start = System.nanoTime();
+        AlsModel model = AlsModel.train(trainRatings, factors, iterations, regularization, buildParallelism);
+        evaluations.add(measure("als", dataset, ratings, k, System.nanoTime() - start, trainMarks, relevant,
+                marks -> model.recommend(marks, k)));
+
+        evaluations.forEach(evaluation -> log.info("Оценка движка рекомендаций: {}", evaluation));
+
+        return evaluations;
+    }
+
+    private static RecommendationEvaluation measure(String engine, String dataset, RatingMatrix ratings, int k,
+                                                    long trainNanos,
+                                                    Map<Integer, Map<Integer, Integer>> trainMarks,
+                                                    Map<Integer, Set<Integer>> relevant,
+                                                    Function<Map<Integer, Integer>, List<RecommendedFilm>> recommend) {
+        long[] latencies = new long[relevant.size()];
+        double precision = 0;
+        double recall = 0;
+        int i = 0;
+        long allocatedBefore = allocatedBytes();
+        long loopStart = System.nanoTime();
+
+        for (Map.Entry<Integer, Set<Integer>> user : relevant.entrySet()) {
+            long start = System.nanoTime();
+            List<RecommendedFilm> recommended = recommend.apply(trainMarks.get(user.getKey()));
+            latencies[i++] = System.nanoTime() - start;
+
+            long hits = recommended.stream()
+                    .map(RecommendedFilm::getFilmId)
+                    .filter(user.getValue()::contains)
+                    .count();
+            precision += (double) hits / k;
+            recall += (double) hits / user.getValue().size();
+        }
+
+        long allocated = allocatedBytes() - allocatedBefore;
+        long loopNanos = System.nanoTime() - loopStart;
+        Arrays.sort(latencies);
+        int users = latencies.length;
+
+        return new RecommendationEvaluation(
+                engine,
+                dataset,
+                ratings.getRatingCount(),
+                k,
+                users,
+                users == 0 ? 0 : precision / users,
+                users == 0 ? 0 : recall / users,
+                trainNanos / NANOS_PER_MILLI,
+                percentile(latencies, 0.5) / NANOS_PER_MILLI,
+                percentile(latencies, 0.9) / NANOS_PER_MILLI,
+                percentile(latencies, 0.99) / NANOS_PER_MILLI,
+                users == 0 ? 0 : allocated / BYTES_PER_KB / users,
+                loopNanos == 0 ? 0 : allocated / BYTES_PER_MB / (loopNanos / NANOS_PER_SECOND)
+        );
+    }
+
+    // Запросы выполняются в вызывающем потоке, поэтому его счетчик выделенной памяти относится только к ним
+    private static long allocatedBytes() {
+        if (THREADS == null || !THREADS.isThreadAllocatedMemorySupported()) {
+            return 0;
+        }
+
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        return sorted[Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
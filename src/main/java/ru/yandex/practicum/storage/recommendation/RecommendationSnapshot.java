@@ -0,0 +1,178 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Файл снимка: заголовок (магическое число, версия формата, id и время последнего учтенного события,
+// размеры, CRC32 данных и CRC32 самого заголовка), затем CSR матрицы оценок и пары фильмов матрицы отклонений
+final class RecommendationSnapshot {
+    private static final int MAGIC = 0x464C4D52;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 52;
+    private static final int HEADER_CHECKSUM_OFFSET = HEADER_SIZE - Long.BYTES;
+    private static final int PAIR_SIZE = 4 * Integer.BYTES;
+
+    private final long lastEventId;
+    private final long lastEventTime;
+    private final RatingMatrix ratings;
+    private final DeviationMatrix deviations;
+
+    private RecommendationSnapshot(long lastEventId, long lastEventTime, RatingMatrix ratings,
+                                   DeviationMatrix deviations) {
+        this.lastEventId = lastEventId;
+        this.lastEventTime = lastEventTime;
+        this.ratings = ratings;
+        this.deviations = deviations;
+    }
+
+    long getLastEventId() {
+        return lastEventId;
+    }
+
+    long getLastEventTime() {
+        return lastEventTime;
+    }
+
+    RatingMatrix getRatings() {
+        return ratings;
+    }
+
+    DeviationMatrix getDeviations() {
+        return deviations;
+    }
+
+    // Файл пишется во временный и подменяет старый атомарно, чтобы читатели не увидели его наполовину записанным
+    static void write(Path path, long lastEventId, long lastEventTime, RatingMatrix ratings,
+                      DeviationMatrix deviations) throws IOException {
+        int[] pairs = {0};
+        forEachPair(deviations, (filmId, otherFilmId, diffSum, count) -> pairs[0]++);
+
+        long size = HEADER_SIZE + ratings.getSerializedSize() + (long) PAIR_SIZE * pairs[0];
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Снимок размером " + size + " байт не помещается в одно отображение файла");
+        }
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buffer.position(HEADER_SIZE);
+            ratings.writeTo(buffer);
+            forEachPair(deviations, (filmId, otherFilmId, diffSum, count) -> {
+                buffer.putInt(filmId).putInt(otherFilmId).putInt(diffSum).putInt(count);
+            });
+
+            buffer.position(0);
+            buffer.putInt(MAGIC)
+                    .putInt(FORMAT_VERSION)
+                    .putLong(lastEventId)
+                    .putLong(lastEventTime)
+                    .putInt(ratings.getUserCount())
+                    .putInt(ratings.getRatingCount())
+                    .putInt(pairs[0])
+                    .putLong(payloadChecksum(buffer));
+            buffer.putLong(HEADER_CHECKSUM_OFFSET, headerChecksum(buffer));
+            buffer.force();
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static RecommendationSnapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Некорректный размер файла снимка: " + size + " байт");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Файл не является снимком рекомендаций");
+            }
+
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Неподдерживаемая версия формата снимка: " + version);
+            }
+
+            long lastEventId = buffer.getLong();
+            long lastEventTime = buffer.getLong();
+            int users = buffer.getInt();
+            int ratingCount = buffer.getInt();
+            int pairs = buffer.getInt();
+            long payloadChecksum = buffer.getLong();
+
+            if (buffer.getLong() != headerChecksum(buffer)) {
+                throw new IOException("Контрольная сумма заголовка снимка не совпадает");
+            }
+
+            long expectedSize = HEADER_SIZE + (long) Integer.BYTES * (2L * users + 1 + ratingCount) + ratingCount
+                    + (long) PAIR_SIZE * pairs;
+
+            if (users < 0 || ratingCount < 0 || pairs < 0 || expectedSize != size) {
+                throw new IOException("Размер снимка не соответствует заголовку");
+            }
+
+            if (payloadChecksum != payloadChecksum(buffer)) {
+                throw new IOException("Контрольная сумма данных снимка не совпадает");
+            }
+
+            RatingMatrix ratings = RatingMatrix.readFrom(buffer, users, ratingCount);
+            DeviationMatrix deviations = new DeviationMatrix();
+
+            for (int i = 0; i < pairs; i++) {
+                deviations.set(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+            }
+
+            return new RecommendationSnapshot(lastEventId, lastEventTime, ratings, deviations);
+        }
+    }
+
+    private static void forEachPair(DeviationMatrix deviations, PairConsumer consumer) {
+        deviations.forEachFilm((filmId, row) -> row.forEach((otherFilmId, diffSum, count) -> {
+            if (filmId < otherFilmId) {
+                consumer.accept(filmId, otherFilmId, diffSum, count);
+            }
+        }));
+    }
+
+    private static long payloadChecksum(ByteBuffer buffer) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    private static long headerChecksum(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate();
+        header.position(0);
+        header.limit(HEADER_CHECKSUM_OFFSET);
+
+        CRC32 crc = new CRC32();
+        crc.update(header);
+        return crc.getValue();
+    }
+
+    private interface PairConsumer {
+        void accept(int filmId, int otherFilmId, int diffSum, int count);
+    }
+}
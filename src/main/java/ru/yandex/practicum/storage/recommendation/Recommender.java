@@ -0,0 +1,38 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import ru.yandex.practicum.model.film.RecommendedFilm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+public interface Recommender {
+    double RECOMMENDATION_THRESHOLD = 5.0;
+
+    void rebuild();
+
+    // Изменение оценок в БД передается в write: модель сама решает, под какой блокировкой и в какой
+    // транзакции его выполнить, чтобы поправка модели соответствовала записанным оценкам
+    void likeAdded(int userId, int filmId, int mark, Runnable write);
+
+    void likeRemoved(int userId, int filmId, Runnable write);
+
+    <T> T userRemoved(int userId, Supplier<T> delete);
+
+    <T> T filmRemoved(int filmId, Supplier<T> delete);
+
+    // Версия растет при каждом изменении модели, по ней кэш рекомендаций определяет устаревшие записи
+    long getModelVersion();
+
+    // Время последнего изменения модели, по нему заранее посчитанные рекомендации сверяются с моделью
+    long getModelChangedAt();
+
+    List<RecommendedFilm> recommendScored(Map<Integer, Integer> userMarks, Integer count);
+
+    default List<Integer> recommend(Map<Integer, Integer> userMarks, Integer count) {
+        return recommendScored(userMarks, count).stream()
+                .map(RecommendedFilm::getFilmId)
+                .collect(Collectors.toList());
+    }
+}
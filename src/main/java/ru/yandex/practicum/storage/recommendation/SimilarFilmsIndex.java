@@ -0,0 +1,175 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.storage.RecommendationStorage;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Векторы фильмов - латентные факторы ALS, обученные на film_likes; ближайшие фильмы ищутся по графу HNSW.
+// Граф строится в фоне при старте и перестраивается по мере накопления новых оценок, а также при пересчете
+// рекомендаций. Пока граф не готов, похожие фильмы не подбираются
+@Slf4j
+@Component
+public class SimilarFilmsIndex {
+    private final RecommendationStorage recommendationStorage;
+    private final int buildParallelism;
+    private final int factors;
+    private final int iterations;
+    private final double regularization;
+    private final int maxLinks;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int rebuildThreshold;
+
+    private final ExecutorService builder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "similar-films-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final AtomicLong changedRatings = new AtomicLong();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private AlsModel model;
+    private HnswGraph graph;
+    private volatile int trainedRatings;
+
+    public SimilarFilmsIndex(RecommendationStorage recommendationStorage,
+                             @Value("${filmorate.recommendations.build-parallelism:0}") int buildParallelism,
+                             @Value("${filmorate.recommendations.als.factors:16}") int factors,
+                             @Value("${filmorate.recommendations.als.iterations:10}") int iterations,
+                             @Value("${filmorate.recommendations.als.regularization:0.1}") double regularization,
+                             @Value("${filmorate.similar.max-links:16}") int maxLinks,
+                             @Value("${filmorate.similar.ef-construction:100}") int efConstruction,
+                             @Value("${filmorate.similar.ef-search:50}") int efSearch,
+                             @Value("${filmorate.recommendations.als.retrain-threshold:1000}") int rebuildThreshold) {
+        this.recommendationStorage = recommendationStorage;
+        this.buildParallelism = buildParallelism > 0 ? buildParallelism : Runtime.getRuntime().availableProcessors();
+        this.factors = factors;
+        this.iterations = iterations;
+        this.regularization = regularization;
+        this.maxLinks = maxLinks;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.rebuildThreshold = rebuildThreshold;
+    }
+
+    @PostConstruct
+    public void init() {
+        rebuildScheduled.set(true);
+        scheduleRebuild();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        builder.shutdownNow();
+    }
+
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        changedRatings.set(0);
+        RatingMatrix ratings = recommendationStorage.loadRatingMatrix();
+        AlsModel trained = AlsModel.train(ratings, factors, iterations, regularization, buildParallelism);
+        HnswGraph built = new HnswGraph(maxLinks, efConstruction);
+
+        for (int filmId : trained.getFilmIds()) {
+            built.insert(filmId, trained.getFilmVector(filmId));
+        }
+
+        lock.writeLock().lock();
+        try {
+            model = trained;
+            graph = built;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        trainedRatings = ratings.getRatingCount();
+
+        log.info("Индекс похожих фильмов построен за {} мс, фильмов в графе: {}",
+                System.currentTimeMillis() - start, built.size());
+    }
+
+    // Граф перестраивается в фоне по тому же правилу, что и модель ALS рекомендаций: изменений оценок больше
+    // порога или больше, чем оценок было при прошлом построении
+    public void ratingsChanged(int count) {
+        long changes = changedRatings.addAndGet(count);
+
+        if (changes > Math.min(rebuildThreshold, trainedRatings) && rebuildScheduled.compareAndSet(false, true)) {
+            scheduleRebuild();
+        }
+    }
+
+    private void scheduleRebuild() {
+        builder.submit(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                log.error("Не удалось построить индекс похожих фильмов", e);
+            } finally {
+                rebuildScheduled.set(false);
+            }
+        });
+    }
+
+    // Фильм без оценок вставить нельзя: вектор появится после первой оценки или при следующем построении
+    public void putFilm(int filmId) {
+        lock.readLock().lock();
+        try {
+            if (graph == null || graph.contains(filmId)) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Map<Integer, Integer> marks = recommendationStorage.getFilmMarks(filmId);
+
+        if (marks.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            float[] vector = model.getFilmVector(filmId);
+            graph.insert(filmId, vector != null ? vector : model.foldInFilm(marks));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeFilm(int filmId) {
+        lock.writeLock().lock();
+        try {
+            if (graph != null) {
+                graph.remove(filmId);
+                model.removeFilm(filmId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Integer> findSimilar(int filmId, int count) {
+        lock.readLock().lock();
+        try {
+            if (graph == null) {
+                return List.of();
+            }
+
+            return graph.search(graph.vectorOf(filmId), count, efSearch, filmId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,569 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.model.film.FilmDeviation;
+import ru.yandex.practicum.model.film.RecommendedFilm;
+import ru.yandex.practicum.storage.RecommendationStorage;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "filmorate.recommendations.engine", havingValue = "slope-one", matchIfMissing = true)
+public class SlopeOneRecommender implements Recommender {
+    private static final int USERS_PER_BUILD_TASK = 128;
+    private static final int USER_LOCK_STRIPES = 64;
+
+    private final RecommendationStorage recommendationStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final int buildParallelism;
+    private final Path snapshotPath;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Изменения оценок идут под блокировкой на чтение и не мешают друг другу, пересчет берет ее на запись
+    // только на время поправок по изменившимся пользователям и подмены матрицы
+    private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
+    private final Object[] userLocks = new Object[USER_LOCK_STRIPES];
+    private final AtomicLong modelVersion = new AtomicLong();
+    private volatile long modelChangedAt;
+    private DeviationMatrix matrix = new DeviationMatrix();
+    // Пользователи и фильмы, изменившиеся с начала пересчета: их строки на новой матрице пересчитываются заново
+    private Set<Integer> missedUserIds;
+    private Set<Integer> missedFilmIds;
+
+    public SlopeOneRecommender(RecommendationStorage recommendationStorage, TransactionTemplate transactionTemplate,
+                               @Value("${filmorate.recommendations.build-parallelism:0}") int buildParallelism,
+                               @Value("${filmorate.recommendations.snapshot-path:}") String snapshotPath) {
+        this.recommendationStorage = recommendationStorage;
+        this.transactionTemplate = transactionTemplate;
+        this.buildParallelism = buildParallelism > 0 ? buildParallelism : Runtime.getRuntime().availableProcessors();
+        this.snapshotPath = snapshotPath.isBlank() ? null : Path.of(snapshotPath);
+
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (snapshotPath != null && Files.exists(snapshotPath) && restoreSnapshot()) {
+            return;
+        }
+
+        DeviationMatrix loaded = new DeviationMatrix();
+        recommendationStorage.forEachDeviation(deviation -> loaded.set(deviation.getFilmId(),
+                deviation.getOtherFilmId(), deviation.getDiffSum(), deviation.getCoCount()));
+
+        if (loaded.size() == 0) {
+            rebuild();
+            return;
+        }
+
+        publish(loaded);
+        log.info("Матрица отклонений Slope One загружена, фильмов в матрице: {}", loaded.size());
+    }
+
+    // Пересчет не блокирует ни чтение, ни изменения оценок: оценки читаются, матрица строится и film_deviation
+    // переписывается без блокировок, а изменившиеся с начала пересчета пользователи и фильмы запоминаются.
+    // Была ли их оценка видна чтению, неизвестно, поэтому под блокировкой их строки из прочитанных оценок
+    // вычитаются, текущие оценки из БД прибавляются, а затронутые пары перезаписываются в film_deviation
+    @Override
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        setMissed(new HashSet<>(), new HashSet<>());
+
+        RatingMatrix ratings;
+        DeviationMatrix rebuilt;
+
+        try {
+            long lastEventId = recommendationStorage.getLastEventId();
+            Long lastEventTime = recommendationStorage.getEventTime(lastEventId);
+            ratings = recommendationStorage.loadRatingMatrix();
+            rebuilt = build(ratings, buildParallelism);
+            writeSnapshot(ratings, rebuilt, lastEventId, lastEventTime);
+            recommendationStorage.replaceDeviations(toDeviations(rebuilt));
+        } catch (RuntimeException e) {
+            setMissed(null, null);
+            throw e;
+        }
+
+        changeLock.writeLock().lock();
+        try {
+            Set<Integer> userIds = missedUserIds;
+            Set<Integer> filmIds = missedFilmIds;
+            setMissed(null, null);
+
+            RatingMatrix current = recommendationStorage.loadRatingMatrix(userIds);
+            Set<Long> pairs = new HashSet<>();
+
+            for (int userId : userIds) {
+                int before = ratings.rowOf(userId);
+                int after = current.rowOf(userId);
+                Set<Integer> rated = new TreeSet<>();
+
+                if (before >= 0) {
+                    addRow(rebuilt, ratings, before, -1);
+                    collectFilms(rated, ratings, before);
+                }
+
+                if (after >= 0) {
+                    addRow(rebuilt, current, after, 1);
+                    collectFilms(rated, current, after);
+                }
+
+                collectPairs(pairs, rated);
+            }
+
+            filmIds.forEach(rebuilt::removeFilm);
+
+            List<FilmDeviation> corrected = new ArrayList<>(pairs.size());
+            for (long pair : pairs) {
+                int filmId = (int) (pair >>> 32);
+                int otherFilmId = (int) pair;
+                corrected.add(new FilmDeviation(filmId, otherFilmId, rebuilt.getDiffSum(filmId, otherFilmId),
+                        rebuilt.getCount(filmId, otherFilmId)));
+            }
+
+            recommendationStorage.saveDeviations(corrected);
+            publish(rebuilt);
+
+            log.info("Матрица отклонений Slope One пересчитана за {} мс, пользователей: {}, оценок: {} ({} КБ), " +
+                            "фильмов: {}, потоков: {}, пересчитано пользователей после чтения: {}",
+                    System.currentTimeMillis() - start, ratings.getUserCount(), ratings.getRatingCount(),
+                    ratings.getSizeInBytes() / 1024, rebuilt.size(), buildParallelism, userIds.size());
+        } finally {
+            changeLock.writeLock().unlock();
+        }
+    }
+
+    private void setMissed(Set<Integer> userIds, Set<Integer> filmIds) {
+        lock.writeLock().lock();
+        try {
+            missedUserIds = userIds;
+            missedFilmIds = filmIds;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void collectFilms(Set<Integer> target, RatingMatrix ratings, int row) {
+        for (int i = ratings.rowStart(row); i < ratings.rowEnd(row); i++) {
+            target.add(ratings.filmIdAt(i));
+        }
+    }
+
+    // rated отсортированы, поэтому в паре первым идет меньший id, как в film_deviation
+    private static void collectPairs(Set<Long> target, Set<Integer> rated) {
+        List<Integer> filmIds = new ArrayList<>(rated);
+
+        for (int i = 0; i < filmIds.size(); i++) {
+            for (int j = i + 1; j < filmIds.size(); j++) {
+                target.add(((long) filmIds.get(i) << 32) | filmIds.get(j));
+            }
+        }
+    }
+
+    // Снимок годится, только если событие, на котором он сделан, все еще есть в ленте: после очистки базы
+    // id событий начинаются заново. Дальше пересчитываются только пользователи, оценившие фильмы после него
+    private boolean restoreSnapshot() {
+        long start = System.currentTimeMillis();
+        RecommendationSnapshot snapshot;
+
+        try {
+            snapshot = RecommendationSnapshot.read(snapshotPath);
+        } catch (IOException e) {
+            log.warn("Снимок рекомендаций {} не прочитан: {}", snapshotPath, e.getMessage());
+            return false;
+        }
+
+        Long eventTime = recommendationStorage.getEventTime(snapshot.getLastEventId());
+
+        if (eventTime == null || eventTime != snapshot.getLastEventTime()) {
+            log.warn("Снимок рекомендаций {} не соответствует ленте событий и будет пропущен", snapshotPath);
+            return false;
+        }
+
+        long lastEventId = recommendationStorage.getLastEventId();
+        Set<Integer> userIds = recommendationStorage.getUserIds();
+        Set<Integer> filmIds = recommendationStorage.getFilmIds();
+        Set<Integer> changedUserIds = recommendationStorage.getUsersRatedAfter(snapshot.getLastEventId());
+
+        RatingMatrix before = snapshot.getRatings();
+        for (int row = 0; row < before.getUserCount(); row++) {
+            if (!userIds.contains(before.userIdAt(row))) {
+                changedUserIds.add(before.userIdAt(row));
+            }
+        }
+
+        RatingMatrix changed = recommendationStorage.loadRatingMatrix(changedUserIds);
+        DeviationMatrix restored = snapshot.getDeviations();
+        RatingMatrix.Builder merged = RatingMatrix.builder();
+        int i = 0;
+        int j = 0;
+
+        while (i < before.getUserCount() || j < changed.getUserCount()) {
+            int userBefore = i < before.getUserCount() ? before.userIdAt(i) : Integer.MAX_VALUE;
+            int userChanged = j < changed.getUserCount() ? changed.userIdAt(j) : Integer.MAX_VALUE;
+
+            if (userBefore < userChanged) {
+                if (changedUserIds.contains(userBefore)) {
+                    addRow(restored, before, i, -1);
+                } else {
+                    copyRow(merged, before, i, filmIds);
+                }
+
+                i++;
+                continue;
+            }
+
+            if (userBefore == userChanged) {
+                addRow(restored, before, i, -1);
+                i++;
+            }
+
+            addRow(restored, changed, j, 1);
+            copyRow(merged, changed, j, filmIds);
+            j++;
+        }
+
+        List<Integer> removedFilmIds = new ArrayList<>();
+        restored.forEachFilm((filmId, row) -> {
+            if (!filmIds.contains(filmId)) {
+                removedFilmIds.add(filmId);
+            }
+        });
+        removedFilmIds.forEach(restored::removeFilm);
+
+        RatingMatrix ratings = merged.build();
+
+        if (ratings.getRatingCount() != recommendationStorage.getRatingCount()) {
+            log.warn("Оценки в снимке рекомендаций {} расходятся с базой, снимок будет пропущен", snapshotPath);
+            return false;
+        }
+
+        publish(restored);
+
+        log.info("Матрица отклонений Slope One восстановлена из снимка за {} мс, пересчитано пользователей: {}, " +
+                "удалено фильмов: {}", System.currentTimeMillis() - start, changedUserIds.size(), removedFilmIds.size());
+
+        if (lastEventId != snapshot.getLastEventId()) {
+            writeSnapshot(ratings, restored, lastEventId, recommendationStorage.getEventTime(lastEventId));
+        }
+
+        return true;
+    }
+
+    private void writeSnapshot(RatingMatrix ratings, DeviationMatrix deviations, long lastEventId,
+                               Long lastEventTime) {
+        if (snapshotPath == null || lastEventTime == null) {
+            return;
+        }
+
+        try {
+            RecommendationSnapshot.write(snapshotPath, lastEventId, lastEventTime, ratings, deviations);
+            log.info("Снимок рекомендаций записан в {}, последнее учтенное событие: {}", snapshotPath, lastEventId);
+        } catch (IOException e) {
+            log.warn("Не удалось записать снимок рекомендаций {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    static DeviationMatrix build(RatingMatrix ratings, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+        try {
+            return pool.invoke(new BuildTask(ratings, 0, ratings.getUserCount()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void publish(DeviationMatrix published) {
+        lock.writeLock().lock();
+        try {
+            matrix = published;
+            modelChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void likeAdded(int userId, int filmId, int mark, Runnable write) {
+        changeRatings(userId, toSupplier(write), marksBefore -> {
+            Integer oldMark = marksBefore.get(filmId);
+            List<FilmDeviation> changed = new ArrayList<>();
+
+            for (Map.Entry<Integer, Integer> other : marksBefore.entrySet()) {
+                if (other.getKey() == filmId) {
+                    continue;
+                }
+
+                if (oldMark == null) {
+                    changed.add(new FilmDeviation(filmId, other.getKey(), mark - other.getValue(), 1));
+                } else if (mark != oldMark) {
+                    changed.add(new FilmDeviation(filmId, other.getKey(), mark - oldMark, 0));
+                }
+            }
+
+            return changed;
+        });
+    }
+
+    @Override
+    public void likeRemoved(int userId, int filmId, Runnable write) {
+        changeRatings(userId, toSupplier(write), marksBefore -> {
+            Integer oldMark = marksBefore.get(filmId);
+            List<FilmDeviation> changed = new ArrayList<>();
+
+            if (oldMark == null) {
+                return changed;
+            }
+
+            for (Map.Entry<Integer, Integer> other : marksBefore.entrySet()) {
+                if (other.getKey() != filmId) {
+                    changed.add(new FilmDeviation(filmId, other.getKey(), other.getValue() - oldMark, -1));
+                }
+            }
+
+            return changed;
+        });
+    }
+
+    @Override
+    public <T> T userRemoved(int userId, Supplier<T> delete) {
+        return changeRatings(userId, delete, marks -> {
+            List<Map.Entry<Integer, Integer>> rated = new ArrayList<>(marks.entrySet());
+            List<FilmDeviation> changed = new ArrayList<>();
+
+            for (int i = 0; i < rated.size(); i++) {
+                for (int j = i + 1; j < rated.size(); j++) {
+                    changed.add(new FilmDeviation(rated.get(i).getKey(), rated.get(j).getKey(),
+                            rated.get(j).getValue() - rated.get(i).getValue(), -1));
+                }
+            }
+
+            return changed;
+        });
+    }
+
+    // Строки film_deviation удаляются вместе с фильмом каскадно, в матрице фильм убирается после удаления
+    @Override
+    public <T> T filmRemoved(int filmId, Supplier<T> delete) {
+        changeLock.readLock().lock();
+        try {
+            T deleted = delete.get();
+            apply(target -> target.removeFilm(filmId), null, filmId);
+
+            return deleted;
+        } finally {
+            changeLock.readLock().unlock();
+        }
+    }
+
+    // Прежние оценки пользователя читаются, изменение записывается и поправки сохраняются в film_deviation
+    // одной транзакцией под блокировкой пользователя, поэтому параллельные оценки одного пользователя видят
+    // друг друга, а сохраненная матрица не расходится с film_likes. В память поправки попадают после фиксации
+    private <T> T changeRatings(int userId, Supplier<T> write,
+                                Function<Map<Integer, Integer>, List<FilmDeviation>> deviationChanges) {
+        changeLock.readLock().lock();
+        try {
+            synchronized (userLocks[Math.floorMod(userId, userLocks.length)]) {
+                List<FilmDeviation> changed = new ArrayList<>();
+                T result = transactionTemplate.execute(status -> {
+                    changed.addAll(deviationChanges.apply(recommendationStorage.getUserMarks(userId)));
+
+                    T written = write.get();
+                    recommendationStorage.addDeviations(changed);
+
+                    return written;
+                });
+
+                apply(target -> changed.forEach(change -> target.add(change.getFilmId(), change.getOtherFilmId(),
+                        change.getDiffSum(), change.getCoCount())), userId, null);
+
+                return result;
+            }
+        } finally {
+            changeLock.readLock().unlock();
+        }
+    }
+
+    private static Supplier<Void> toSupplier(Runnable write) {
+        return () -> {
+            write.run();
+            return null;
+        };
+    }
+
+    private void apply(Consumer<DeviationMatrix> change, Integer userId, Integer removedFilmId) {
+        lock.writeLock().lock();
+        try {
+            change.accept(matrix);
+
+            if (missedUserIds != null && userId != null) {
+                missedUserIds.add(userId);
+            }
+
+            if (missedFilmIds != null && removedFilmId != null) {
+                missedFilmIds.add(removedFilmId);
+            }
+
+            modelChanged();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getModelVersion() {
+        return modelVersion.get();
+    }
+
+    @Override
+    public long getModelChangedAt() {
+        return modelChangedAt;
+    }
+
+    private void modelChanged() {
+        modelVersion.incrementAndGet();
+        modelChangedAt = System.currentTimeMillis();
+    }
+
+    @Override
+    public List<RecommendedFilm> recommendScored(Map<Integer, Integer> userMarks, Integer count) {
+        Map<Integer, long[]> predictions;
+
+        lock.readLock().lock();
+        try {
+            predictions = predict(matrix, userMarks);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return selectTop(predictions, count);
+    }
+
+    // Для каждого неоцененного фильма копятся числитель и знаменатель взвешенного прогноза Slope One
+    static Map<Integer, long[]> predict(DeviationMatrix source, Map<Integer, Integer> userMarks) {
+        Map<Integer, long[]> predictions = new HashMap<>();
+
+        for (Map.Entry<Integer, Integer> rated : userMarks.entrySet()) {
+            int mark = rated.getValue();
+
+            source.forEachPair(rated.getKey(), (candidateId, diffSum, coCount) -> {
+                if (userMarks.containsKey(candidateId)) {
+                    return;
+                }
+
+                long[] prediction = predictions.computeIfAbsent(candidateId, id -> new long[2]);
+                prediction[0] += (long) mark * coCount - diffSum;
+                prediction[1] += coCount;
+            });
+        }
+
+        return predictions;
+    }
+
+    static List<RecommendedFilm> selectTop(Map<Integer, long[]> predictions, Integer count) {
+        TopFilms top = new TopFilms(count == null ? predictions.size() : Math.min(count, predictions.size()));
+
+        predictions.forEach((filmId, prediction) -> {
+            double score = (double) prediction[0] / prediction[1];
+
+            if (score > RECOMMENDATION_THRESHOLD) {
+                top.offer(filmId, score);
+            }
+        });
+
+        return top.toList();
+    }
+
+    private static List<FilmDeviation> toDeviations(DeviationMatrix source) {
+        List<FilmDeviation> deviations = new ArrayList<>();
+
+        source.forEachFilm((filmId, row) -> row.forEach((otherFilmId, diffSum, count) -> {
+            if (filmId < otherFilmId) {
+                deviations.add(new FilmDeviation(filmId, otherFilmId, diffSum, count));
+            }
+        }));
+
+        return deviations;
+    }
+
+    private static final class BuildTask extends RecursiveTask<DeviationMatrix> {
+        private static final long serialVersionUID = 1L;
+
+        private final RatingMatrix ratings;
+        private final int from;
+        private final int to;
+
+        private BuildTask(RatingMatrix ratings, int from, int to) {
+            this.ratings = ratings;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected DeviationMatrix compute() {
+            if (to - from <= USERS_PER_BUILD_TASK) {
+                DeviationMatrix partial = new DeviationMatrix();
+
+                for (int row = from; row < to; row++) {
+                    addRow(partial, ratings, row, 1);
+                }
+
+                return partial;
+            }
+
+            int middle = (from + to) >>> 1;
+            BuildTask left = new BuildTask(ratings, from, middle);
+            left.fork();
+
+            DeviationMatrix right = new BuildTask(ratings, middle, to).compute();
+            DeviationMatrix leftResult = left.join();
+
+            return leftResult.size() >= right.size() ? leftResult.merge(right) : right.merge(leftResult);
+        }
+    }
+
+    private static void addRow(DeviationMatrix target, RatingMatrix ratings, int row, int sign) {
+        int end = ratings.rowEnd(row);
+
+        for (int i = ratings.rowStart(row); i < end; i++) {
+            for (int j = i + 1; j < end; j++) {
+                target.add(ratings.filmIdAt(i), ratings.filmIdAt(j),
+                        sign * (ratings.markAt(i) - ratings.markAt(j)), sign);
+            }
+        }
+    }
+
+    private static void copyRow(RatingMatrix.Builder target, RatingMatrix ratings, int row, Set<Integer> filmIds) {
+        for (int i = ratings.rowStart(row); i < ratings.rowEnd(row); i++) {
+            if (filmIds.contains(ratings.filmIdAt(i))) {
+                target.add(ratings.userIdAt(row), ratings.filmIdAt(i), ratings.markAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+// Синтетические оценки для сравнения движков: популярность фильмов распределена по Ципфу, а пользователи
+// и фильмы разбиты на скрытые группы вкуса - фильмы своей группы оцениваются выше, поэтому качество
+// рекомендаций можно измерить так же, как на реальных данных
+final class SyntheticRatings {
+    private static final int TASTE_GROUPS = 8;
+    private static final int ATTEMPTS_PER_RATING = 20;
+
+    private SyntheticRatings() {
+    }
+
+    static RatingMatrix generate(int users, int films, int ratingsPerUser, double zipfExponent, long seed) {
+        Random random = new Random(seed);
+        double[] popularity = zipfDistribution(films, zipfExponent);
+        RatingMatrix.Builder builder = RatingMatrix.builder();
+
+        for (int userId = 1; userId <= users; userId++) {
+            int taste = random.nextInt(TASTE_GROUPS);
+            int count = Math.min(films, 1 + random.nextInt(2 * Math.min(films, ratingsPerUser)));
+            Map<Integer, Integer> marks = new TreeMap<>();
+
+            // При сильном перекосе хвостовые фильмы почти не выпадают, поэтому число попыток ограничено
+            for (int attempt = 0; marks.size() < count && attempt < count * ATTEMPTS_PER_RATING; attempt++) {
+                int film = sample(popularity, random);
+                boolean liked = film % TASTE_GROUPS == taste;
+                marks.putIfAbsent(film + 1, liked ? 7 + random.nextInt(4) : 1 + random.nextInt(6));
+            }
+
+            for (Map.Entry<Integer, Integer> mark : marks.entrySet()) {
+                builder.add(userId, mark.getKey(), mark.getValue());
+            }
+        }
+
+        return builder.build();
+    }
+
+    // Накопленные вероятности: фильм с рангом r выбирается с вероятностью, пропорциональной 1 / r^s
+    private static double[] zipfDistribution(int films, double exponent) {
+        double[] cumulative = new double[films];
+        double sum = 0;
+
+        for (int rank = 0; rank < films; rank++) {
+            sum += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = sum;
+        }
+
+        for (int rank = 0; rank < films; rank++) {
+            cumulative[rank] /= sum;
+        }
+
+        return cumulative;
+    }
+
+    private static int sample(double[] cumulative, Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+}
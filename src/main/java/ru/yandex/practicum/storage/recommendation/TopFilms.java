@@ -0,0 +1,44 @@
+package ru.yandex.practicum.storage.recommendation;
+
+import ru.yandex.practicum.model.film.RecommendedFilm;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+// Отбор лучших фильмов по прогнозу кучей ограниченного размера: в корне лежит худший из отобранных
+final class TopFilms {
+    private static final Comparator<RecommendedFilm> BY_SCORE = Comparator
+            .<RecommendedFilm>comparingDouble(scored -> -scored.getScore())
+            .thenComparingInt(RecommendedFilm::getFilmId);
+
+    private final int limit;
+    private final PriorityQueue<RecommendedFilm> top;
+
+    TopFilms(int limit) {
+        this.limit = limit;
+        this.top = new PriorityQueue<>(Math.max(limit, 1), BY_SCORE.reversed());
+    }
+
+    void offer(int filmId, double score) {
+        if (limit <= 0) {
+            return;
+        }
+
+        RecommendedFilm scored = new RecommendedFilm(filmId, score);
+
+        if (top.size() < limit) {
+            top.add(scored);
+        } else if (BY_SCORE.compare(scored, top.peek()) < 0) {
+            top.poll();
+            top.add(scored);
+        }
+    }
+
+    List<RecommendedFilm> toList() {
+        return top.stream()
+                .sorted(BY_SCORE)
+                .collect(Collectors.toList());
+    }
+}
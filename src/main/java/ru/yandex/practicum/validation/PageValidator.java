@@ -0,0 +1,17 @@
+package ru.yandex.practicum.validation;
+
+import ru.yandex.practicum.exception.ValidationException;
+
+public class PageValidator {
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    public static void validate(Integer afterId, Integer limit) {
+        if (afterId == null || afterId < 0) {
+            throw new ValidationException("Параметр afterId не может быть отрицательным");
+        }
+
+        if (limit == null || limit <= 0 || limit > MAX_PAGE_SIZE) {
+            throw new ValidationException("Параметр limit должен быть от 1 до " + MAX_PAGE_SIZE);
+        }
+    }
+}
@@ -12,6 +12,7 @@ DELETE FROM event_feed;
 ALTER TABLE event_feed ALTER COLUMN event_id RESTART WITH 1;
 DELETE FROM reviews;
 ALTER TABLE reviews ALTER COLUMN review_id RESTART WITH 1;
+DELETE FROM recommendation_job;
 
 
 
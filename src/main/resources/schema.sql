@@ -48,6 +48,8 @@ CREATE TABLE IF NOT EXISTS user_friends
     status_id INTEGER DEFAULT 1,
     FOREIGN KEY (status_id) REFERENCES status (status_id) ON DELETE RESTRICT
 );
+CREATE INDEX IF NOT EXISTS user_friends_user_friend_idx ON user_friends (user_id, friend_id);
+CREATE INDEX IF NOT EXISTS user_friends_friend_status_idx ON user_friends (friend_id, status_id);
 
 CREATE TABLE IF NOT EXISTS film_likes
 (
@@ -57,6 +59,58 @@ CREATE TABLE IF NOT EXISTS film_likes
     FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE,
     mark    INTEGER
 );
+-- у пользователя одна оценка фильма, повторная оценка заменяет прежнюю
+CREATE UNIQUE INDEX IF NOT EXISTS film_likes_film_user_idx ON film_likes (film_id, user_id);
+
+CREATE TABLE IF NOT EXISTS film_stats
+(
+    film_id    INTEGER PRIMARY KEY,
+    FOREIGN KEY (film_id) REFERENCES film (film_id) ON DELETE CASCADE,
+    like_count INTEGER DEFAULT 0 NOT NULL,
+    mark_sum   INTEGER DEFAULT 0 NOT NULL,
+    mark_count INTEGER DEFAULT 0 NOT NULL,
+    version    BIGINT  DEFAULT 0 NOT NULL,
+    rating     INTEGER DEFAULT 0 NOT NULL
+);
+ALTER TABLE film_stats ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+-- округленная средняя оценка хранится, чтобы сортировка по рейтингу шла по индексу
+ALTER TABLE film_stats ADD COLUMN IF NOT EXISTS rating INTEGER DEFAULT 0 NOT NULL;
+
+CREATE INDEX IF NOT EXISTS film_stats_rating_idx ON film_stats (rating DESC, like_count DESC, film_id);
+
+CREATE TABLE IF NOT EXISTS film_deviation
+(
+    film_id       INTEGER,
+    FOREIGN KEY (film_id) REFERENCES film (film_id) ON DELETE CASCADE,
+    other_film_id INTEGER,
+    FOREIGN KEY (other_film_id) REFERENCES film (film_id) ON DELETE CASCADE,
+    diff_sum      INTEGER NOT NULL,
+    co_count      INTEGER NOT NULL,
+    PRIMARY KEY (film_id, other_film_id)
+);
+
+CREATE TABLE IF NOT EXISTS user_recommendations
+(
+    user_id     INTEGER,
+    FOREIGN KEY (user_id) REFERENCES users (user_id) ON DELETE CASCADE,
+    film_id     INTEGER,
+    FOREIGN KEY (film_id) REFERENCES film (film_id) ON DELETE CASCADE,
+    score       DOUBLE    NOT NULL,
+    computed_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (user_id, film_id)
+);
+
+CREATE INDEX IF NOT EXISTS user_recommendations_user_score_idx ON user_recommendations (user_id, score DESC);
+
+CREATE TABLE IF NOT EXISTS recommendation_job
+(
+    job_id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    started_at      TIMESTAMP NOT NULL,
+    finished_at     TIMESTAMP,
+    last_user_id    INTEGER   NOT NULL DEFAULT 0,
+    processed_users INTEGER   NOT NULL DEFAULT 0,
+    total_users     INTEGER   NOT NULL
+);
 
 CREATE TABLE IF NOT EXISTS film_genre
 (
@@ -102,6 +156,16 @@ CREATE TABLE IF NOT EXISTS event_feed
     operation  VARCHAR,
     entity_id  INTEGER
 );
+CREATE INDEX IF NOT EXISTS event_feed_user_idx ON event_feed (user_id);
+
+CREATE TABLE IF NOT EXISTS user_timeline
+(
+    owner_id INTEGER,
+    FOREIGN KEY (owner_id) REFERENCES users (user_id) ON DELETE CASCADE,
+    event_id INTEGER,
+    FOREIGN KEY (event_id) REFERENCES event_feed (event_id) ON DELETE CASCADE,
+    PRIMARY KEY (owner_id, event_id)
+);
 
 
 CREATE TABLE IF NOT EXISTS director
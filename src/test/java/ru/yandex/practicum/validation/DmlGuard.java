@@ -0,0 +1,92 @@
+package ru.yandex.practicum.validation;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+
+// Оборачивает DataSource в тестах: пока в потоке выполняется readOnly, любой INSERT, UPDATE, DELETE или MERGE
+// роняет тест. Фоновые потоки не проверяются
+class DmlGuard implements BeanPostProcessor {
+    private static final Pattern DML = Pattern.compile("^\\s*(INSERT|UPDATE|DELETE|MERGE)\\b.*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final ThreadLocal<Boolean> READ_ONLY = ThreadLocal.withInitial(() -> false);
+
+    static void readOnly(Runnable action) {
+        READ_ONLY.set(true);
+        try {
+            action.run();
+        } finally {
+            READ_ONLY.set(false);
+        }
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof GuardedDataSource)) {
+            return new GuardedDataSource((DataSource) bean);
+        }
+
+        return bean;
+    }
+
+    private static void check(Object sql) {
+        if (READ_ONLY.get() && sql instanceof String && DML.matcher((String) sql).matches()) {
+            throw new AssertionError("Чтение изменило данные в БД: " + sql);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T guard(T target, Class<T> type) {
+        return (T) Proxy.newProxyInstance(DmlGuard.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (args != null && args.length > 0 && isSqlMethod(method)) {
+                        check(args[0]);
+                    }
+
+                    Object result = invoke(target, method, args);
+
+                    if (result instanceof Statement && method.getName().equals("createStatement")) {
+                        return guard((Statement) result, Statement.class);
+                    }
+
+                    return result;
+                });
+    }
+
+    private static boolean isSqlMethod(Method method) {
+        String name = method.getName();
+        return name.startsWith("prepare") || name.startsWith("execute") || name.equals("addBatch");
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    private static final class GuardedDataSource extends DelegatingDataSource {
+        private GuardedDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return guard(super.getConnection(), Connection.class);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return guard(super.getConnection(username, password), Connection.class);
+        }
+    }
+}
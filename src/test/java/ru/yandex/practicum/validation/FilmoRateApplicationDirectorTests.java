@@ -7,6 +7,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
 import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.exception.UnknownDataException;
 import ru.yandex.practicum.model.film.Director;
@@ -15,6 +16,7 @@ import ru.yandex.practicum.model.user.User;
 import ru.yandex.practicum.service.DirectorService;
 import ru.yandex.practicum.service.FilmService;
 import ru.yandex.practicum.service.UserService;
+import ru.yandex.practicum.storage.cache.LruCache;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -22,10 +24,13 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 @AutoConfigureTestDatabase
+@Import(DmlGuard.class)
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 class FilmoRateApplicationDirectorTests {
     private final FilmService filmService;
@@ -146,6 +151,94 @@ class FilmoRateApplicationDirectorTests {
                 "Неправильная сортировка по году");
     }
 
+    @Test
+    @DisplayName("Чтение фильмов, режиссеров и пользователей не изменяет данные в БД")
+    void readFilmsWithDirectorsWithoutDmlTest() {
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        Director director = directorService.addDirector(new Director(1000, "Sprielbeg"));
+
+        Film film = new Film("Бегущий по лезвию", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1));
+        film.setDirectors(Arrays.asList(director));
+        film = filmService.put(film);
+        int filmId = film.getId();
+
+        filmService.addLike(filmId, user.getId(), 10);
+
+        DmlGuard.readOnly(() -> {
+            filmService.get(filmId);
+            filmService.getAll();
+            filmService.getPage(0, 10);
+            filmService.getTop(10);
+            filmService.getFilmDirectorSortedBy(director.getId(), "year");
+            filmService.getFilmDirectorSortedBy(director.getId(), "likes");
+            filmService.findPopularFilmsByYear(2005);
+            filmService.findLimitPopularFilmsByGenreAndYear(10, 1, 2005);
+            filmService.searchFilms("бегущий", "title,director");
+            filmService.getCommonFilms(user.getId(), user.getId());
+            filmService.findSimilarFilms(filmId, 10);
+            directorService.getDirector(director.getId());
+            directorService.getAllDirectors();
+            userService.get(user.getId());
+            userService.getAll();
+            userService.getAllFriends(user.getId());
+            userService.getRecommendations(user.getId());
+        });
+
+        assertEquals(List.of(director), filmService.get(filmId).getDirectors(), "Режиссеры фильма задублировались");
+    }
+
+    @Test
+    @DisplayName("Режиссеры фильмов читаются из кэша и сбрасываются при обновлении")
+    void directorCacheTest() {
+        Director director = directorService.addDirector(new Director(1000, "Sprielbeg"));
+
+        Film film = new Film("Бегущий по лезвию", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1));
+        film.setDirectors(Arrays.asList(director));
+        int filmId = filmService.put(film).getId();
+
+        filmService.get(filmId);
+        long directorHits = directorService.getCacheStats().get("directors").getHits();
+        long filmDirectorsHits = directorService.getCacheStats().get("filmDirectors").getHits();
+
+        filmService.get(filmId);
+        assertTrue(directorService.getCacheStats().get("directors").getHits() > directorHits,
+                "Режиссер не взят из кэша");
+        assertTrue(directorService.getCacheStats().get("filmDirectors").getHits() > filmDirectorsHits,
+                "Режиссеры фильма не взяты из кэша");
+
+        directorService.updateDirector(new Director(director.getId(), "Spielberg"));
+        assertEquals("Spielberg", filmService.get(filmId).getDirectors().get(0).getName(),
+                "Кэш режиссеров не сброшен после обновления");
+
+        Director director2 = directorService.addDirector(new Director(1000, "Jonson"));
+        Film filmForUpdate = filmService.get(filmId);
+        filmForUpdate.setDirectors(Arrays.asList(director2));
+        filmService.update(filmForUpdate);
+        assertEquals(List.of(director2), filmService.get(filmId).getDirectors(),
+                "Кэш режиссеров фильма не сброшен после обновления фильма");
+    }
+
+    @Test
+    @DisplayName("Кэш режиссеров не отдает наружу свои объекты и не принимает значения, прочитанные до сброса")
+    void directorCacheIsolationTest() {
+        Director director = directorService.addDirector(new Director(1000, "Sprielbeg"));
+
+        directorService.getDirector(director.getId()).setName("Изменен снаружи");
+        assertEquals("Sprielbeg", directorService.getDirector(director.getId()).getName(),
+                "Изменение возвращенного режиссера попало в кэш");
+
+        LruCache<Integer, String> cache = new LruCache<>(10);
+        long invalidationCount = cache.getInvalidationCount();
+        cache.invalidate(1);
+        cache.putIfNotInvalidated(1, "устаревшее значение", invalidationCount);
+        assertNull(cache.get(1), "В кэш попало значение, прочитанное до сброса");
+
+        cache.putIfNotInvalidated(1, "свежее значение", cache.getInvalidationCount());
+        assertEquals("свежее значение", cache.get(1), "Значение не попало в кэш");
+    }
+
     @Test
     @DisplayName("Запрос всех фильмов режиссёра, по неверному id")
     void SearchFilmsByDirectorSortedWrongIdTest() {
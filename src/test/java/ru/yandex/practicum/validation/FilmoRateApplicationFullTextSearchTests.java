@@ -0,0 +1,22 @@
+package ru.yandex.practicum.validation;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.service.DirectorService;
+import ru.yandex.practicum.service.FilmService;
+import ru.yandex.practicum.service.UserService;
+import ru.yandex.practicum.storage.FilmSearchStorage;
+import ru.yandex.practicum.storage.index.PopularFilmsIndex;
+
+@SpringBootTest(properties = "filmorate.search.mode=fulltext")
+class FilmoRateApplicationFullTextSearchTests extends FilmoRateApplicationSearchTests {
+
+    @Autowired
+    FilmoRateApplicationFullTextSearchTests(FilmService filmService, UserService userService,
+                                            DirectorService directorService, JdbcTemplate jdbcTemplate,
+                                            FilmSearchStorage filmSearchStorage,
+                                            PopularFilmsIndex popularFilmsIndex) {
+        super(filmService, userService, directorService, jdbcTemplate, filmSearchStorage, popularFilmsIndex);
+    }
+}
@@ -7,16 +7,22 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.jdbc.core.JdbcTemplate;
+import ru.yandex.practicum.exception.ValidationException;
 import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.model.film.FilmStats;
 import ru.yandex.practicum.model.user.User;
 import ru.yandex.practicum.service.FilmService;
 import ru.yandex.practicum.service.UserService;
+import ru.yandex.practicum.storage.FilmStorage;
+import ru.yandex.practicum.storage.index.PopularFilmsIndex;
 
 import java.time.LocalDate;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 @AutoConfigureTestDatabase
@@ -24,6 +30,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 class FilmoRateApplicationMostPopularTests {
     private final FilmService filmService;
     private final UserService userService;
+    private final FilmStorage filmStorage;
+    private final PopularFilmsIndex popularFilmsIndex;
     private final JdbcTemplate jdbcTemplate;
 
     @BeforeEach
@@ -149,4 +157,124 @@ class FilmoRateApplicationMostPopularTests {
                 () -> assertEquals(2, filmList.size(), "Данные не верны")
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void nonPositiveCountTest() {
+        Film film = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей", LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        User user = userService.put(new User("alala@test.t", "lalala", "Liza", LocalDate.of(2002, 10, 7)));
+
+        assertAll(
+                () -> assertThrows(ValidationException.class, () -> filmService.getTop(-1)),
+                () -> assertThrows(ValidationException.class, () -> filmService.getTop(0)),
+                () -> assertThrows(ValidationException.class,
+                        () -> filmService.findLimitPopularFilmsByGenreAndYear(-1, 1, 2005)),
+                () -> assertThrows(ValidationException.class, () -> filmService.searchFilms("тяжкие", "title", -1)),
+                () -> assertThrows(ValidationException.class, () -> filmService.findSimilarFilms(film.getId(), 0)),
+                () -> assertThrows(ValidationException.class, () -> userService.getRecommendations(user.getId(), -1))
+        );
+    }
+
+    @Test
+    void rebuildFilmStatsTest() {
+        User user1 = userService.put(new User("alala@test.t", "lalala", "Liza", LocalDate.of(2002, 10, 7)));
+        User user2 = userService.put(new User("jlj@test.t", "Hello", "Bin", LocalDate.of(2000, 1, 1)));
+
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей", LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее", LocalDate.of(2005, 10, 9), 120, filmService.getCategoryById(2)));
+
+        filmService.addLike(film1.getId(), user1.getId(), 4);
+        filmService.addLike(film2.getId(), user1.getId(), 8);
+        filmService.addLike(film2.getId(), user2.getId(), 6);
+        filmService.addLike(film1.getId(), user2.getId(), 2);
+        filmService.removeLike(film1.getId(), user2.getId());
+
+        List<Film> expected = filmService.findPopularFilmsByYear(2005);
+
+        jdbcTemplate.update("UPDATE film_stats SET like_count = 0, mark_sum = 0, mark_count = 0, rating = 0");
+        filmService.rebuildStats();
+
+        List<Film> actual = filmService.findPopularFilmsByYear(2005);
+
+        assertAll(
+                () -> assertEquals(film2.getId(), actual.get(0).getId(), "Неверный порядок фильмов"),
+                () -> assertEquals(7, actual.get(0).getMiddleRating(), "Неверно посчитан рейтинг фильма"),
+                () -> assertEquals(4, actual.get(1).getMiddleRating(), "Неверно посчитан рейтинг фильма"),
+                () -> assertEquals(expected, actual, "Статистика после пересчета не совпадает с накопленной")
+        );
+    }
+
+    @Test
+    void popularFilmsIndexConsistencyTest() {
+        popularFilmsIndex.rebuild();
+
+        User user1 = userService.put(new User("alala@test.t", "lalala", "Liza", LocalDate.of(2002, 10, 7)));
+        User user2 = userService.put(new User("jlj@test.t", "Hello", "Bin", LocalDate.of(2000, 1, 1)));
+
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей", LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        film1.setGenres(List.of(filmService.getGenreById(2), filmService.getGenreById(6)));
+        filmService.update(film1);
+
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее", LocalDate.of(2005, 10, 9), 120, filmService.getCategoryById(2)));
+        film2.setGenres(List.of(filmService.getGenreById(6)));
+        filmService.update(film2);
+
+        Film film3 = filmService.put(new Film("Сплетница", "Сериал про сплетниц", LocalDate.of(2007, 10, 9), 45, filmService.getCategoryById(3)));
+        Film film4 = filmService.put(new Film("Удаленный", "Фильм, который удалят", LocalDate.of(2005, 10, 9), 90, filmService.getCategoryById(3)));
+
+        filmService.addLike(film1.getId(), user1.getId(), 6);
+        filmService.addLike(film2.getId(), user1.getId(), 9);
+        filmService.addLike(film3.getId(), user1.getId(), 9);
+        filmService.addLike(film3.getId(), user2.getId(), 9);
+        filmService.addLike(film1.getId(), user2.getId(), 10);
+        filmService.removeLike(film1.getId(), user2.getId());
+        filmService.addLike(film4.getId(), user2.getId(), 10);
+        filmService.deleteById(film4.getId());
+
+        film3.setReleaseDate(LocalDate.of(2005, 1, 1));
+        film3.setGenres(List.of(filmService.getGenreById(6)));
+        filmService.update(film3);
+
+        assertAll(
+                () -> assertTrue(popularFilmsIndex.findInconsistentFilms().isEmpty(), "Индекс расходится с БД"),
+                () -> assertEquals(filmStorage.getTop(10), filmService.getTop(10), "Неверный топ фильмов"),
+                () -> assertEquals(filmStorage.findPopularFilmsByGenre(6), filmService.findPopularFilmsByGenre(6),
+                        "Неверный топ фильмов по жанру"),
+                () -> assertEquals(filmStorage.findPopularFilmsByYear(2005), filmService.findPopularFilmsByYear(2005),
+                        "Неверный топ фильмов по году"),
+                () -> assertEquals(filmStorage.findPopularFilmsByYearAndGenre(2005, 6),
+                        filmService.findPopularFilmsByYearAndGenre(2005, 6), "Неверный топ фильмов по жанру и году"),
+                () -> assertEquals(filmStorage.findLimitPopularFilmsByGenreAndYear(2, 6, 2005),
+                        filmService.findLimitPopularFilmsByGenreAndYear(2, 6, 2005), "Неверный топ фильмов по жанру и году")
+        );
+    }
+
+    @Test
+    void popularFilmsIndexSkipsStaleStatsTest() {
+        User user1 = userService.put(new User("alala@test.t", "lalala", "Liza", LocalDate.of(2002, 10, 7)));
+        User user2 = userService.put(new User("jlj@test.t", "Hello", "Bin", LocalDate.of(2000, 1, 1)));
+
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей", LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее", LocalDate.of(2005, 10, 9), 120, filmService.getCategoryById(2)));
+
+        filmService.addLike(film1.getId(), user1.getId(), 6);
+        filmService.addLike(film2.getId(), user2.getId(), 4);
+        FilmStats staleStats = filmStorage.getStats(film2.getId());
+        filmService.addLike(film2.getId(), user1.getId(), 10);
+
+        popularFilmsIndex.updateStats(staleStats);
+
+        assertAll(
+                () -> assertTrue(popularFilmsIndex.findInconsistentFilms().isEmpty(),
+                        "Устаревшая статистика перезаписала свежую"),
+                () -> assertEquals(film2.getId(), filmService.getTop(10).get(0).getId(), "Неверный топ фильмов")
+        );
+
+        userService.deleteById(user1.getId());
+
+        assertAll(
+                () -> assertTrue(popularFilmsIndex.findInconsistentFilms().isEmpty(),
+                        "Индекс не обновлен после удаления пользователя"),
+                () -> assertEquals(filmStorage.getTop(10), filmService.getTop(10), "Неверный топ фильмов")
+        );
+    }
+}
@@ -4,23 +4,47 @@ import lombok.RequiredArgsConstructor;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.yandex.practicum.exception.UnknownDataException;
+import ru.yandex.practicum.exception.ValidationException;
+import ru.yandex.practicum.model.RecommendationBatchStats;
+import ru.yandex.practicum.model.RecommendationCacheStats;
+import ru.yandex.practicum.model.RecommendationEvaluation;
 import ru.yandex.practicum.model.film.Film;
 import ru.yandex.practicum.model.user.User;
 import ru.yandex.practicum.service.FilmService;
 import ru.yandex.practicum.service.UserService;
+import ru.yandex.practicum.storage.RecommendationStorage;
+import ru.yandex.practicum.storage.cache.RecommendationCache;
+import ru.yandex.practicum.storage.recommendation.AlsRecommender;
+import ru.yandex.practicum.storage.recommendation.RatingMatrix;
+import ru.yandex.practicum.storage.recommendation.RecommendationBatchJob;
+import ru.yandex.practicum.storage.recommendation.Recommender;
+import ru.yandex.practicum.storage.recommendation.SlopeOneRecommender;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatExceptionOfType;
+import static org.assertj.core.api.AssertionsForClassTypes.within;
 import static org.junit.jupiter.api.Assertions.assertAll;
 
 @SpringBootTest
@@ -30,6 +54,11 @@ class FilmoRateApplicationRecommendationTests {
     private final FilmService filmService;
     private final UserService userService;
     private final JdbcTemplate jdbcTemplate;
+    private final RecommendationStorage recommendationStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final RecommendationBatchJob recommendationBatchJob;
+    private final RecommendationCache recommendationCache;
+    private final Recommender recommender;
 
     @BeforeEach
     void setUp() {
@@ -71,6 +100,36 @@ class FilmoRateApplicationRecommendationTests {
         );
     }
 
+    @Test
+    @DisplayName("Повторная оценка фильма заменяет прежнюю")
+    void repeatedLikeReplacesMarkTest() {
+        Film film = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "friend adipisicing", LocalDate.now()));
+
+        filmService.addLike(film.getId(), user1.getId(), 4);
+        filmService.addLike(film.getId(), user1.getId(), 8);
+        filmService.addLike(film.getId(), user2.getId(), 10);
+
+        List<Film> actualResult = filmService.getCommonFilms(user1.getId(), user2.getId());
+        userService.rebuildRecommendations();
+
+        assertAll(
+                () -> assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_likes " +
+                        "WHERE film_id = ? AND user_id = ?", Integer.class, film.getId(), user1.getId()))
+                        .as("Повторная оценка добавила вторую запись!")
+                        .isOne(),
+                () -> assertThat(actualResult.size())
+                        .as("Длина списка общих фильмов не соответствует ожидаемой!")
+                        .isOne(),
+                () -> assertThat(actualResult.get(0).getMiddleRating())
+                        .as("Рейтинг учитывает прежнюю оценку!")
+                        .isEqualTo(9)
+        );
+    }
+
     @Test
     @DisplayName("Получение списка общих фильмов для двух пользователей, у которых их нет")
     void getNoCommonFilmsTest() {
@@ -166,4 +225,666 @@ class FilmoRateApplicationRecommendationTests {
                 .isZero();
     }
 
-}
\ No newline at end of file
+    @Test
+    @DisplayName("Инкрементальное обновление матрицы рекомендаций совпадает с полным пересчетом")
+    void incrementalRecommendationsMatchRebuildTest() {
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        Film film3 = filmService.put(new Film("Сплетница", "Сериал про сплетниц",
+                LocalDate.of(2007, 10, 9), 45, filmService.getCategoryById(3)));
+
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+        User user3 = userService.put(new User("other@mail.ru", "other", "other", LocalDate.now()));
+
+        filmService.addLike(film1.getId(), user1.getId(), 8);
+        filmService.addLike(film2.getId(), user1.getId(), 9);
+        filmService.addLike(film3.getId(), user1.getId(), 2);
+        filmService.addLike(film1.getId(), user2.getId(), 7);
+        filmService.addLike(film3.getId(), user2.getId(), 9);
+        filmService.addLike(film1.getId(), user3.getId(), 6);
+        filmService.addLike(film2.getId(), user3.getId(), 3);
+        filmService.removeLike(film2.getId(), user3.getId());
+
+        List<Film> incremental = userService.getRecommendations(user3.getId());
+        Integer deviationRows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_deviation", Integer.class);
+
+        userService.rebuildRecommendations();
+
+        assertAll(
+                () -> assertThat(incremental.size())
+                        .as("Длина списка рекомендаций не соответствует ожидаемой!")
+                        .isEqualTo(1),
+                () -> assertThat(incremental.get(0).getId())
+                        .as("Список рекомендаций не соответствует ожидаемому!")
+                        .isEqualTo(film2.getId()),
+                () -> assertThat(userService.getRecommendations(user3.getId()))
+                        .as("Рекомендации после пересчета матрицы отличаются от инкрементальных!")
+                        .isEqualTo(incremental),
+                () -> assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM film_deviation", Integer.class))
+                        .as("Сохраненная матрица отклонений отличается от пересчитанной!")
+                        .isEqualTo(deviationRows)
+        );
+    }
+
+    @Test
+    @DisplayName("Параллельные оценки одного пользователя во время пересчета не искажают матрицу отклонений")
+    void concurrentLikesDuringRebuildMatchRebuildTest() throws Exception {
+        User user = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User other = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+        User target = userService.put(new User("other@mail.ru", "other", "other", LocalDate.now()));
+        List<Film> films = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            Film film = filmService.put(new Film("Фильм " + i, "Фильм про будущее",
+                    LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+            filmService.addLike(film.getId(), other.getId(), 3 + i);
+            films.add(film);
+        }
+        filmService.addLike(films.get(0).getId(), target.getId(), 6);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < films.size(); i++) {
+                int filmId = films.get(i).getId();
+                int mark = 10 - i;
+                futures.add(executor.submit(() -> filmService.addLike(filmId, user.getId(), mark)));
+
+                if (i == films.size() / 2) {
+                    futures.add(executor.submit(userService::rebuildRecommendations));
+                }
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        List<Map<String, Object>> incremental = jdbcTemplate.queryForList(
+                "SELECT * FROM film_deviation ORDER BY film_id, other_film_id");
+        List<Film> incrementalRecommendations = userService.getRecommendations(target.getId());
+
+        userService.rebuildRecommendations();
+
+        assertAll(
+                () -> assertThat(jdbcTemplate.queryForList(
+                        "SELECT * FROM film_deviation ORDER BY film_id, other_film_id"))
+                        .as("Сохраненная матрица отклонений отличается от пересчитанной!")
+                        .isEqualTo(incremental),
+                () -> assertThat(userService.getRecommendations(target.getId()))
+                        .as("Рекомендации после пересчета матрицы отличаются от инкрементальных!")
+                        .isEqualTo(incrementalRecommendations)
+        );
+    }
+
+    @Test
+    @DisplayName("Ограничение количества рекомендаций возвращает лучшие по прогнозу фильмы")
+    void getTopRecommendationsTest() {
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+
+        Film seen = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        filmService.addLike(seen.getId(), user1.getId(), 8);
+        filmService.addLike(seen.getId(), user2.getId(), 8);
+
+        for (int mark = 6; mark <= 10; mark++) {
+            Film film = filmService.put(new Film("Фильм " + mark, "Фильм про будущее",
+                    LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+            filmService.addLike(film.getId(), user1.getId(), mark);
+        }
+
+        List<Film> all = userService.getRecommendations(user2.getId());
+        List<Film> top = userService.getRecommendations(user2.getId(), 2);
+
+        assertAll(
+                () -> assertThat(all.size())
+                        .as("Длина списка рекомендаций не соответствует ожидаемой!")
+                        .isEqualTo(5),
+                () -> assertThat(all.get(0).getName())
+                        .as("Рекомендации не отсортированы по прогнозу оценки!")
+                        .isEqualTo("Фильм 10"),
+                () -> assertThat(top)
+                        .as("Ограниченный список рекомендаций не совпадает с началом полного!")
+                        .isEqualTo(all.subList(0, 2))
+        );
+    }
+
+    @Test
+    @DisplayName("Параллельный пересчет матрицы рекомендаций по большому числу пользователей")
+    void parallelRebuildTest() {
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        User target = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+
+        int usersCount = 1000;
+        for (int i = 0; i < usersCount; i++) {
+            User user = userService.put(new User("user" + i + "@mail.ru", "user" + i, "user", LocalDate.now()));
+            jdbcTemplate.update("INSERT INTO film_likes VALUES (?, ?, ?)", film1.getId(), user.getId(), 8);
+            jdbcTemplate.update("INSERT INTO film_likes VALUES (?, ?, ?)", film2.getId(), user.getId(), 9);
+        }
+        jdbcTemplate.update("INSERT INTO film_likes VALUES (?, ?, ?)", film1.getId(), target.getId(), 8);
+
+        userService.rebuildRecommendations();
+
+        assertAll(
+                () -> assertThat(jdbcTemplate.queryForObject("SELECT co_count FROM film_deviation", Integer.class))
+                        .as("Частичные матрицы отклонений объединены неверно!")
+                        .isEqualTo(usersCount),
+                () -> assertThat(jdbcTemplate.queryForObject("SELECT diff_sum FROM film_deviation", Integer.class))
+                        .as("Частичные матрицы отклонений объединены неверно!")
+                        .isEqualTo(-usersCount),
+                () -> assertThat(userService.getRecommendations(target.getId()).get(0).getId())
+                        .as("Список рекомендаций не соответствует ожидаемому!")
+                        .isEqualTo(film2.getId())
+        );
+    }
+
+    @Test
+    @DisplayName("Рекомендации, посчитанные до сброса кэша пользователя, не попадают в кэш")
+    void recommendationsCacheRejectsStalePutTest() {
+        RecommendationCache cache = new RecommendationCache(10, 60000);
+        long epoch = cache.getEpoch();
+
+        cache.invalidate(1);
+        cache.put(1, null, 0, epoch, List.of(5), 0);
+        cache.put(2, null, 0, epoch, List.of(6), 0);
+
+        assertThat(cache.get(1, null, 0))
+                .as("Рекомендации, посчитанные до оценки пользователя, попали в кэш!")
+                .isNull();
+        assertThat(cache.get(2, null, 0))
+                .as("Рекомендации другого пользователя не попали в кэш!")
+                .isEqualTo(List.of(6));
+
+        cache.put(1, null, 0, cache.getEpoch(), List.of(7), 0);
+        assertThat(cache.get(1, null, 0))
+                .as("Рекомендации, посчитанные после сброса, не попали в кэш!")
+                .isEqualTo(List.of(7));
+
+        long beforeReset = cache.getEpoch();
+        cache.invalidateAll();
+        cache.put(3, null, 0, beforeReset, List.of(8), 0);
+        assertThat(cache.get(3, null, 0))
+                .as("Рекомендации, посчитанные до полного сброса, попали в кэш!")
+                .isNull();
+    }
+
+    @Test
+    @DisplayName("Рекомендации без фильмов, удаленных из БД")
+    void recommendationsSkipFilmsMissingInDbTest() {
+        Film film = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        User user = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        int phantomId = film.getId() + 1000;
+
+        recommendationCache.put(user.getId(), null, recommender.getModelVersion(), recommendationCache.getEpoch(),
+                List.of(film.getId(), phantomId), 0);
+
+        List<Film> films = userService.getRecommendations(user.getId(), null);
+
+        assertThat(films.stream().noneMatch(recommended -> recommended.getId() == phantomId))
+                .as("В рекомендациях остался удаленный фильм!")
+                .isTrue();
+    }
+
+    @Test
+    @DisplayName("Кэширование рекомендаций и сброс кэша после оценки пользователя")
+    void recommendationsCacheTest() {
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+
+        Film seen = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film recommended = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        filmService.addLike(seen.getId(), user1.getId(), 8);
+        filmService.addLike(seen.getId(), user2.getId(), 8);
+        filmService.addLike(recommended.getId(), user1.getId(), 9);
+
+        RecommendationCacheStats before = userService.getRecommendationCacheStats();
+        List<Film> first = userService.getRecommendations(user2.getId());
+        List<Film> cached = userService.getRecommendations(user2.getId(), 1);
+        RecommendationCacheStats afterHit = userService.getRecommendationCacheStats();
+
+        filmService.addLike(recommended.getId(), user2.getId(), 9);
+        List<Film> afterLike = userService.getRecommendations(user2.getId());
+        RecommendationCacheStats afterLikeStats = userService.getRecommendationCacheStats();
+
+        assertAll(
+                () -> assertThat(cached)
+                        .as("Рекомендации из кэша не совпадают с рассчитанными!")
+                        .isEqualTo(first),
+                () -> assertThat(afterHit.getHits() - before.getHits())
+                        .as("Повторный запрос рекомендаций не обслужен из кэша!")
+                        .isEqualTo(1L),
+                () -> assertThat(afterHit.getComputations() - before.getComputations())
+                        .as("Рекомендации рассчитаны повторно!")
+                        .isEqualTo(1L),
+                () -> assertThat(afterLike.size())
+                        .as("Кэш рекомендаций не сброшен после оценки пользователя!")
+                        .isEqualTo(0),
+                () -> assertThat(afterLikeStats.getComputations() - afterHit.getComputations())
+                        .as("Рекомендации не пересчитаны после оценки пользователя!")
+                        .isEqualTo(1L)
+        );
+    }
+
+    @Test
+    @DisplayName("Построение разреженной матрицы оценок по таблице лайков")
+    void ratingMatrixTest() {
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        Film film3 = filmService.put(new Film("Прибытие", "Фильм про контакт",
+                LocalDate.of(2016, 9, 1), 116, filmService.getCategoryById(3)));
+
+        filmService.addLike(film1.getId(), user1.getId(), 8);
+        filmService.addLike(film2.getId(), user1.getId(), 6);
+        filmService.addLike(film3.getId(), user1.getId(), 10);
+        filmService.addLike(film1.getId(), user2.getId(), 4);
+        filmService.addLike(film3.getId(), user2.getId(), 5);
+
+        RatingMatrix ratings = recommendationStorage.loadRatingMatrix();
+
+        assertAll(
+                () -> assertThat(ratings.getRatingCount())
+                        .as("Количество оценок в матрице не соответствует ожидаемому!")
+                        .isEqualTo(5),
+                () -> assertThat(ratings.getFilmCount())
+                        .as("Количество фильмов в матрице не соответствует ожидаемому!")
+                        .isEqualTo(3),
+                () -> assertThat(ratings.getMark(user2.getId(), film3.getId()))
+                        .as("Оценка в матрице не соответствует ожидаемой!")
+                        .isEqualTo(5),
+                () -> assertThat(ratings.getMark(user2.getId(), film2.getId()))
+                        .as("В матрице есть оценка, которой нет в базе!")
+                        .isEqualTo(0),
+                () -> assertThat(ratings.getCommonFilms(user1.getId(), user2.getId()))
+                        .as("Общие фильмы пользователей не соответствуют ожидаемым!")
+                        .isEqualTo(new int[]{film1.getId(), film3.getId()}),
+                () -> assertThat(ratings.getSimilarity(film1.getId(), film3.getId()))
+                        .as("Близость фильмов по оценкам рассчитана неверно!")
+                        .isCloseTo((8 * 10 + 4 * 5) / (Math.sqrt(8 * 8 + 4 * 4) * Math.sqrt(10 * 10 + 5 * 5)),
+                                within(1e-9))
+        );
+    }
+
+    @Test
+    @DisplayName("Восстановление матрицы рекомендаций из снимка с пересчетом новых оценок")
+    void restoreRecommendationsFromSnapshotTest(@TempDir Path dir) throws IOException {
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+        User user3 = userService.put(new User("other@mail.ru", "other", "Other Name", LocalDate.now()));
+
+        Film film1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film film2 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        Film film3 = filmService.put(new Film("Прибытие", "Фильм про контакт",
+                LocalDate.of(2016, 9, 1), 116, filmService.getCategoryById(3)));
+
+        filmService.addLike(film1.getId(), user1.getId(), 8);
+        filmService.addLike(film2.getId(), user1.getId(), 9);
+        filmService.addLike(film1.getId(), user2.getId(), 8);
+
+        Path snapshot = dir.resolve("recommendations.snapshot");
+        new SlopeOneRecommender(recommendationStorage, transactionTemplate, 1, snapshot.toString()).rebuild();
+        byte[] written = Files.readAllBytes(snapshot);
+
+        filmService.addLike(film1.getId(), user3.getId(), 6);
+        filmService.addLike(film3.getId(), user3.getId(), 10);
+        filmService.addLike(film3.getId(), user2.getId(), 7);
+        filmService.removeLike(film2.getId(), user1.getId());
+        filmService.addLike(film3.getId(), user1.getId(), 9);
+
+        SlopeOneRecommender restored = new SlopeOneRecommender(recommendationStorage, transactionTemplate, 1, snapshot.toString());
+        restored.init();
+        byte[] rewritten = Files.readAllBytes(snapshot);
+
+        Files.write(snapshot, new byte[]{1, 2, 3});
+        SlopeOneRecommender fallback = new SlopeOneRecommender(recommendationStorage, transactionTemplate, 1, snapshot.toString());
+        fallback.init();
+
+        SlopeOneRecommender rebuilt = new SlopeOneRecommender(recommendationStorage, transactionTemplate, 1, "");
+        rebuilt.rebuild();
+
+        assertThat(rewritten)
+                .as("Снимок не обновлен после пересчета новых оценок!")
+                .isNotEqualTo(written);
+
+        for (User user : List.of(user1, user2, user3)) {
+            assertAll(
+                    () -> assertThat(restored.recommend(recommendationStorage.getUserMarks(user.getId()), null))
+                            .as("Рекомендации после восстановления из снимка отличаются от полного пересчета!")
+                            .isEqualTo(rebuilt.recommend(recommendationStorage.getUserMarks(user.getId()), null)),
+                    () -> assertThat(fallback.recommend(recommendationStorage.getUserMarks(user.getId()), null))
+                            .as("Рекомендации после пропуска поврежденного снимка отличаются от полного пересчета!")
+                            .isEqualTo(rebuilt.recommend(recommendationStorage.getUserMarks(user.getId()), null))
+            );
+        }
+    }
+
+    @Test
+    @DisplayName("Рекомендации движка ALS по похожим оценкам")
+    void alsRecommendationsTest() {
+        Film liked1 = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film liked2 = filmService.put(new Film("Лучше звоните Солу", "Сериал про адвоката",
+                LocalDate.of(2015, 2, 8), 100, filmService.getCategoryById(1)));
+        Film disliked1 = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        Film disliked2 = filmService.put(new Film("Прибытие", "Фильм про контакт",
+                LocalDate.of(2016, 9, 1), 116, filmService.getCategoryById(3)));
+
+        for (int i = 0; i < 6; i++) {
+            User user = userService.put(new User("user" + i + "@mail.ru", "user" + i, "user", LocalDate.now()));
+            filmService.addLike(liked1.getId(), user.getId(), 9 + i % 2);
+            filmService.addLike(liked2.getId(), user.getId(), 10 - i % 2);
+            filmService.addLike(disliked1.getId(), user.getId(), 2 + i % 2);
+            filmService.addLike(disliked2.getId(), user.getId(), 2);
+        }
+
+        User target = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        filmService.addLike(liked1.getId(), target.getId(), 10);
+        filmService.addLike(disliked1.getId(), target.getId(), 2);
+
+        AlsRecommender recommender = new AlsRecommender(recommendationStorage, 1, 4, 10, 0.1, 1000);
+        recommender.init();
+
+        assertThat(recommender.recommend(recommendationStorage.getUserMarks(target.getId()), null))
+                .as("Список рекомендаций ALS не соответствует ожидаемому!")
+                .isEqualTo(List.of(liked2.getId()));
+    }
+
+    @Test
+    @DisplayName("Модель ALS, обученная на пустой базе, переобучается в фоне после новых оценок")
+    void alsRetrainsAfterRatingChangesTest() throws InterruptedException {
+        AlsRecommender recommender = new AlsRecommender(recommendationStorage, 1, 4, 10, 0.1, 1000);
+        recommender.init();
+        long trainedVersion = recommender.getModelVersion();
+
+        User user = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        Film film = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+
+        try {
+            recommender.likeAdded(user.getId(), film.getId(), 9,
+                    () -> filmService.addLike(film.getId(), user.getId(), 9));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (recommender.getModelVersion() == trainedVersion && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            recommender.shutdown();
+        }
+
+        assertThat(recommender.getModelVersion())
+                .as("Модель ALS не переобучена после новых оценок!")
+                .isGreaterThan(trainedVersion);
+    }
+
+    @Test
+    @DisplayName("Офлайн-оценка движков рекомендаций на отложенных оценках")
+    void evaluateRecommendationsTest() {
+        Random random = new Random(7);
+        List<Film> films = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            films.add(filmService.put(new Film("Фильм " + i, "Фильм про будущее",
+                    LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(1 + i % 5))));
+        }
+
+        for (int i = 0; i < 30; i++) {
+            User user = userService.put(new User("user" + i + "@mail.ru", "user" + i, "user", LocalDate.now()));
+
+            for (Film film : films) {
+                if (random.nextInt(3) > 0) {
+                    filmService.addLike(film.getId(), user.getId(), 1 + random.nextInt(10));
+                }
+            }
+        }
+
+        List<RecommendationEvaluation> evaluations = userService.evaluateRecommendations(5);
+
+        assertThat(evaluations.size())
+                .as("Оценены не оба движка рекомендаций!")
+                .isEqualTo(2);
+
+        for (RecommendationEvaluation evaluation : evaluations) {
+            assertAll(
+                    () -> assertThat(evaluation.getUsers())
+                            .as("Нет пользователей с отложенными оценками!")
+                            .isGreaterThan(0),
+                    () -> assertThat(evaluation.getPrecisionAtK())
+                            .as("Точность вне допустимого диапазона!")
+                            .isBetween(0.0, 1.0),
+                    () -> assertThat(evaluation.getP99Millis())
+                            .as("99-й перцентиль задержки меньше медианы!")
+                            .isGreaterThanOrEqualTo(evaluation.getP50Millis())
+            );
+        }
+
+        assertThatExceptionOfType(ValidationException.class)
+                .isThrownBy(() -> userService.evaluateRecommendations(0));
+    }
+
+    @Test
+    @DisplayName("Сравнение движков рекомендаций на синтетических оценках")
+    void benchmarkRecommendationsTest() {
+        List<RecommendationEvaluation> first = userService.benchmarkRecommendations(300, 60, 10, 1.0, 1L, 5);
+        List<RecommendationEvaluation> second = userService.benchmarkRecommendations(300, 60, 10, 1.0, 1L, 5);
+
+        assertThat(first.size())
+                .as("Оценены не оба движка рекомендаций!")
+                .isEqualTo(2);
+
+        for (int i = 0; i < first.size(); i++) {
+            RecommendationEvaluation evaluation = first.get(i);
+            RecommendationEvaluation repeated = second.get(i);
+
+            assertAll(
+                    () -> assertThat(evaluation.getDataset())
+                            .as("Не указан набор данных!")
+                            .startsWith("synthetic"),
+                    () -> assertThat(evaluation.getUsers())
+                            .as("Нет пользователей с отложенными оценками!")
+                            .isGreaterThan(0),
+                    () -> assertThat(evaluation.getP90Millis())
+                            .as("Перцентили задержки не упорядочены!")
+                            .isBetween(evaluation.getP50Millis(), evaluation.getP99Millis()),
+                    () -> assertThat(evaluation.getAllocatedKbPerRequest())
+                            .as("Выделенная память не может быть отрицательной!")
+                            .isGreaterThanOrEqualTo(0.0),
+                    () -> assertThat(repeated.getRatings())
+                            .as("Синтетические оценки не воспроизводятся при том же seed!")
+                            .isEqualTo(evaluation.getRatings()),
+                    () -> assertThat(repeated.getPrecisionAtK())
+                            .as("Точность не воспроизводится при том же seed!")
+                            .isEqualTo(evaluation.getPrecisionAtK())
+            );
+        }
+
+        assertThatExceptionOfType(ValidationException.class)
+                .isThrownBy(() -> userService.benchmarkRecommendations(300, 60, 10, -1.0, 1L, 5));
+        assertThatExceptionOfType(ValidationException.class)
+                .isThrownBy(() -> userService.benchmarkRecommendations(300, 60, Integer.MAX_VALUE, 1.0, 1L, 5));
+        assertThatExceptionOfType(ValidationException.class)
+                .isThrownBy(() -> userService.benchmarkRecommendations(1_000_000, 100_000, 1000, 1.0, 1L, 5));
+    }
+
+    @Test
+    @DisplayName("Похожие фильмы по графу HNSW после пересчета рекомендаций и вставка нового фильма")
+    void findSimilarFilmsTest() {
+        List<Film> films = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            films.add(filmService.put(new Film("Фильм " + i, "Фильм про будущее",
+                    LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(1 + i))));
+        }
+
+        List<User> users = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            User user = userService.put(new User("user" + i + "@mail.ru", "user" + i, "user", LocalDate.now()));
+            users.add(user);
+
+            for (int j = 0; j < films.size(); j++) {
+                boolean sameGroup = (i < 4) == (j < 2);
+                filmService.addLike(films.get(j).getId(), user.getId(), sameGroup ? 9 + i % 2 : 1 + i % 2);
+            }
+        }
+
+        userService.rebuildRecommendations();
+
+        Film added = filmService.put(new Film("Новый фильм", "Фильм про будущее",
+                LocalDate.of(2020, 1, 1), 120, filmService.getCategoryById(1)));
+        filmService.addLike(added.getId(), users.get(0).getId(), 10);
+
+        assertAll(
+                () -> assertThat(filmService.findSimilarFilms(films.get(0).getId(), 1).get(0).getId())
+                        .as("Ближайший фильм не из той же группы оценок!")
+                        .isEqualTo(films.get(1).getId()),
+                () -> assertThat(filmService.findSimilarFilms(films.get(2).getId(), 1).get(0).getId())
+                        .as("Ближайший фильм не из той же группы оценок!")
+                        .isEqualTo(films.get(3).getId()),
+                () -> assertThat(filmService.findSimilarFilms(added.getId(), 2).stream().map(Film::getId)
+                                .collect(Collectors.toSet()))
+                        .as("Новый фильм не вставлен в граф рядом с фильмами, которые нравятся его зрителю!")
+                        .isEqualTo(Set.of(films.get(0).getId(), films.get(1).getId()))
+        );
+    }
+
+    @Test
+    @DisplayName("Фоновый расчет рекомендаций в таблицу и продолжение прерванного задания")
+    void recommendationBatchTest() {
+        jdbcTemplate.update("DELETE FROM recommendation_job");
+
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+
+        Film seen = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film recommended = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        filmService.addLike(seen.getId(), user1.getId(), 8);
+        filmService.addLike(seen.getId(), user2.getId(), 8);
+        filmService.addLike(recommended.getId(), user1.getId(), 9);
+
+        recommendationBatchJob.run();
+        RecommendationBatchStats completed = userService.getRecommendationBatchStats();
+        List<Integer> precomputed = jdbcTemplate.queryForList("SELECT film_id FROM user_recommendations " +
+                "WHERE user_id = ?", Integer.class, user2.getId());
+        List<Film> served = userService.getRecommendations(user2.getId());
+
+        jdbcTemplate.update("DELETE FROM user_recommendations");
+        jdbcTemplate.update("INSERT INTO recommendation_job (started_at, last_user_id, processed_users, total_users) " +
+                "VALUES (CURRENT_TIMESTAMP, ?, 1, 2)", user1.getId());
+        recommendationBatchJob.run();
+        RecommendationBatchStats resumed = userService.getRecommendationBatchStats();
+        Integer resumedRows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_recommendations " +
+                "WHERE user_id = ?", Integer.class, user2.getId());
+
+        filmService.addLike(recommended.getId(), user2.getId(), 9);
+        Integer rowsAfterLike = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_recommendations " +
+                "WHERE user_id = ?", Integer.class, user2.getId());
+
+        assertAll(
+                () -> assertThat(precomputed)
+                        .as("Рекомендации не сохранены в таблицу!")
+                        .isEqualTo(List.of(recommended.getId())),
+                () -> assertThat(served.stream().map(Film::getId).collect(Collectors.toList()))
+                        .as("Сохраненные рекомендации не совпадают с выданными!")
+                        .isEqualTo(precomputed),
+                () -> assertThat(completed.getProcessedUsers())
+                        .as("Обработаны не все пользователи с оценками!")
+                        .isEqualTo(2),
+                () -> assertThat(completed.isRunning())
+                        .as("Задание не завершено!")
+                        .isFalse(),
+                () -> assertThat(completed.getProgress())
+                        .as("Прогресс завершенного задания неверен!")
+                        .isEqualTo(1.0),
+                () -> assertThat(resumed.isResumed())
+                        .as("Прерванное задание не продолжено!")
+                        .isTrue(),
+                () -> assertThat(resumed.getProcessedUsers())
+                        .as("Продолженное задание обработало пользователей повторно!")
+                        .isEqualTo(2),
+                () -> assertThat(resumedRows)
+                        .as("Продолженное задание не посчитало оставшихся пользователей!")
+                        .isEqualTo(1),
+                () -> assertThat(rowsAfterLike)
+                        .as("Сохраненные рекомендации не удалены после новой оценки!")
+                        .isZero()
+        );
+    }
+
+    @Test
+    @DisplayName("Расчет рекомендаций по запросу выполняется в фоне")
+    void recommendationBatchRunsInBackgroundTest() throws InterruptedException {
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+        Film film = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        filmService.addLike(film.getId(), user1.getId(), 8);
+        filmService.addLike(film.getId(), user2.getId(), 8);
+
+        long completedJobs = userService.getRecommendationBatchStats().getCompletedJobs();
+        userService.runRecommendationBatch();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (userService.getRecommendationBatchStats().getCompletedJobs() == completedJobs
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(userService.getRecommendationBatchStats().getCompletedJobs())
+                .as("Расчет рекомендаций, запущенный по запросу, не выполнен!")
+                .isEqualTo(completedJobs + 1);
+    }
+
+    @Test
+    @DisplayName("Заранее посчитанные рекомендации, устаревшие относительно модели, не выдаются")
+    void stalePrecomputedRecommendationsTest() {
+        User user1 = userService.put(new User("mail@mail.ru", "dolore", "Nick Name", LocalDate.now()));
+        User user2 = userService.put(new User("friend@mail.ru", "friend", "adipisicing", LocalDate.now()));
+
+        Film seen = filmService.put(new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        Film recommended = filmService.put(new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        filmService.addLike(seen.getId(), user1.getId(), 8);
+        filmService.addLike(seen.getId(), user2.getId(), 8);
+        filmService.addLike(recommended.getId(), user1.getId(), 9);
+
+        jdbcTemplate.update("INSERT INTO user_recommendations (user_id, film_id, score, computed_at) " +
+                "VALUES (?, ?, 9.0, LOCALTIMESTAMP)", user2.getId(), recommended.getId());
+        List<Integer> fresh = recommendationBatchJob.findPrecomputed(user2.getId(), null);
+
+        jdbcTemplate.update("UPDATE user_recommendations SET computed_at = DATEADD('HOUR', -2, LOCALTIMESTAMP)");
+        List<Integer> stale = recommendationBatchJob.findPrecomputed(user2.getId(), null);
+
+        assertAll(
+                () -> assertThat(fresh)
+                        .as("Свежие сохраненные рекомендации не выданы!")
+                        .isEqualTo(List.of(recommended.getId())),
+                () -> assertThat(stale)
+                        .as("Выданы рекомендации, посчитанные до изменения модели и старше max-staleness-ms!")
+                        .isNull()
+        );
+    }
+}
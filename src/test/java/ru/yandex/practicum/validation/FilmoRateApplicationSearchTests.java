@@ -10,10 +10,14 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
 import ru.yandex.practicum.model.film.Director;
 import ru.yandex.practicum.model.film.Film;
+import ru.yandex.practicum.model.film.FilmStats;
 import ru.yandex.practicum.model.user.User;
 import ru.yandex.practicum.service.DirectorService;
 import ru.yandex.practicum.service.FilmService;
 import ru.yandex.practicum.service.UserService;
+import ru.yandex.practicum.storage.FilmSearchStorage;
+import ru.yandex.practicum.storage.index.FilmSearchIndex;
+import ru.yandex.practicum.storage.index.PopularFilmsIndex;
 
 import java.time.LocalDate;
 import java.util.Arrays;
@@ -21,7 +25,9 @@ import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+// те же тесты в режиме полнотекстового поиска H2 запускает FilmoRateApplicationFullTextSearchTests
 @SpringBootTest
 @AutoConfigureTestDatabase
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
@@ -31,6 +37,8 @@ class FilmoRateApplicationSearchTests {
     private final UserService userService;
     private final DirectorService directorService;
     private final JdbcTemplate jdbcTemplate;
+    private final FilmSearchStorage filmSearchStorage;
+    private final PopularFilmsIndex popularFilmsIndex;
 
     @BeforeEach
     void setUp() {
@@ -108,4 +116,104 @@ class FilmoRateApplicationSearchTests {
         assertEquals(searchFilms3, checkedSearchFilm3, "Неправильно выполнен поиск с запросом title");
         assertEquals(searchFilms4, checkedSearchFilm4, "Неправильно выполнен поиск с запросом director");
     }
+
+    @Test
+    void searchIndexFollowsUpdatesTest() {
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        Director director = directorService.addDirector(new Director(1000, "Sprielbeg"));
+
+        Film film1 = new Film("Бегущий по лезвию", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1));
+        film1.setDirectors(Arrays.asList(director));
+        int filmId1 = filmService.put(film1).getId();
+
+        Film film2 = filmService.put(new Film("Бегущий человек", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2)));
+        filmService.addLike(film2.getId(), user.getId(), 10);
+
+        assertEquals(List.of(filmService.get(film2.getId())), filmService.searchFilms("бегущий", "title", 1),
+                "Поиск вернул не самый популярный фильм");
+
+        Film filmForUpdate = filmService.get(filmId1);
+        filmForUpdate.setName("Чужой");
+        filmService.update(filmForUpdate);
+        assertEquals(List.of(filmService.get(filmId1)), filmService.searchFilms("чужой", "title"),
+                "Поиск не учел новое название фильма");
+        assertEquals(List.of(filmService.get(film2.getId())), filmService.searchFilms("бегущий", "title"),
+                "Поиск нашел фильм по старому названию");
+
+        directorService.updateDirector(new Director(director.getId(), "Spielberg"));
+        assertEquals(List.of(filmService.get(filmId1)), filmService.searchFilms("spielberg", "director"),
+                "Поиск не учел новое имя режиссера");
+        assertEquals(List.of(), filmService.searchFilms("sprielbeg", "director"),
+                "Поиск нашел режиссера по старому имени");
+
+        filmService.deleteById(filmId1);
+        assertEquals(List.of(), filmService.searchFilms("spielberg", "title,director"),
+                "Поиск нашел удаленный фильм");
+    }
+
+    @Test
+    void searchSkipsFilmsMissingInDbTest() {
+        assumeTrue(filmSearchStorage instanceof FilmSearchIndex, "Фильм без строки в БД можно положить только в индекс");
+
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        Film film = filmService.put(new Film("Бегущий по лезвию", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1)));
+        filmService.addLike(film.getId(), user.getId(), 10);
+
+        Film missingFilm = new Film("Бегущий человек", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2));
+        missingFilm.setId(film.getId() + 1000);
+        filmSearchStorage.putFilm(missingFilm);
+        popularFilmsIndex.updateStats(new FilmStats(missingFilm.getId(), 5, 50, 5, 1));
+
+        assertEquals(List.of(filmService.get(film.getId())), filmService.searchFilms("бегущий", "title", 1),
+                "Поиск вернул фильм, которого нет в БД");
+        assertEquals(List.of(film.getId()), filmSearchStorage.search("бегущий", true, false, null),
+                "Отсутствующий в БД фильм не удален из индекса поиска");
+    }
+
+    @Test
+    void searchBySubstringInIndexModeTest() {
+        assumeTrue(filmSearchStorage instanceof FilmSearchIndex, "Полнотекстовый поиск H2 ищет только целые слова");
+
+        int filmId = filmService.put(new Film("Бегущий по лезвию", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1))).getId();
+
+        assertEquals(List.of(filmId), filmSearchStorage.search("гущий по лез", true, false, null),
+                "Индекс не нашел фильм по части названия");
+    }
+
+    @Test
+    void searchFilmIdsTest() {
+        User user1 = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        User user2 = userService.put(new User("alala1@test.t", "lalala1", "alalala", LocalDate.now()));
+        Director director = directorService.addDirector(new Director(1000, "Jonson"));
+
+        Film film1 = new Film("Бегущий по лезвию", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1));
+        film1.setDirectors(Arrays.asList(director));
+        int filmId1 = filmService.put(film1).getId();
+        filmService.addLike(filmId1, user1.getId(), 10);
+
+        Film film2 = new Film("Бегущий по лезвию", "Фильм про будущее",
+                LocalDate.of(1998, 10, 9), 120, filmService.getCategoryById(2));
+        film2.setDirectors(Arrays.asList(director));
+        int filmId2 = filmService.put(film2).getId();
+        filmService.addLike(filmId2, user1.getId(), 10);
+        filmService.addLike(filmId2, user2.getId(), 10);
+
+        int filmId3 = filmService.put(new Film("Jonson", "Сериал про сплетниц",
+                LocalDate.of(2007, 10, 9), 45, filmService.getCategoryById(3))).getId();
+
+        assertEquals(List.of(filmId2, filmId1, filmId3), filmSearchStorage.search("JonSon", true, true, null),
+                "Неправильно выполнен поиск по названию и режиссеру");
+        assertEquals(List.of(filmId2, filmId1), filmSearchStorage.search("jonson", false, true, null),
+                "Неправильно выполнен поиск по режиссеру");
+        assertEquals(List.of(filmId2), filmSearchStorage.search("Бегущий по лезвию", true, false, 1),
+                "Неправильно ограничен поиск по названию");
+        assertEquals(List.of(), filmSearchStorage.search("notFound", true, true, null),
+                "Неправильно выполнен поиск с запросом notFound");
+    }
 }
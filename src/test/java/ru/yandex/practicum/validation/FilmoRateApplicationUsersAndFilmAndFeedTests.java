@@ -8,6 +8,9 @@ import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabas
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.jdbc.core.JdbcTemplate;
 import ru.yandex.practicum.exception.UnknownDataException;
+import ru.yandex.practicum.exception.ValidationException;
+import ru.yandex.practicum.model.Page;
+import ru.yandex.practicum.model.SuggestionBenchmark;
 import ru.yandex.practicum.model.event.Event;
 import ru.yandex.practicum.model.event.constants.EventType;
 import ru.yandex.practicum.model.event.constants.Operation;
@@ -16,6 +19,7 @@ import ru.yandex.practicum.model.film.Genre;
 import ru.yandex.practicum.model.film.MPA;
 import ru.yandex.practicum.model.film.Review;
 import ru.yandex.practicum.model.user.User;
+import ru.yandex.practicum.model.user.UserDistance;
 import ru.yandex.practicum.service.EventService;
 import ru.yandex.practicum.service.FilmService;
 import ru.yandex.practicum.service.ReviewService;
@@ -24,6 +28,10 @@ import ru.yandex.practicum.service.UserService;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -285,6 +293,63 @@ class FilmoRateApplicationUsersAndFilmAndFeedTests {
         assertEquals(1, events2.size(), "Эвенты не были добавлены");
     }
 
+    @Test
+    void feedTimelineTest() throws InterruptedException {
+        int userId1 = userService.put(new User("alala@test.t", "lalala", "Liza",
+                LocalDate.of(2002, 10, 7))).getId();
+        int userId2 = userService.put(new User("khfk@mail.ru", "dada", "Name",
+                LocalDate.of(1998, 7, 9))).getId();
+        int userId3 = userService.put(new User("lioh@mail.ru", "kaka", "Nick",
+                LocalDate.of(1987, 11, 17))).getId();
+
+        userService.addFriends(userId2, userId3);
+        userService.addFriends(userId1, userId2);
+        userService.acceptFriendship(userId2, userId1);
+        userService.removeFriends(userId2, userId3);
+
+        assertEquals(4, waitForEvents(userId1, 4).size(), "Прошлые события друга не попали в ленту");
+
+        Page<Event> firstPage = eventService.getPage(userId1, 0, 3);
+        assertEquals(3, firstPage.getItems().size(), "Неверный размер страницы ленты");
+        assertNotNull(firstPage.getNextAfterId(), "Не передан id для следующей страницы");
+
+        Page<Event> secondPage = eventService.getPage(userId1, firstPage.getNextAfterId(), 3);
+        assertEquals(1, secondPage.getItems().size(), "Неверный размер последней страницы ленты");
+        assertNull(secondPage.getNextAfterId(), "Передан id после последней страницы");
+        assertEquals(Operation.REMOVE, secondPage.getItems().get(0).getOperation(),
+                "Лента отсортирована не по id события");
+        assertThrows(ValidationException.class, () -> eventService.getPage(userId1, 0, 0));
+
+        userService.removeFriends(userId1, userId2);
+
+        assertEquals(2, eventService.getEvents(userId1).size(), "События бывшего друга остались в ленте");
+        assertEquals(0, waitForTimelineRows(userId1, 2), "Лента не очищена после удаления дружбы");
+    }
+
+    private List<Event> waitForEvents(int userId, int expected) throws InterruptedException {
+        List<Event> events = eventService.getEvents(userId);
+
+        for (int attempt = 0; attempt < 50 && events.size() < expected; attempt++) {
+            Thread.sleep(100);
+            events = eventService.getEvents(userId);
+        }
+
+        return events;
+    }
+
+    private int waitForTimelineRows(int ownerId, int authorId) throws InterruptedException {
+        String query = "select count(*) from user_timeline t join event_feed e on e.event_id = t.event_id " +
+                "where t.owner_id = ? and e.user_id = ?";
+        int rows = jdbcTemplate.queryForObject(query, Integer.class, ownerId, authorId);
+
+        for (int attempt = 0; attempt < 50 && rows > 0; attempt++) {
+            Thread.sleep(100);
+            rows = jdbcTemplate.queryForObject(query, Integer.class, ownerId, authorId);
+        }
+
+        return rows;
+    }
+
     @Test
     void foundCommonFriendsTest() {
         User user1 = userService.put(new User("alala@test.t", "lalala", "Liza",
@@ -315,6 +380,152 @@ class FilmoRateApplicationUsersAndFilmAndFeedTests {
         assertTrue(commonFriends.contains(actualUser2), "Неверный общий друг");
     }
 
+    @Test
+    void commonFriendsFollowFriendshipChangesTest() {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            ids.add(userService.put(new User("user" + i + "@mail.ru", "user" + i, "Name",
+                    LocalDate.of(1998, 7, 9))).getId());
+        }
+
+        for (int i = 2; i < 5; i++) {
+            userService.addFriends(ids.get(0), ids.get(i));
+            userService.addFriends(ids.get(1), ids.get(i));
+        }
+
+        assertEquals(List.of(ids.get(2), ids.get(3), ids.get(4)),
+                userService.commonFriends(ids.get(0), ids.get(1)).stream().map(User::getId).collect(Collectors.toList()),
+                "Неверный список общих друзей");
+
+        userService.removeFriends(ids.get(1), ids.get(3));
+        userService.deleteById(ids.get(4));
+
+        assertEquals(List.of(ids.get(2)),
+                userService.commonFriends(ids.get(0), ids.get(1)).stream().map(User::getId).collect(Collectors.toList()),
+                "Общие друзья не обновились после удаления связи и пользователя");
+        assertEquals(2, userService.getAllFriends(ids.get(0)).size(), "Удаленный пользователь остался в друзьях");
+        assertThrows(UnknownDataException.class, () -> userService.acceptFriendship(ids.get(3), ids.get(1)),
+                "Подтверждена несуществующая связь");
+    }
+
+    @Test
+    void concurrentFriendshipChangesMatchDbTest() throws Exception {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            ids.add(userService.put(new User("user" + i + "@mail.ru", "racer" + i, "Name",
+                    LocalDate.of(1998, 7, 9))).getId());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 400; i++) {
+            int userId = ids.get(i % ids.size());
+            int friendId = ids.get((i / ids.size() + 1 + i) % ids.size());
+            boolean add = i % 3 != 0;
+
+            if (userId != friendId) {
+                futures.add(executor.submit(() -> {
+                    if (add) {
+                        userService.addFriends(userId, friendId);
+                    } else {
+                        userService.removeFriends(userId, friendId);
+                    }
+                }));
+            }
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        for (int userId : ids) {
+            List<Integer> expected = jdbcTemplate.queryForList("SELECT DISTINCT friend_id FROM user_friends " +
+                    "WHERE user_id = ? ORDER BY friend_id", Integer.class, userId);
+            List<Integer> actual = userService.getAllFriends(userId).stream().map(User::getId).sorted()
+                    .collect(Collectors.toList());
+
+            assertEquals(expected, actual, "Граф дружбы разошелся с user_friends");
+        }
+    }
+
+    @Test
+    void suggestionsTest() {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            ids.add(userService.put(new User("user" + i + "@mail.ru", "suggested" + i, "Name",
+                    LocalDate.of(1998, 7, 9))).getId());
+        }
+
+        int[][] friendships = {{0, 1}, {0, 2}, {1, 3}, {2, 3}, {1, 4}};
+
+        for (int[] friendship : friendships) {
+            userService.addFriends(ids.get(friendship[0]), ids.get(friendship[1]));
+            userService.acceptFriendship(ids.get(friendship[1]), ids.get(friendship[0]));
+        }
+
+        assertEquals(List.of(ids.get(3), ids.get(4)),
+                userService.getSuggestions(ids.get(0), 10).stream().map(User::getId).collect(Collectors.toList()),
+                "Кандидаты не упорядочены по числу общих друзей");
+        assertEquals(List.of(ids.get(3)),
+                userService.getSuggestions(ids.get(0), 1).stream().map(User::getId).collect(Collectors.toList()),
+                "Не соблюдено ограничение count");
+
+        userService.addFriends(ids.get(0), ids.get(3));
+
+        assertEquals(List.of(ids.get(4)),
+                userService.getSuggestions(ids.get(0), 10).stream().map(User::getId).collect(Collectors.toList()),
+                "Рекомендации не сброшены после изменения дружбы");
+        assertThrows(ValidationException.class, () -> userService.getSuggestions(ids.get(0), 0));
+
+        SuggestionBenchmark benchmark = userService.benchmarkSuggestions(1000, 3, 50, 10, 7L);
+        assertTrue(benchmark.getMaxDegree() > 3 * 2, "В синтетическом графе нет пользователей-хабов");
+        assertTrue(benchmark.getP99Millis() >= benchmark.getP50Millis(), "Перцентили задержки не упорядочены");
+        assertThrows(ValidationException.class, () -> userService.benchmarkSuggestions(1_000_000, 1000, 50, 10, 7L),
+                "Принят граф со слишком большим числом связей");
+        assertThrows(ValidationException.class, () -> userService.benchmarkSuggestions(1_000_000, 99, 50, 10, 7L),
+                "Принят граф со слишком большим числом связей");
+    }
+
+    @Test
+    void distanceTest() {
+        List<Integer> ids = new ArrayList<>();
+
+        for (int i = 0; i < 5; i++) {
+            ids.add(userService.put(new User("user" + i + "@mail.ru", "distance" + i, "Name",
+                    LocalDate.of(1998, 7, 9))).getId());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            userService.addFriends(ids.get(i), ids.get(i + 1));
+            userService.acceptFriendship(ids.get(i + 1), ids.get(i));
+        }
+
+        userService.addFriends(ids.get(3), ids.get(4));
+
+        UserDistance distance = userService.getDistance(ids.get(0), ids.get(3));
+        assertEquals(3, (int) distance.getDistance(), "Неверное расстояние по цепочке друзей");
+        assertNull(userService.getDistance(ids.get(0), ids.get(4)).getDistance(),
+                "Неподтвержденная связь учтена в расстоянии");
+
+        userService.removeFriends(ids.get(1), ids.get(2));
+        UserDistance afterRemove = userService.getDistance(ids.get(0), ids.get(3));
+        assertNull(afterRemove.getDistance(), "Удаленная связь учтена в расстоянии");
+        assertFalse(afterRemove.isTruncated(), "Несвязные пользователи помечены как недообследованные");
+
+        userService.addFriends(ids.get(0), ids.get(2));
+        userService.acceptFriendship(ids.get(2), ids.get(0));
+        assertEquals(2, (int) userService.getDistance(ids.get(3), ids.get(0)).getDistance(),
+                "Новая связь не учтена в расстоянии");
+        assertEquals(0, (int) userService.getDistance(ids.get(1), ids.get(1)).getDistance(),
+                "Расстояние до себя должно быть нулевым");
+    }
+
     @Test
     void foundUsersFriendsTest() {
         User user1 = userService.put(new User("alala@test.t", "lalala", "Liza",
@@ -449,6 +660,164 @@ class FilmoRateApplicationUsersAndFilmAndFeedTests {
         assertTrue(allFilm.contains(filmService.get(filmId3)), "Фильм не был добавлен в список");
     }
 
+    @Test
+    void getAllFilmsStatementCountTest() {
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+
+        putFilmsWithLikes(2, user.getId());
+        long statementsForFewFilms = countStatements(filmService::getAll);
+
+        putFilmsWithLikes(20, user.getId());
+        long statementsForManyFilms = countStatements(filmService::getAll);
+
+        assertEquals(statementsForFewFilms, statementsForManyFilms,
+                "Количество запросов к БД зависит от количества фильмов");
+        assertEquals(countStatements(() -> filmService.getTop(2)), countStatements(() -> filmService.getTop(20)),
+                "Количество запросов к БД зависит от количества фильмов");
+    }
+
+    @Test
+    void getUsersStatementCountTest() {
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        User other = userService.put(new User("blabla@test.t", "blabla", "blabla", LocalDate.now()));
+
+        putFriends(2, user.getId(), other.getId());
+        List<Integer> fewIds = userService.getAll().stream().map(User::getId).collect(Collectors.toList());
+        List<Long> statementsForFewUsers = countUserStatements(user.getId(), other.getId(), fewIds);
+
+        putFriends(20, user.getId(), other.getId());
+        List<Integer> manyIds = userService.getAll().stream().map(User::getId).collect(Collectors.toList());
+        List<Long> statementsForManyUsers = countUserStatements(user.getId(), other.getId(), manyIds);
+
+        assertEquals(statementsForFewUsers, statementsForManyUsers,
+                "Количество запросов к БД зависит от количества пользователей");
+        assertEquals(22, userService.getAllFriends(user.getId()).size(), "Не все друзья загружены");
+        assertEquals(22, userService.getUsersByIds(manyIds).stream()
+                        .filter(friend -> friend.getFriends().stream()
+                                .anyMatch(connection -> connection.getFriendId() == user.getId()))
+                        .count(),
+                "Связи друзей не загружены пакетно");
+    }
+
+    private void putFriends(int count, int userId, int otherId) {
+        for (int i = 0; i < count; i++) {
+            int friendId = userService.put(new User("friend" + i + "@test.t", "friend" + userId + "_" + otherId
+                    + "_" + count + "_" + i, "friend", LocalDate.now())).getId();
+
+            userService.addFriends(userId, friendId);
+            userService.addFriends(otherId, friendId);
+            userService.acceptFriendship(friendId, userId);
+        }
+    }
+
+    private List<Long> countUserStatements(int userId, int otherId, List<Integer> ids) {
+        List<Long> statements = new ArrayList<>();
+
+        statements.add(countStatements(userService::getAll));
+        statements.add(countStatements(() -> userService.getUsersByIds(ids)));
+        statements.add(countStatements(() -> userService.getAllFriends(userId)));
+        statements.add(countStatements(() -> userService.commonFriends(userId, otherId)));
+        statements.add(countStatements(() -> userService.getPage(0, ids.size())));
+        statements.add(countStatements(() -> userService.streamAll(chunk -> {
+        })));
+
+        return statements;
+    }
+
+    @Test
+    void getFilmsAndUsersPageTest() {
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        userService.put(new User("blabla@test.t", "blabla", "blabla", LocalDate.now()));
+        userService.put(new User("clacla@test.t", "clacla", "clacla", LocalDate.now()));
+        putFilmsWithLikes(5, user.getId());
+
+        List<Film> pagedFilms = new ArrayList<>();
+        Integer afterId = 0;
+        do {
+            Page<Film> page = filmService.getPage(afterId, 2);
+            assertTrue(page.getItems().size() <= 2, "Размер страницы превышает limit");
+            pagedFilms.addAll(page.getItems());
+            afterId = page.getNextAfterId();
+        } while (afterId != null);
+
+        List<Film> allFilms = filmService.getAll();
+        assertEquals(allFilms.size(), pagedFilms.size(), "Постраничный вывод фильмов не совпадает с полным списком");
+        assertTrue(pagedFilms.containsAll(allFilms), "Постраничный вывод фильмов не совпадает с полным списком");
+
+        Page<User> usersPage = userService.getPage(0, 2);
+        assertEquals(2, usersPage.getItems().size(), "Неверный размер страницы пользователей");
+        Page<User> lastUsersPage = userService.getPage(usersPage.getNextAfterId(), 2);
+        assertEquals(1, lastUsersPage.getItems().size(), "Неверный размер последней страницы пользователей");
+        assertNull(lastUsersPage.getNextAfterId(), "У последней страницы не должно быть курсора");
+
+        assertThrows(ValidationException.class, () -> filmService.getPage(0, 0));
+        assertThrows(ValidationException.class, () -> userService.getPage(-1, 10));
+    }
+
+    @Test
+    void streamAllFilmsAndUsersTest() {
+        User user = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
+        putFilmsWithLikes(3, user.getId());
+
+        List<Film> streamedFilms = new ArrayList<>();
+        filmService.streamAll(streamedFilms::addAll);
+        List<User> streamedUsers = new ArrayList<>();
+        userService.streamAll(streamedUsers::addAll);
+
+        List<Film> allFilms = filmService.getAll();
+        assertEquals(allFilms.size(), streamedFilms.size(), "Потоковый вывод фильмов не совпадает с полным списком");
+        assertTrue(streamedFilms.containsAll(allFilms), "Потоковый вывод фильмов не совпадает с полным списком");
+        assertEquals(List.of(userService.get(user.getId())), streamedUsers,
+                "Потоковый вывод пользователей не совпадает с полным списком");
+    }
+
+    @Test
+    void streamAllUsersAcrossChunksTest() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 1001; i++) {
+            rows.add(new Object[]{"user" + i + "@test.t", "user" + i, "user" + i, LocalDate.of(2000, 1, 1)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)", rows);
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<User> streamedUsers = new ArrayList<>();
+        userService.streamAll(chunk -> {
+            chunkSizes.add(chunk.size());
+            streamedUsers.addAll(chunk);
+        });
+
+        assertEquals(List.of(500, 500, 1), chunkSizes, "Пользователи выводятся неверными порциями");
+        List<Integer> streamedIds = streamedUsers.stream().map(User::getId).collect(Collectors.toList());
+        assertEquals(streamedIds.stream().sorted().distinct().collect(Collectors.toList()), streamedIds,
+                "Порции пользователей пересекаются или идут не по порядку");
+        assertEquals(userService.getAll().size(), streamedIds.size(),
+                "Потоковый вывод пользователей не совпадает с полным списком");
+    }
+
+    private void putFilmsWithLikes(int count, int userId) {
+        for (int i = 0; i < count; i++) {
+            Film film = new Film("Во все тяжкие", "Сериал про двух друзей",
+                    LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1));
+            film.setGenres(List.of(filmService.getGenreById(1), filmService.getGenreById(2)));
+            film = filmService.put(film);
+
+            filmService.addLike(film.getId(), userId, 10);
+        }
+    }
+
+    private long countStatements(Runnable action) {
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+
+        action.run();
+
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT SUM(EXECUTION_COUNT) FROM INFORMATION_SCHEMA.QUERY_STATISTICS", Long.class);
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+        return count == null ? 0 : count;
+    }
+
     @Test
     void addLikeTest() {
         User userPut = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));
@@ -551,6 +920,33 @@ class FilmoRateApplicationUsersAndFilmAndFeedTests {
         assertThrows(UnknownDataException.class, () -> filmService.getCategoryById(10));
     }
 
+    @Test
+    void referenceDataCacheTest() {
+        Film film = new Film("Во все тяжкие", "Сериал про двух друзей",
+                LocalDate.of(2005, 10, 9), 100, filmService.getCategoryById(1));
+        film.setGenres(List.of(filmService.getGenreById(2)));
+        int filmId = filmService.put(film).getId();
+
+        Film actualFilm = filmService.get(filmId);
+        assertEquals("G", actualFilm.getMpa().getName(), "Категория фильма не взята из справочника");
+        assertEquals("Драма", actualFilm.getGenres().get(0).getName(), "Жанр фильма не взят из справочника");
+
+        actualFilm.getMpa().setName("Изменено");
+        actualFilm.getGenres().get(0).setName("Изменено");
+        filmService.getAllGenres().get(1).setName("Изменено");
+        assertEquals("G", filmService.getCategoryById(1).getName(), "Категория в справочнике изменена снаружи");
+        assertEquals("Драма", filmService.getGenreById(2).getName(), "Жанр в справочнике изменен снаружи");
+
+        jdbcTemplate.update("UPDATE genre SET name = 'Трагедия' WHERE genre_id = 2");
+        assertEquals("Драма", filmService.getGenreById(2).getName(), "Справочник жанров не закэширован");
+
+        filmService.rebuildStats();
+        assertEquals("Трагедия", filmService.getGenreById(2).getName(), "Справочник жанров не перезагружен");
+
+        jdbcTemplate.update("UPDATE genre SET name = 'Драма' WHERE genre_id = 2");
+        filmService.rebuildStats();
+    }
+
     @Test
     void putAndGetEventTest() {
         User putUser = userService.put(new User("alala@test.t", "lalala", "alalala", LocalDate.now()));